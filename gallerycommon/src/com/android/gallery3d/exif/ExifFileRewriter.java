@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.exif;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replaces the exif header of a jpeg file without streaming the image data
+ * through the java heap. Only the segments up to the end of the first APP1
+ * segment (or up to the first SOF marker if there is none) go through an
+ * {@link ExifOutputStream}; the rest of the file is copied as is with
+ * {@link FileChannel#transferTo}. This produces the same output as writing
+ * the whole file to an ExifOutputStream.
+ * <p>
+ * The result is written to a temporary file next to the destination, which
+ * is renamed over the destination once complete, so the destination can be
+ * the source file and is never left half written.
+ */
+class ExifFileRewriter {
+    private static final String TAG = "ExifFileRewriter";
+    private static final boolean DEBUG = false;
+    private static final String TEMP_SUFFIX = ".exif.tmp";
+
+    private final ExifInterface mInterface;
+    private long mBytesRewritten;
+    private long mBytesCopied;
+
+    protected ExifFileRewriter(ExifInterface iRef) {
+        mInterface = iRef;
+    }
+
+    /**
+     * Writes inFileName to outFileName with its exif header replaced by the
+     * given ExifData.
+     */
+    protected void rewrite(ExifData exifData, String inFileName, String outFileName)
+            throws IOException {
+        File outFile = new File(outFileName);
+        File tempFile = new File(outFile.getPath() + TEMP_SUFFIX);
+        FileInputStream is = null;
+        FileOutputStream os = null;
+        ExifOutputStream eos = null;
+        boolean success = false;
+        try {
+            is = new FileInputStream(inFileName);
+            FileChannel in = is.getChannel();
+            long size = in.size();
+            int headerEnd = findHeaderEnd(in, size);
+            ByteBuffer header = ByteBuffer.allocate(headerEnd);
+            readFully(in, header, 0);
+
+            os = new FileOutputStream(tempFile);
+            eos = new ExifOutputStream(os, mInterface);
+            eos.setExifData(exifData);
+            eos.write(header.array(), 0, headerEnd);
+            eos.flush();
+
+            FileChannel out = os.getChannel();
+            mBytesRewritten = out.position();
+            long position = headerEnd;
+            while (position < size) {
+                long count = in.transferTo(position, size - position, out);
+                if (count <= 0) {
+                    throw new IOException("Could not copy image data of " + inFileName);
+                }
+                position += count;
+            }
+            mBytesCopied = size - headerEnd;
+            os.getFD().sync();
+            eos.close();
+            eos = null;
+            os = null;
+            if (!tempFile.renameTo(outFile)) {
+                throw new IOException("Could not rename " + tempFile + " to " + outFile);
+            }
+            success = true;
+        } finally {
+            ExifInterface.closeSilently(is);
+            ExifInterface.closeSilently(eos);
+            ExifInterface.closeSilently(os);
+            if (!success) {
+                tempFile.delete();
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "wrote " + outFileName + ": " + mBytesRewritten + " bytes rewritten, "
+                    + mBytesCopied + " bytes copied");
+        }
+    }
+
+    /**
+     * Returns the number of bytes written through the ExifOutputStream by the
+     * last rewrite: the new exif header and the segments before it.
+     */
+    protected long getBytesRewritten() {
+        return mBytesRewritten;
+    }
+
+    /**
+     * Returns the number of bytes copied unchanged by the last rewrite.
+     */
+    protected long getBytesCopied() {
+        return mBytesCopied;
+    }
+
+    // Returns the offset past the first APP1 segment, or of the first SOF
+    // marker, following the way ExifOutputStream walks the segments.
+    private static int findHeaderEnd(FileChannel in, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        readFully(in, buf, 0);
+        if (buf.getShort(0) != JpegHeader.SOI) {
+            throw new IOException("Not a valid jpeg image, cannot write exif");
+        }
+        long position = 2;
+        while (position + 4 <= size) {
+            buf.clear();
+            readFully(in, buf, position);
+            short marker = buf.getShort(0);
+            int length = buf.getShort(2) & 0x0000ffff;
+            if (marker == JpegHeader.APP1) {
+                position += 2 + length;
+                break;
+            } else if (JpegHeader.isSofMarker(marker) || marker == JpegHeader.EOI) {
+                break;
+            }
+            position += 2 + length;
+        }
+        position = Math.min(position, size);
+        if (position > Integer.MAX_VALUE) {
+            throw new IOException("Jpeg header is too large");
+        }
+        return (int) position;
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buf, long position)
+            throws IOException {
+        while (buf.hasRemaining()) {
+            int count = in.read(buf, position);
+            if (count < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += count;
+        }
+    }
+}
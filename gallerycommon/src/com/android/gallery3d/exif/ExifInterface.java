@@ -923,7 +923,9 @@ public class ExifInterface {
 
     /**
      * Writes the tags from this ExifInterface object into a jpeg file, removing
-     * prior exif tags.
+     * prior exif tags. Only the exif header is rewritten, the image data is
+     * copied from file to file, and the output file is replaced atomically,
+     * so both filepaths may be the same.
      *
      * @param jpegFileName a String containing the filepath for a jpeg file.
      * @param exifOutFileName a String containing the filepath to which the jpeg
@@ -936,15 +938,7 @@ public class ExifInterface {
         if (jpegFileName == null || exifOutFileName == null) {
             throw new IllegalArgumentException(NULL_ARGUMENT_STRING);
         }
-        InputStream is = null;
-        try {
-            is = new FileInputStream(jpegFileName);
-            writeExif(is, exifOutFileName);
-        } catch (IOException e) {
-            closeSilently(is);
-            throw e;
-        }
-        is.close();
+        new ExifFileRewriter(this).rewrite(mData, jpegFileName, exifOutFileName);
     }
 
     /**
@@ -1080,8 +1074,9 @@ public class ExifInterface {
 
     /**
      * Attempts to do an in-place rewrite of the exif metadata. If this fails,
-     * fall back to overwriting file. This preserves tags that are not being
-     * rewritten.
+     * fall back to rewriting the exif header of the file with
+     * {@link #writeExif(String, String)}. This preserves tags that are not
+     * being rewritten.
      *
      * @param filename a String containing a filepath for a jpeg file.
      * @param tags tags that will be written into the jpeg file over existing
@@ -1098,21 +1093,11 @@ public class ExifInterface {
             // Fall back to doing a copy
             ExifData tempData = mData;
             mData = new ExifData(DEFAULT_BYTE_ORDER);
-            FileInputStream is = null;
-            ByteArrayOutputStream bytes = null;
             try {
-                is = new FileInputStream(filename);
-                bytes = new ByteArrayOutputStream();
-                doExifStreamIO(is, bytes);
-                byte[] imageBytes = bytes.toByteArray();
-                readExif(imageBytes);
+                readExif(filename);
                 setTags(tags);
-                writeExif(imageBytes, filename);
-            } catch (IOException e) {
-                closeSilently(is);
-                throw e;
+                writeExif(filename, filename);
             } finally {
-                is.close();
                 // Prevent clobbering of mData
                 mData = tempData;
             }
@@ -0,0 +1,536 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.exif;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.TimeZone;
+
+/**
+ * This class reads a few common EXIF values straight from the bytes of a
+ * JPEG file, without parsing the whole EXIF header into {@link ExifTag}s.
+ * Only the start of a file, where the EXIF header is, gets memory-mapped, and
+ * the IFDs are looked up by their offsets, so only the pages holding the
+ * requested values are read.
+ * <p>
+ * Use {@link ExifInterface} to read any other tag or to modify the EXIF data.
+ * A file that has no valid EXIF header is not an error, the getters then
+ * return their default value.
+ */
+public class MappedExifReader {
+    private static final int EXIF_HEADER = 0x45786966; // "Exif"
+    private static final short LITTLE_ENDIAN_TAG = (short) 0x4949; // "II"
+    private static final short BIG_ENDIAN_TAG = (short) 0x4d4d; // "MM"
+    private static final short TIFF_HEADER_TAIL = 0x002A;
+    private static final int TAG_SIZE = 12;
+
+    // The EXIF header (APP1) is at most 64KB, and may only be preceded by a
+    // JFIF header (APP0) of at most 64KB.
+    private static final int MAX_HEADER_SIZE = 128 * 1024;
+
+    private static final short TAG_ORIENTATION =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_ORIENTATION);
+    private static final short TAG_IMAGE_WIDTH =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_IMAGE_WIDTH);
+    private static final short TAG_IMAGE_LENGTH =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_IMAGE_LENGTH);
+    private static final short TAG_DATE_TIME =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_DATE_TIME);
+    private static final short TAG_EXIF_IFD =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_EXIF_IFD);
+    private static final short TAG_GPS_IFD =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_GPS_IFD);
+    private static final short TAG_PIXEL_X_DIMENSION =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_PIXEL_X_DIMENSION);
+    private static final short TAG_PIXEL_Y_DIMENSION =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_PIXEL_Y_DIMENSION);
+    private static final short TAG_DATE_TIME_ORIGINAL =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_DATE_TIME_ORIGINAL);
+    private static final short TAG_GPS_LATITUDE_REF =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_GPS_LATITUDE_REF);
+    private static final short TAG_GPS_LATITUDE =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_GPS_LATITUDE);
+    private static final short TAG_GPS_LONGITUDE_REF =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_GPS_LONGITUDE_REF);
+    private static final short TAG_GPS_LONGITUDE =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_GPS_LONGITUDE);
+    private static final short TAG_JPEG_INTERCHANGE_FORMAT =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT);
+    private static final short TAG_JPEG_INTERCHANGE_FORMAT_LENGTH =
+            ExifInterface.getTrueTagKey(ExifInterface.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH);
+
+    private final ByteBuffer mBuffer;
+    // Absolute positions in mBuffer, -1 if missing.
+    private int mTiffStart = -1;
+    private int mTiffEnd;
+    private int mIfd0 = -1;
+    private int mIfd1 = -1;
+    private int mExifIfd = -1;
+    private int mGpsIfd = -1;
+
+    /**
+     * Memory-maps the start of the given JPEG file.
+     *
+     * @throws IOException if the file can't be opened or mapped.
+     */
+    public static MappedExifReader open(String fileName) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = Math.min(channel.size(), MAX_HEADER_SIZE);
+            // The mapping stays valid once the file is closed.
+            return new MappedExifReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads the EXIF header of the JPEG image in the given buffer, from index
+     * 0 to its limit. The position of the buffer is not modified.
+     */
+    public MappedExifReader(ByteBuffer jpeg) {
+        mBuffer = jpeg.duplicate();
+        if (!seekTiffData()) {
+            mTiffStart = -1;
+            return;
+        }
+        mIfd0 = getIfdPosition(readUnsignedInt(mTiffStart + 4));
+        if (mIfd0 < 0) {
+            return;
+        }
+        mIfd1 = getIfdPosition(readUnsignedInt(mIfd0 + 2 + getEntryCount(mIfd0) * TAG_SIZE));
+        mExifIfd = getIfdPosition(getUnsignedValue(mIfd0, TAG_EXIF_IFD, -1));
+        mGpsIfd = getIfdPosition(getUnsignedValue(mIfd0, TAG_GPS_IFD, -1));
+    }
+
+    public boolean hasExif() {
+        return mIfd0 >= 0;
+    }
+
+    /**
+     * Returns the value of the orientation tag, see
+     * {@link ExifInterface.Orientation}, or 0 if there is none.
+     */
+    public int getOrientation() {
+        return (int) getUnsignedValue(mIfd0, TAG_ORIENTATION, 0);
+    }
+
+    /**
+     * Returns the clockwise rotation of the image, one of 0, 90, 180 or 270.
+     */
+    public int getRotation() {
+        return ExifInterface.getRotationForOrientationValue((short) getOrientation());
+    }
+
+    /**
+     * Returns the width of the image, or 0 if it's not in the EXIF header.
+     */
+    public int getImageWidth() {
+        long width = getUnsignedValue(mExifIfd, TAG_PIXEL_X_DIMENSION, 0);
+        if (width == 0) {
+            width = getUnsignedValue(mIfd0, TAG_IMAGE_WIDTH, 0);
+        }
+        return (int) width;
+    }
+
+    /**
+     * Returns the height of the image, or 0 if it's not in the EXIF header.
+     */
+    public int getImageHeight() {
+        long height = getUnsignedValue(mExifIfd, TAG_PIXEL_Y_DIMENSION, 0);
+        if (height == 0) {
+            height = getUnsignedValue(mIfd0, TAG_IMAGE_LENGTH, 0);
+        }
+        return (int) height;
+    }
+
+    /**
+     * Returns the date the picture was taken, falling back to the date it
+     * was modified, in milliseconds since the epoch. The EXIF dates have no
+     * time zone, they are read as local times of the given one.
+     *
+     * @return the date, or -1 if there is none.
+     */
+    public long getDateTaken(TimeZone timeZone) {
+        long date = getDate(mExifIfd, TAG_DATE_TIME_ORIGINAL, timeZone);
+        if (date == -1) {
+            date = getDate(mIfd0, TAG_DATE_TIME, timeZone);
+        }
+        return date;
+    }
+
+    /**
+     * Gets the GPS latitude and longitude of the picture.
+     *
+     * @param latLong an array of 2 doubles, receiving the latitude and the
+     *            longitude respectively.
+     * @return true if the picture has a location.
+     * @see ExifInterface#getLatLongAsDoubles()
+     */
+    public boolean getLatLong(double[] latLong) {
+        int latitude = findCoordinate(TAG_GPS_LATITUDE);
+        int longitude = findCoordinate(TAG_GPS_LONGITUDE);
+        int latitudeRef = findValue(mGpsIfd, TAG_GPS_LATITUDE_REF, 1);
+        int longitudeRef = findValue(mGpsIfd, TAG_GPS_LONGITUDE_REF, 1);
+        if (latitude < 0 || longitude < 0 || latitudeRef < 0 || longitudeRef < 0) {
+            return false;
+        }
+        latLong[0] = readCoordinate(latitude, mBuffer.get(latitudeRef) == 'S');
+        latLong[1] = readCoordinate(longitude, mBuffer.get(longitudeRef) == 'W');
+        return true;
+    }
+
+    public boolean hasThumbnail() {
+        return getThumbnailLength() > 0;
+    }
+
+    /**
+     * Returns the position of the compressed thumbnail in the file, or -1
+     * if there is none.
+     */
+    public int getThumbnailOffset() {
+        long offset = getUnsignedValue(mIfd1, TAG_JPEG_INTERCHANGE_FORMAT, -1);
+        if (offset < 0 || mTiffStart + offset >= mTiffEnd) {
+            return -1;
+        }
+        return (int) (mTiffStart + offset);
+    }
+
+    /**
+     * Returns the size of the compressed thumbnail, or 0 if there is none.
+     */
+    public int getThumbnailLength() {
+        int offset = getThumbnailOffset();
+        if (offset < 0) {
+            return 0;
+        }
+        long length = getUnsignedValue(mIfd1, TAG_JPEG_INTERCHANGE_FORMAT_LENGTH, 0);
+        return (int) Math.min(length, mTiffEnd - offset);
+    }
+
+    /**
+     * Returns a copy of the compressed thumbnail, or null if there is none.
+     */
+    public byte[] getThumbnail() {
+        int length = getThumbnailLength();
+        if (length == 0) {
+            return null;
+        }
+        byte[] thumbnail = new byte[length];
+        ByteBuffer buffer = mBuffer.duplicate();
+        buffer.position(getThumbnailOffset());
+        buffer.get(thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Returns the data type of the given tag, see {@link ExifTag}, or -1 if
+     * the tag is not in the EXIF header.
+     *
+     * @param tagId one of the ExifInterface TAG_* constants of the IFD 0, IFD
+     *            1, EXIF or GPS IFDs.
+     */
+    public short getTagType(int tagId) {
+        int entry = findEntry(getIfd(tagId), ExifInterface.getTrueTagKey(tagId));
+        return entry < 0 ? -1 : mBuffer.getShort(entry + 2);
+    }
+
+    /**
+     * Returns the first component of an integer tag, or the default value.
+     */
+    public long getLongValue(int tagId, long defaultValue) {
+        int ifd = getIfd(tagId);
+        short tag = ExifInterface.getTrueTagKey(tagId);
+        int entry = findEntry(ifd, tag);
+        int position = findValue(ifd, tag, 1);
+        if (position < 0) {
+            return defaultValue;
+        }
+        switch (mBuffer.getShort(entry + 2)) {
+            case ExifTag.TYPE_UNSIGNED_BYTE:
+            case ExifTag.TYPE_UNDEFINED:
+                return mBuffer.get(position) & 0xFF;
+            case ExifTag.TYPE_UNSIGNED_SHORT:
+                return mBuffer.getShort(position) & 0xFFFF;
+            case ExifTag.TYPE_UNSIGNED_LONG:
+                return mBuffer.getInt(position) & 0xFFFFFFFFL;
+            case ExifTag.TYPE_LONG:
+                return mBuffer.getInt(position);
+            default:
+                return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the first component of a rational tag, or the default value.
+     */
+    public double getRationalValue(int tagId, double defaultValue) {
+        int ifd = getIfd(tagId);
+        short tag = ExifInterface.getTrueTagKey(tagId);
+        int entry = findEntry(ifd, tag);
+        int position = findValue(ifd, tag, 1);
+        if (position < 0) {
+            return defaultValue;
+        }
+        switch (mBuffer.getShort(entry + 2)) {
+            case ExifTag.TYPE_UNSIGNED_RATIONAL:
+                return readRational(position);
+            case ExifTag.TYPE_RATIONAL:
+                int denominator = mBuffer.getInt(position + 4);
+                return denominator == 0 ? 0 : (double) mBuffer.getInt(position) / denominator;
+            default:
+                return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the value of an ASCII tag up to its first null character, or
+     * null.
+     */
+    public String getStringValue(int tagId) {
+        int ifd = getIfd(tagId);
+        short tag = ExifInterface.getTrueTagKey(tagId);
+        int entry = findEntry(ifd, tag);
+        int position = findValue(ifd, tag, 0);
+        if (position < 0 || mBuffer.getShort(entry + 2) != ExifTag.TYPE_ASCII) {
+            return null;
+        }
+        int count = mBuffer.getInt(entry + 4);
+        StringBuilder value = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            char c = (char) (mBuffer.get(position + i) & 0xFF);
+            if (c == 0) {
+                break;
+            }
+            value.append(c);
+        }
+        return value.toString();
+    }
+
+    private int getIfd(int tagId) {
+        switch (ExifInterface.getTrueIfd(tagId)) {
+            case IfdId.TYPE_IFD_0:
+                return mIfd0;
+            case IfdId.TYPE_IFD_1:
+                return mIfd1;
+            case IfdId.TYPE_IFD_EXIF:
+                return mExifIfd;
+            case IfdId.TYPE_IFD_GPS:
+                return mGpsIfd;
+            default:
+                return -1;
+        }
+    }
+
+    // Finds the APP1 segment holding the EXIF header, like ExifParser does.
+    private boolean seekTiffData() {
+        int limit = mBuffer.limit();
+        mBuffer.order(ByteOrder.BIG_ENDIAN);
+        if (limit < 4 || mBuffer.getShort(0) != JpegHeader.SOI) {
+            return false;
+        }
+        int position = 2;
+        while (position + 4 <= limit) {
+            short marker = mBuffer.getShort(position);
+            if (marker == JpegHeader.EOI || JpegHeader.isSofMarker(marker)) {
+                return false;
+            }
+            int length = mBuffer.getShort(position + 2) & 0xFFFF;
+            if (length < 2) {
+                return false;
+            }
+            if (marker == JpegHeader.APP1 && length >= 8 && position + 10 <= limit
+                    && mBuffer.getInt(position + 4) == EXIF_HEADER
+                    && mBuffer.getShort(position + 8) == 0) {
+                mTiffStart = position + 10;
+                mTiffEnd = Math.min(position + 2 + length, limit);
+                return parseTiffHeader();
+            }
+            position += 2 + length;
+        }
+        return false;
+    }
+
+    private boolean parseTiffHeader() {
+        if (mTiffStart + 8 > mTiffEnd) {
+            return false;
+        }
+        short byteOrder = mBuffer.getShort(mTiffStart);
+        if (byteOrder == LITTLE_ENDIAN_TAG) {
+            mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (byteOrder != BIG_ENDIAN_TAG) {
+            return false;
+        }
+        return mBuffer.getShort(mTiffStart + 2) == TIFF_HEADER_TAIL;
+    }
+
+    // Returns the position of the IFD at the given offset from the TIFF
+    // header, or -1 if it's not in the EXIF header.
+    private int getIfdPosition(long offset) {
+        if (mTiffStart < 0 || offset <= 0 || mTiffStart + offset + 2 > mTiffEnd) {
+            return -1;
+        }
+        int position = (int) (mTiffStart + offset);
+        if (position + 2 + getEntryCount(position) * TAG_SIZE + 4 > mTiffEnd) {
+            return -1;
+        }
+        return position;
+    }
+
+    private int getEntryCount(int ifd) {
+        return mBuffer.getShort(ifd) & 0xFFFF;
+    }
+
+    private long readUnsignedInt(int position) {
+        if (position < 0 || position + 4 > mTiffEnd) {
+            return -1;
+        }
+        return mBuffer.getInt(position) & 0xFFFFFFFFL;
+    }
+
+    private int findEntry(int ifd, short tag) {
+        if (ifd < 0) {
+            return -1;
+        }
+        int count = getEntryCount(ifd);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * TAG_SIZE;
+            if (mBuffer.getShort(entry) == tag) {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    // Returns the position of the value of the tag if it has at least the
+    // given number of components, or -1.
+    private int findValue(int ifd, short tag, int minCount) {
+        int entry = findEntry(ifd, tag);
+        if (entry < 0) {
+            return -1;
+        }
+        int elementSize = ExifTag.getElementSize(mBuffer.getShort(entry + 2));
+        long count = mBuffer.getInt(entry + 4) & 0xFFFFFFFFL;
+        if (elementSize == 0 || count < minCount) {
+            return -1;
+        }
+        long size = count * elementSize;
+        if (size <= 4) {
+            return entry + 8;
+        }
+        long position = mTiffStart + (mBuffer.getInt(entry + 8) & 0xFFFFFFFFL);
+        if (position + size > mTiffEnd) {
+            return -1;
+        }
+        return (int) position;
+    }
+
+    // Returns the first component of an unsigned short or long tag.
+    private long getUnsignedValue(int ifd, short tag, long defaultValue) {
+        int entry = findEntry(ifd, tag);
+        if (entry < 0 || (mBuffer.getInt(entry + 4) & 0xFFFFFFFFL) < 1) {
+            return defaultValue;
+        }
+        switch (mBuffer.getShort(entry + 2)) {
+            case ExifTag.TYPE_UNSIGNED_SHORT:
+                return mBuffer.getShort(entry + 8) & 0xFFFF;
+            case ExifTag.TYPE_UNSIGNED_LONG:
+                return mBuffer.getInt(entry + 8) & 0xFFFFFFFFL;
+            default:
+                return defaultValue;
+        }
+    }
+
+    // Returns the position of the degrees, minutes and seconds of a GPS
+    // coordinate, or -1 if the tag doesn't hold 3 rationals.
+    private int findCoordinate(short tag) {
+        int entry = findEntry(mGpsIfd, tag);
+        if (entry < 0) {
+            return -1;
+        }
+        short type = mBuffer.getShort(entry + 2);
+        if (type != ExifTag.TYPE_UNSIGNED_RATIONAL && type != ExifTag.TYPE_RATIONAL) {
+            return -1;
+        }
+        return findValue(mGpsIfd, tag, 3);
+    }
+
+    private double readCoordinate(int position, boolean negative) {
+        double degrees = readRational(position);
+        double minutes = readRational(position + 8);
+        double seconds = readRational(position + 16);
+        double result = degrees + minutes / 60.0 + seconds / 3600.0;
+        return negative ? -result : result;
+    }
+
+    private double readRational(int position) {
+        long numerator = mBuffer.getInt(position) & 0xFFFFFFFFL;
+        long denominator = mBuffer.getInt(position + 4) & 0xFFFFFFFFL;
+        return denominator == 0 ? 0 : (double) numerator / denominator;
+    }
+
+    // Reads a "yyyy:MM:dd HH:mm:ss" date.
+    private long getDate(int ifd, short tag, TimeZone timeZone) {
+        int position = findValue(ifd, tag, 19);
+        if (position < 0) {
+            return -1;
+        }
+        int year = readNumber(position, 4);
+        int month = readNumber(position + 5, 2);
+        int day = readNumber(position + 8, 2);
+        int hour = readNumber(position + 11, 2);
+        int minute = readNumber(position + 14, 2);
+        int second = readNumber(position + 17, 2);
+        if (year <= 0 || month < 1 || month > 12 || day < 1 || day > 31
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 60) {
+            return -1;
+        }
+        long local = (daysFromEpoch(year, month, day) * 86400L
+                + hour * 3600 + minute * 60 + second) * 1000;
+        return local - timeZone.getOffset(local - timeZone.getRawOffset());
+    }
+
+    private int readNumber(int position, int digits) {
+        int value = 0;
+        for (int i = 0; i < digits; i++) {
+            int c = mBuffer.get(position + i) - '0';
+            if (c < 0 || c > 9) {
+                return -1;
+            }
+            value = value * 10 + c;
+        }
+        return value;
+    }
+
+    // Days between 1970-01-01 and the given date of the proleptic Gregorian
+    // calendar.
+    private static long daysFromEpoch(int year, int month, int day) {
+        if (month <= 2) {
+            year--;
+        }
+        long era = year / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -24,7 +24,8 @@ include $(CLEAR_VARS)
 LOCAL_CPP_EXTENSION := .cc
 LOCAL_SDK_VERSION := 9
 LOCAL_MODULE    := libjni_filtershow_filters
-LOCAL_SRC_FILES := filters/gradient.c \
+LOCAL_SRC_FILES := filters/bands.c \
+                   filters/gradient.c \
                    filters/saturated.c \
                    filters/exposure.c \
                    filters/edge.c \
@@ -41,6 +42,7 @@ LOCAL_SRC_FILES := filters/gradient.c \
                    filters/wbalance.c \
                    filters/redeye.c \
                    filters/bwfilter.c \
+                   filters/colorcube.c \
                    filters/tinyplanet.cc \
                    filters/kmeans.cc
 
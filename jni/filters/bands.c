@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include <pthread.h>
+#include <unistd.h>
+#include "filters.h"
+#include "bands.h"
+
+// Below this many pixels per band, starting a thread costs more than it saves.
+#define MIN_BAND_PIXELS (128 * 1024)
+
+typedef struct {
+    BandFunction function;
+    void* args;
+    int band;
+    int startRow;
+    int endRow;
+} Band;
+
+static int sCpuCount = 0;
+
+int getBandCount(int width, int height)
+{
+    if (sCpuCount == 0) {
+        int count = (int) sysconf(_SC_NPROCESSORS_ONLN);
+        sCpuCount = count > 0 ? count : 1;
+    }
+    int count = MIN(sCpuCount, MAX_BANDS);
+    int maxBands = (width * height) / MIN_BAND_PIXELS;
+    count = MIN(count, maxBands);
+    count = MIN(count, height);
+    return MAX(count, 1);
+}
+
+int getBandStart(int height, int bandCount, int band)
+{
+    return (int) (((long long) height * band) / bandCount);
+}
+
+static void* runBand(void* p)
+{
+    Band* band = (Band*) p;
+    band->function(band->args, band->band, band->startRow, band->endRow);
+    return 0;
+}
+
+void processBands(int height, int bandCount, BandFunction function, void* args)
+{
+    Band bands[MAX_BANDS];
+    pthread_t threads[MAX_BANDS];
+    int started[MAX_BANDS];
+    int i;
+
+    if (bandCount <= 1) {
+        function(args, 0, 0, height);
+        return;
+    }
+    bandCount = MIN(bandCount, MAX_BANDS);
+    for (i = 0; i < bandCount; i++) {
+        bands[i].function = function;
+        bands[i].args = args;
+        bands[i].band = i;
+        bands[i].startRow = getBandStart(height, bandCount, i);
+        bands[i].endRow = getBandStart(height, bandCount, i + 1);
+    }
+    for (i = 1; i < bandCount; i++) {
+        started[i] = pthread_create(&threads[i], NULL, runBand, &bands[i]) == 0;
+        if (!started[i]) {
+            // Out of threads, do the work here instead.
+            runBand(&bands[i]);
+        }
+    }
+    runBand(&bands[0]);
+    for (i = 1; i < bandCount; i++) {
+        if (started[i]) {
+            pthread_join(threads[i], NULL);
+        }
+    }
+}
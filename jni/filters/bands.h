@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#ifndef BANDS_H
+#define BANDS_H
+
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+// Banded execution: the rows of a bitmap are split into bands which are
+// processed in parallel, one thread per band.
+//
+// The band function must only write to the rows [startRow, endRow). Filters
+// which read neighboring rows must save the rows around each band (the
+// halo) before calling processBands(), since they may be overwritten by
+// another band. Filters computing image statistics keep one partial result
+// per band, and reduce them after processBands() returns.
+//
+// JNI functions must not be called from a band function.
+
+#define MAX_BANDS 8
+
+typedef void (*BandFunction)(void* args, int band, int startRow, int endRow);
+
+// Returns the number of bands to use for a bitmap of the given size, from
+// 1 (small bitmaps or single core) to MAX_BANDS.
+extern int getBandCount(int width, int height);
+
+// Returns the first row of the band. The last band ends at height.
+extern int getBandStart(int height, int bandCount, int band);
+
+// Calls function for each band and waits for all of them to return. The
+// first band runs on the calling thread.
+extern void processBands(int height, int bandCount, BandFunction function, void* args);
+
+#ifdef __cplusplus
+}
+#endif
+
+#endif // BANDS_H
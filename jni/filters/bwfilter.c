@@ -16,28 +16,28 @@
 
 #include <math.h>
 #include "filters.h"
+#include "bands.h"
 
-void JNIFUNCF(ImageFilterBwFilter, nativeApplyFilter, jobject bitmap, jint width, jint height, jint rw, jint gw, jint bw)
-{
-    char* destination = 0;
-    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
-    unsigned char * rgb = (unsigned char * )destination;
-    float sr = rw;
-    float sg = gw;
-    float sb = bw;
+typedef struct {
+    unsigned char* rgb;
+    int width;
+    float sr;
+    float sg;
+    float sb;
+} BwFilterArgs;
 
-    float min = MIN(sg,sb);
-    min = MIN(sr,min);
-    float max =  MAX(sg,sb);
-    max = MAX(sr,max);
-    float avg = (min+max)/2;
-    sb /= avg;
-    sg /= avg;
-    sr /= avg;
+static void bwFilterBand(void* p, int band, int startRow, int endRow)
+{
+    BwFilterArgs* args = (BwFilterArgs*) p;
+    unsigned char * rgb = args->rgb;
+    float sr = args->sr;
+    float sg = args->sg;
+    float sb = args->sb;
+    float min, max, avg;
     int i;
-    int len = width * height * 4;
+    int len = endRow * args->width * 4;
 
-    for (i = 0; i < len; i+=4)
+    for (i = startRow * args->width * 4; i < len; i+=4)
     {
         float r = sr *rgb[RED];
         float g = sg *rgb[GREEN];
@@ -51,5 +51,29 @@ void JNIFUNCF(ImageFilterBwFilter, nativeApplyFilter, jobject bitmap, jint width
         rgb[GREEN] = rgb[RED];
         rgb[BLUE]  = rgb[RED];
     }
+}
+
+void JNIFUNCF(ImageFilterBwFilter, nativeApplyFilter, jobject bitmap, jint width, jint height, jint rw, jint gw, jint bw)
+{
+    char* destination = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    float sr = rw;
+    float sg = gw;
+    float sb = bw;
+
+    float min = MIN(sg,sb);
+    min = MIN(sr,min);
+    float max =  MAX(sg,sb);
+    max = MAX(sr,max);
+    float avg = (min+max)/2;
+
+    BwFilterArgs args;
+    args.rgb = (unsigned char * )destination;
+    args.width = width;
+    args.sr = sr / avg;
+    args.sg = sg / avg;
+    args.sb = sb / avg;
+
+    processBands(height, getBandCount(width, height), bwFilterBand, &args);
     AndroidBitmap_unlockPixels(env, bitmap);
 }
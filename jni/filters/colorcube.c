@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+#include "filters.h"
+#include "bands.h"
+
+// Linear interpolation, f is a fraction in [0, 256].
+#define LERP(a, b, f) ((a) + ((((b) - (a)) * (f)) >> 8))
+
+// Splits a channel value into a cube cell index and a fraction in [0, 256].
+static __inline__ void cubePosition(int c, int last, int *index, int *fraction)
+{
+    int p = (c * last * 256) / 255;
+    int i = p >> 8;
+    if (i >= last) {
+        *index = last - 1;
+        *fraction = 256;
+    } else {
+        *index = i;
+        *fraction = p & 0xFF;
+    }
+}
+
+typedef struct {
+    unsigned char* rgb;
+    int width;
+    jint* lut;
+    int size;
+} ColorCubeArgs;
+
+// The cube holds size * size * size ARGB colors, with red varying fastest
+// and blue slowest. The alpha channel of the bitmap is left untouched.
+static void colorCubeBand(void* p, int band, int startRow, int endRow)
+{
+    ColorCubeArgs* args = (ColorCubeArgs*) p;
+    unsigned char * rgb = args->rgb;
+    jint* lut = args->lut;
+    int len = endRow * args->width * 4;
+    int last = args->size - 1;
+    int dg = args->size;
+    int db = args->size * args->size;
+    int i;
+
+    for (i = startRow * args->width * 4; i < len; i+=4)
+    {
+        int ri, rf, gi, gf, bi, bf;
+        cubePosition(rgb[RED], last, &ri, &rf);
+        cubePosition(rgb[GREEN], last, &gi, &gf);
+        cubePosition(rgb[BLUE], last, &bi, &bf);
+
+        jint* c = lut + bi * db + gi * dg + ri;
+        int shift;
+        for (shift = 0; shift < 24; shift += 8) {
+            int c000 = (c[0] >> shift) & 0xFF;
+            int c100 = (c[1] >> shift) & 0xFF;
+            int c010 = (c[dg] >> shift) & 0xFF;
+            int c110 = (c[dg + 1] >> shift) & 0xFF;
+            int c001 = (c[db] >> shift) & 0xFF;
+            int c101 = (c[db + 1] >> shift) & 0xFF;
+            int c011 = (c[db + dg] >> shift) & 0xFF;
+            int c111 = (c[db + dg + 1] >> shift) & 0xFF;
+
+            int c00 = LERP(c000, c100, rf);
+            int c10 = LERP(c010, c110, rf);
+            int c01 = LERP(c001, c101, rf);
+            int c11 = LERP(c011, c111, rf);
+            int c0 = LERP(c00, c10, gf);
+            int c1 = LERP(c01, c11, gf);
+            int v = LERP(c0, c1, bf);
+
+            // Colors are 0xAARRGGBB in the cube, RGBA in the bitmap.
+            if (shift == 0) {
+                rgb[BLUE] = CLAMP(v);
+            } else if (shift == 8) {
+                rgb[GREEN] = CLAMP(v);
+            } else {
+                rgb[RED] = CLAMP(v);
+            }
+        }
+    }
+}
+
+void JNIFUNCF(ColorCube, nativeApplyFilter, jobject bitmap, jint width, jint height,
+        jintArray cube, jint size)
+{
+    char* destination = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    ColorCubeArgs args;
+    args.rgb = (unsigned char * )destination;
+    args.width = width;
+    args.lut = (*env)->GetIntArrayElements(env, cube, 0);
+    args.size = size;
+
+    processBands(height, getBandCount(width, height), colorCubeBand, &args);
+
+    (*env)->ReleaseIntArrayElements(env, cube, args.lut, 0);
+    AndroidBitmap_unlockPixels(env, bitmap);
+}
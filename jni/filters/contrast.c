@@ -16,6 +16,7 @@
 
 #include <math.h>
 #include "filters.h"
+#include "bands.h"
 
 unsigned char clamp(int c)
 {
@@ -36,21 +37,39 @@ int clampMax(int c,int max)
     return  c;
 }
 
-void JNIFUNCF(ImageFilterContrast, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloat bright)
+typedef struct {
+    unsigned char* rgb;
+    int width;
+    float m;
+    float c;
+} ContrastArgs;
+
+static void contrastBand(void* p, int band, int startRow, int endRow)
 {
-    char* destination = 0;
-    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
-    unsigned char * rgb = (unsigned char * )destination;
+    ContrastArgs* args = (ContrastArgs*) p;
+    unsigned char * rgb = args->rgb;
+    float m = args->m;
+    float c = args->c;
     int i;
-    int len = width * height * 4;
-    float m =  (float)pow(2, bright/100.);
-    float c =  127-m*127;
+    int len = endRow * args->width * 4;
 
-    for (i = 0; i < len; i+=4) {
+    for (i = startRow * args->width * 4; i < len; i+=4) {
         rgb[RED]   = clamp((int)(m*rgb[RED]+c));
         rgb[GREEN] = clamp((int)(m*rgb[GREEN]+c));
         rgb[BLUE]  = clamp((int)(m*rgb[BLUE]+c));
     }
-    AndroidBitmap_unlockPixels(env, bitmap);
 }
 
+void JNIFUNCF(ImageFilterContrast, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloat bright)
+{
+    char* destination = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    ContrastArgs args;
+    args.rgb = (unsigned char * )destination;
+    args.width = width;
+    args.m =  (float)pow(2, bright/100.);
+    args.c =  127-args.m*127;
+
+    processBands(height, getBandCount(width, height), contrastBand, &args);
+    AndroidBitmap_unlockPixels(env, bitmap);
+}
@@ -16,111 +16,166 @@
 
 #include <math.h>
 #include "filters.h"
-
-void JNIFUNCF(ImageFilterEdge, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloat p)
+#include "bands.h"
+
+typedef struct {
+    char* pixels;
+    int width;
+    int height;
+    float beta;
+    // Copies of the rows just above and just below each band (2 rows per
+    // band), taken before any band writes its output.
+    char* halo;
+} EdgeArgs;
+
+// Sets the row to black, with opaque alphas.
+static void blackRow(char* row, int width)
 {
-    char* destination = 0;
-    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    int j;
+    memset(row, 0, 4 * width * sizeof(char));
+    for (j = 3; j < 4 * width; j+=4) {
+        *(row + j) = 255;
+    }
+}
 
+// Applies the sobel filter to row, reading the rows above and below it.
+static void edgeRow(const char* above, const char* row, const char* below,
+        char* out, int width, float beta)
+{
     // using contrast function:
     // f(v) = exp(-alpha * v^beta)
     // use beta ~ 1
 
     float const alpha = 5.0f;
-    float const beta = p;
     float const c_min = 100.0f;
     float const c_max = 500.0f;
-
-    // pixels must be 4 bytes
-    char * dst = destination;
-
-    int j, k;
-    char * ptr = destination;
-    int row_stride = 4 * width;
-
-    // set 2 row buffer (avoids bitmap copy)
-    int buf_len = 2 * row_stride;
-    char buf[buf_len];
-    int buf_row_ring = 0;
-
-    // set initial buffer to black
-    memset(buf, 0, buf_len * sizeof(char));
-    for (j = 3; j < buf_len; j+=4) {
-        *(buf + j) = 255;  // set initial alphas
-    }
-
-    // apply sobel filter
-    for (j = 1; j < height - 1; j++) {
-
-        for (k = 1; k < width - 1; k++){
-            int loc = j * row_stride + k * 4;
-
-            float bestx = 0.0f;
-            int l;
-            for (l = 0; l < 3; l++) {
-                float tmp = 0.0f;
-                tmp += *(ptr + (loc - row_stride + 4 + l));
-                tmp += *(ptr + (loc + 4 + l)) * 2.0f;
-                tmp += *(ptr + (loc + row_stride + 4 + l));
-                tmp -= *(ptr + (loc - row_stride - 4 + l));
-                tmp -= *(ptr + (loc - 4 + l)) * 2.0f;
-                tmp -= *(ptr + (loc + row_stride - 4 + l));
-                if (fabs(tmp) > fabs(bestx)) {
-                    bestx = tmp;
-                }
+    int k;
+
+    // the first and last columns stay black
+    blackRow(out, width);
+
+    for (k = 1; k < width - 1; k++){
+        int loc = k * 4;
+
+        float bestx = 0.0f;
+        int l;
+        for (l = 0; l < 3; l++) {
+            float tmp = 0.0f;
+            tmp += *(above + (loc + 4 + l));
+            tmp += *(row + (loc + 4 + l)) * 2.0f;
+            tmp += *(below + (loc + 4 + l));
+            tmp -= *(above + (loc - 4 + l));
+            tmp -= *(row + (loc - 4 + l)) * 2.0f;
+            tmp -= *(below + (loc - 4 + l));
+            if (fabs(tmp) > fabs(bestx)) {
+                bestx = tmp;
             }
+        }
 
-            float besty = 0.0f;
-            for (l = 0; l < 3; l++) {
-                float tmp = 0.0f;
-                tmp -= *(ptr + (loc - row_stride - 4 + l));
-                tmp -= *(ptr + (loc - row_stride + l)) * 2.0f;
-                tmp -= *(ptr + (loc - row_stride + 4 + l));
-                tmp += *(ptr + (loc + row_stride - 4 + l));
-                tmp += *(ptr + (loc + row_stride + l)) * 2.0f;
-                tmp += *(ptr + (loc + row_stride + 4 + l));
-                if (fabs(tmp) > fabs(besty)) {
-                    besty = tmp;
-                }
+        float besty = 0.0f;
+        for (l = 0; l < 3; l++) {
+            float tmp = 0.0f;
+            tmp -= *(above + (loc - 4 + l));
+            tmp -= *(above + (loc + l)) * 2.0f;
+            tmp -= *(above + (loc + 4 + l));
+            tmp += *(below + (loc - 4 + l));
+            tmp += *(below + (loc + l)) * 2.0f;
+            tmp += *(below + (loc + 4 + l));
+            if (fabs(tmp) > fabs(besty)) {
+                besty = tmp;
             }
+        }
 
-            // compute gradient magnitude
-            float mag = sqrt(bestx * bestx + besty * besty);
+        // compute gradient magnitude
+        float mag = sqrt(bestx * bestx + besty * besty);
 
-            // clamp
-            mag = MIN(MAX(c_min, mag), c_max);
+        // clamp
+        mag = MIN(MAX(c_min, mag), c_max);
 
-            // scale to [0, 1]
-            mag = (mag - c_min) / (c_max - c_min);
+        // scale to [0, 1]
+        mag = (mag - c_min) / (c_max - c_min);
 
-            float ret = 1.0f - exp (- alpha * pow(mag, beta));
-            ret = 255 * ret;
+        float ret = 1.0f - exp (- alpha * pow(mag, beta));
+        ret = 255 * ret;
 
-            int off = k * 4;
-            *(buf + buf_row_ring + off) = ret;
-            *(buf + buf_row_ring + off + 1) = ret;
-            *(buf + buf_row_ring + off + 2) = ret;
-            *(buf + buf_row_ring + off + 3) = *(ptr + loc + 3);
+        *(out + loc) = ret;
+        *(out + loc + 1) = ret;
+        *(out + loc + 2) = ret;
+        *(out + loc + 3) = *(row + loc + 3);
+    }
+}
+
+static void edgeBand(void* p, int band, int startRow, int endRow)
+{
+    EdgeArgs* args = (EdgeArgs*) p;
+    char* ptr = args->pixels;
+    int width = args->width;
+    int height = args->height;
+    int row_stride = 4 * width;
+    char* haloAbove = args->halo + 2 * band * row_stride;
+    char* haloBelow = haloAbove + row_stride;
+
+    // The result of a row is written back after computing the next row,
+    // which still reads the original (avoids a bitmap copy).
+    char* buf = (char*) malloc(2 * row_stride * sizeof(char));
+    char* prev = buf;
+    char* cur = buf + row_stride;
+    int j;
+
+    for (j = startRow; j < endRow; j++) {
+        if (j == 0 || j == height - 1) {
+            // set the first and last rows to black
+            blackRow(cur, width);
+        } else {
+            const char* above = (j - 1 < startRow) ? haloAbove : ptr + (j - 1) * row_stride;
+            const char* below = (j + 1 >= endRow) ? haloBelow : ptr + (j + 1) * row_stride;
+            edgeRow(above, ptr + j * row_stride, below, cur, width, args->beta);
         }
+        if (j > startRow) {
+            memcpy(ptr + (j - 1) * row_stride, prev, row_stride * sizeof(char));
+        }
+        char* tmp = prev;
+        prev = cur;
+        cur = tmp;
+    }
+    if (endRow > startRow) {
+        memcpy(ptr + (endRow - 1) * row_stride, prev, row_stride * sizeof(char));
+    }
+    free(buf);
+}
 
-        buf_row_ring += row_stride;
-        buf_row_ring %= buf_len;
+void JNIFUNCF(ImageFilterEdge, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloat p)
+{
+    char* destination = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
 
-        if (j - 1 >= 0) {
-            memcpy((dst + row_stride * (j - 1)), (buf + buf_row_ring), row_stride * sizeof(char));
+    // pixels must be 4 bytes
+    int row_stride = 4 * width;
+    int bandCount = getBandCount(width, height);
+    int band;
+
+    EdgeArgs args;
+    args.pixels = destination;
+    args.width = width;
+    args.height = height;
+    args.beta = p;
+    args.halo = (char*) malloc(2 * bandCount * row_stride * sizeof(char));
+
+    // Save the rows around each band, the neighboring bands overwrite them.
+    for (band = 0; band < bandCount; band++) {
+        int start = getBandStart(height, bandCount, band);
+        int end = getBandStart(height, bandCount, band + 1);
+        char* halo = args.halo + 2 * band * row_stride;
+        if (start > 0) {
+            memcpy(halo, destination + (start - 1) * row_stride, row_stride * sizeof(char));
+        }
+        if (end < height) {
+            memcpy(halo + row_stride, destination + end * row_stride, row_stride * sizeof(char));
         }
-
-    }
-    buf_row_ring += row_stride;
-    buf_row_ring %= buf_len;
-    int second_last_row = row_stride * (height - 2);
-    memcpy((dst + second_last_row), (buf + buf_row_ring), row_stride * sizeof(char));
-
-    // set last row to black
-    int last_row = row_stride * (height - 1);
-    memset((dst + last_row), 0, row_stride * sizeof(char));
-    for (j = 3; j < row_stride; j+=4) {
-        *(dst + last_row + j) = 255;  // set alphas
     }
+
+    processBands(height, bandCount, edgeBand, &args);
+
+    free(args.halo);
     AndroidBitmap_unlockPixels(env, bitmap);
 }
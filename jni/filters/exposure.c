@@ -15,23 +15,39 @@
  */
 
 #include "filters.h"
+#include "bands.h"
 
-void JNIFUNCF(ImageFilterExposure, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloat bright)
+typedef struct {
+    unsigned char* rgb;
+    int width;
+    int m;
+} ExposureArgs;
+
+static void exposureBand(void* p, int band, int startRow, int endRow)
 {
-    char* destination = 0;
-    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
-    unsigned char * rgb = (unsigned char * )destination;
+    ExposureArgs* args = (ExposureArgs*) p;
+    unsigned char * rgb = args->rgb;
+    int m = args->m;
     int i;
-    int len = width * height * 4;
+    int len = endRow * args->width * 4;
 
-    int m =   (255-bright);
-
-    for (i = 0; i < len; i+=4)
+    for (i = startRow * args->width * 4; i < len; i+=4)
     {
         rgb[RED]   = clamp((255*(rgb[RED]))/m);
         rgb[GREEN] = clamp((255*(rgb[GREEN]))/m);
         rgb[BLUE]  = clamp((255*(rgb[BLUE]))/m);
     }
-    AndroidBitmap_unlockPixels(env, bitmap);
 }
 
+void JNIFUNCF(ImageFilterExposure, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloat bright)
+{
+    char* destination = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    ExposureArgs args;
+    args.rgb = (unsigned char * )destination;
+    args.width = width;
+    args.m = (255-bright);
+
+    processBands(height, getBandCount(width, height), exposureBand, &args);
+    AndroidBitmap_unlockPixels(env, bitmap);
+}
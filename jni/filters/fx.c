@@ -15,6 +15,7 @@
  */
 
 #include "filters.h"
+#include "bands.h"
 
 __inline__ int  interp(unsigned char  *src, int p , int *off ,float dr,float dg, float db){
 
@@ -29,16 +30,31 @@ __inline__ int  interp(unsigned char  *src, int p , int *off ,float dr,float dg,
     return (int)frbg ;
 }
 
-void JNIFUNCF(ImageFilterFx, nativeApplyFilter, jobject bitmap, jint width, jint height,
-        jobject lutbitmap, jint lutwidth, jint lutheight,
-        jint start, jint end)
+typedef struct {
+    unsigned char* rgb;
+    unsigned char* lutrgb;
+    int width;
+    int lutwidth;
+    int lutheight;
+    int firstRow;
+    int start;
+    int end;
+} FxArgs;
+
+static void fxBand(void* p, int band, int startRow, int endRow)
 {
-    char* destination = 0;
-    char* lut = 0;
-    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
-    AndroidBitmap_lockPixels(env, lutbitmap, (void**) &lut);
-    unsigned char * rgb = (unsigned char * )destination;
-    unsigned char * lutrgb = (unsigned char * )lut;
+    FxArgs* args = (FxArgs*) p;
+    unsigned char * rgb = args->rgb;
+    unsigned char * lutrgb = args->lutrgb;
+    int lutwidth = args->lutwidth;
+    int lutheight = args->lutheight;
+    // The bands cover the rows of [start, end), which need not start or end
+    // at a row boundary.
+    int rowStride = args->width * 4;
+    int bandStart = (args->firstRow + startRow) * rowStride;
+    int bandEnd = (args->firstRow + endRow) * rowStride;
+    int start = MAX(args->start, bandStart);
+    int end = MIN(args->end, bandEnd);
     int lutdim_r   = lutheight;
     int lutdim_g   = lutheight;;
     int lutdim_b   = lutwidth/lutheight;;
@@ -82,6 +98,30 @@ void JNIFUNCF(ImageFilterFx, nativeApplyFilter, jobject bitmap, jint width, jint
         rgb[BLUE]  = clamp(interp(lutrgb,p+2,off,dr,dg,db));
 
     }
+}
+
+void JNIFUNCF(ImageFilterFx, nativeApplyFilter, jobject bitmap, jint width, jint height,
+        jobject lutbitmap, jint lutwidth, jint lutheight,
+        jint start, jint end)
+{
+    char* destination = 0;
+    char* lut = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    AndroidBitmap_lockPixels(env, lutbitmap, (void**) &lut);
+    FxArgs args;
+    args.rgb = (unsigned char * )destination;
+    args.lutrgb = (unsigned char * )lut;
+    args.width = width;
+    args.lutwidth = lutwidth;
+    args.lutheight = lutheight;
+    args.start = start;
+    args.end = end;
+    // Java applies the filter in chunks, only split the rows of this chunk.
+    int rowStride = width * 4;
+    args.firstRow = start / rowStride;
+    int rows = (end + rowStride - 1) / rowStride - args.firstRow;
+
+    processBands(rows, getBandCount(width, rows), fxBand, &args);
 
     AndroidBitmap_unlockPixels(env, bitmap);
     AndroidBitmap_unlockPixels(env, lutbitmap);
@@ -15,45 +15,72 @@
  */
 
 #include "filters.h"
+#include "bands.h"
 
-void JNIFUNCF(ImageFilter, nativeApplyGradientFilter, jobject bitmap, jint width, jint height,
-        jintArray redGradient, jintArray greenGradient, jintArray blueGradient)
-{
-    char* destination = 0;
-    jint* redGradientArray = 0;
-    jint* greenGradientArray = 0;
-    jint* blueGradientArray = 0;
-    if (redGradient)
-        redGradientArray = (*env)->GetIntArrayElements(env, redGradient, NULL);
-    if (greenGradient)
-        greenGradientArray = (*env)->GetIntArrayElements(env, greenGradient, NULL);
-    if (blueGradient)
-        blueGradientArray = (*env)->GetIntArrayElements(env, blueGradient, NULL);
+typedef struct {
+    char* destination;
+    int width;
+    jint* redGradientArray;
+    jint* greenGradientArray;
+    jint* blueGradientArray;
+} GradientArgs;
 
-    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+static void gradientBand(void* p, int band, int startRow, int endRow)
+{
+    GradientArgs* args = (GradientArgs*) p;
+    char* destination = args->destination;
+    jint* redGradientArray = args->redGradientArray;
+    jint* greenGradientArray = args->greenGradientArray;
+    jint* blueGradientArray = args->blueGradientArray;
     int i;
-    int len = width * height * 4;
-    for (i = 0; i < len; i+=4)
+    int len = endRow * args->width * 4;
+    for (i = startRow * args->width * 4; i < len; i+=4)
     {
-        if (redGradient)
+        if (redGradientArray)
         {
             int r = destination[RED];
             r = redGradientArray[r];
             destination[RED] = r;
         }
-        if (greenGradient)
+        if (greenGradientArray)
         {
             int g = destination[GREEN];
             g = greenGradientArray[g];
             destination[GREEN] = g;
         }
-        if (blueGradient)
+        if (blueGradientArray)
         {
             int b = destination[BLUE];
             b = blueGradientArray[b];
             destination[BLUE] = b;
         }
     }
+}
+
+void JNIFUNCF(ImageFilter, nativeApplyGradientFilter, jobject bitmap, jint width, jint height,
+        jintArray redGradient, jintArray greenGradient, jintArray blueGradient)
+{
+    char* destination = 0;
+    jint* redGradientArray = 0;
+    jint* greenGradientArray = 0;
+    jint* blueGradientArray = 0;
+    if (redGradient)
+        redGradientArray = (*env)->GetIntArrayElements(env, redGradient, NULL);
+    if (greenGradient)
+        greenGradientArray = (*env)->GetIntArrayElements(env, greenGradient, NULL);
+    if (blueGradient)
+        blueGradientArray = (*env)->GetIntArrayElements(env, blueGradient, NULL);
+
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    GradientArgs args;
+    args.destination = destination;
+    args.width = width;
+    args.redGradientArray = redGradientArray;
+    args.greenGradientArray = greenGradientArray;
+    args.blueGradientArray = blueGradientArray;
+
+    processBands(height, getBandCount(width, height), gradientBand, &args);
+
     if (redGradient)
         (*env)->ReleaseIntArrayElements(env, redGradient, redGradientArray, 0);
     if (greenGradient)
@@ -62,4 +89,3 @@ void JNIFUNCF(ImageFilter, nativeApplyGradientFilter, jobject bitmap, jint width
         (*env)->ReleaseIntArrayElements(env, blueGradient, blueGradientArray, 0);
     AndroidBitmap_unlockPixels(env, bitmap);
 }
-
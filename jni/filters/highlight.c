@@ -16,25 +16,44 @@
 
 #include <math.h>
 #include "filters.h"
+#include "bands.h"
 
-void JNIFUNCF(ImageFilterHighlights, nativeApplyFilter, jobject bitmap,
-              jint width, jint height, jfloatArray luminanceMap){
-    char* destination = 0;
-    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
-    unsigned char * rgb = (unsigned char * )destination;
+typedef struct {
+    unsigned char* rgb;
+    int width;
+    jfloat* lum;
+} HighlightArgs;
+
+static void highlightBand(void* p, int band, int startRow, int endRow)
+{
+    HighlightArgs* args = (HighlightArgs*) p;
+    unsigned char * rgb = args->rgb;
+    jfloat* lum = args->lum;
+    unsigned short hsv[3];
     int i;
-    int len = width * height * 4;
-    jfloat* lum = (*env)->GetFloatArrayElements(env, luminanceMap,0);
-    unsigned short * hsv = (unsigned short *)malloc(3*sizeof(short));
+    int len = endRow * args->width * 4;
 
-    for (i = 0; i < len; i+=4)
+    for (i = startRow * args->width * 4; i < len; i+=4)
     {
         rgb2hsv(rgb,i,hsv,0);
         int v = clampMax(hsv[0],4080);
         hsv[0] = (unsigned short) clampMax(lum[((255*v)/4080)]*4080,4080);
         hsv2rgb(hsv,0, rgb,i);
     }
+}
+
+void JNIFUNCF(ImageFilterHighlights, nativeApplyFilter, jobject bitmap,
+              jint width, jint height, jfloatArray luminanceMap){
+    char* destination = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    jfloat* lum = (*env)->GetFloatArrayElements(env, luminanceMap,0);
+    HighlightArgs args;
+    args.rgb = (unsigned char * )destination;
+    args.width = width;
+    args.lum = lum;
+
+    processBands(height, getBandCount(width, height), highlightBand, &args);
 
-    free(hsv);
+    (*env)->ReleaseFloatArrayElements(env, luminanceMap, lum, 0);
     AndroidBitmap_unlockPixels(env, bitmap);
 }
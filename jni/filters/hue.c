@@ -15,17 +15,23 @@
  */
 
 #include "filters.h"
+#include "bands.h"
 
-void JNIFUNCF(ImageFilterHue, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloatArray matrix)
+typedef struct {
+    unsigned char* rgb;
+    int width;
+    jfloat* mat;
+} HueArgs;
+
+static void hueBand(void* p, int band, int startRow, int endRow)
 {
-    char* destination = 0;
-    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
-    unsigned char * rgb = (unsigned char * )destination;
+    HueArgs* args = (HueArgs*) p;
+    unsigned char * rgb = args->rgb;
+    jfloat* mat = args->mat;
     int i;
-    int len = width * height * 4;
-    jfloat* mat = (*env)->GetFloatArrayElements(env, matrix,0);
+    int len = endRow * args->width * 4;
 
-    for (i = 0; i < len; i+=4)
+    for (i = startRow * args->width * 4; i < len; i+=4)
     {
       int r = rgb[RED];
       int g = rgb[GREEN];
@@ -39,8 +45,20 @@ void JNIFUNCF(ImageFilterHue, nativeApplyFilter, jobject bitmap, jint width, jin
       rgb[GREEN] = clamp((int)gf);
       rgb[BLUE]  = clamp((int)bf);
     }
+}
+
+void JNIFUNCF(ImageFilterHue, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloatArray matrix)
+{
+    char* destination = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    jfloat* mat = (*env)->GetFloatArrayElements(env, matrix,0);
+    HueArgs args;
+    args.rgb = (unsigned char * )destination;
+    args.width = width;
+    args.mat = mat;
+
+    processBands(height, getBandCount(width, height), hueBand, &args);
 
     (*env)->ReleaseFloatArrayElements(env, matrix, mat, 0);
     AndroidBitmap_unlockPixels(env, bitmap);
 }
-
@@ -15,12 +15,29 @@
  */
 
 #include "filters.h"
+#include "bands.h"
 #include "kmeans.h"
 
 #ifdef __cplusplus
 extern "C" {
 #endif
 
+struct CentroidsArgs {
+    int k;
+    unsigned char* centroids;
+    unsigned char* dst;
+    int width;
+};
+
+static void applyCentroidsBand(void* p, int band, int startRow, int endRow) {
+    CentroidsArgs* args = static_cast<CentroidsArgs*>(p);
+    int stride = 4;
+    int offset = startRow * args->width * stride;
+    int len = (endRow - startRow) * args->width * stride;
+    applyCentroids<unsigned char, int>(args->k, args->centroids, args->dst + offset, len,
+            3, stride);
+}
+
 /*
  * For reasonable speeds:
  * k < 30
@@ -67,10 +84,13 @@ void JNIFUNCF(ImageFilterKMeans, nativeApplyFilter, jobject bitmap, jint width,
     runKMeansWithPicks<unsigned char, int>(k, nextCentroids, large_ds, len,
             dimension, stride, iterations, finalCentroids);
 
-    len = width * height * 4;
-
     // apply to final image
-    applyCentroids<unsigned char, int>(k, nextCentroids, dst, len, dimension, stride);
+    CentroidsArgs args;
+    args.k = k;
+    args.centroids = nextCentroids;
+    args.dst = dst;
+    args.width = width;
+    processBands(height, getBandCount(width, height), applyCentroidsBand, &args);
 
     AndroidBitmap_unlockPixels(env, small_ds_bitmap);
     AndroidBitmap_unlockPixels(env, large_ds_bitmap);
@@ -15,19 +15,34 @@
  */
 
 #include "filters.h"
+#include "bands.h"
 
-void JNIFUNCF(ImageFilterNegative, nativeApplyFilter, jobject bitmap, jint width, jint height)
-{
-    char* destination = 0;
-    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+typedef struct {
+    char* destination;
+    int width;
+} NegativeArgs;
 
-    int tot_len = height * width * 4;
+static void negativeBand(void* p, int band, int startRow, int endRow)
+{
+    NegativeArgs* args = (NegativeArgs*) p;
+    int tot_len = endRow * args->width * 4;
     int i;
-    char * dst = destination;
-    for (i = 0; i < tot_len; i+=4) {
+    char * dst = args->destination;
+    for (i = startRow * args->width * 4; i < tot_len; i+=4) {
         dst[RED] = 255 - dst[RED];
         dst[GREEN] = 255 - dst[GREEN];
         dst[BLUE] = 255 - dst[BLUE];
     }
+}
+
+void JNIFUNCF(ImageFilterNegative, nativeApplyFilter, jobject bitmap, jint width, jint height)
+{
+    char* destination = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    NegativeArgs args;
+    args.destination = destination;
+    args.width = width;
+
+    processBands(height, getBandCount(width, height), negativeBand, &args);
     AndroidBitmap_unlockPixels(env, bitmap);
 }
@@ -15,28 +15,34 @@
  */
 
 #include "filters.h"
+#include "bands.h"
 
-void JNIFUNCF(ImageFilterSaturated, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloat saturation)
+typedef struct {
+    char* destination;
+    int width;
+    float saturation;
+} SaturatedArgs;
+
+static void saturatedBand(void* p, int band, int startRow, int endRow)
 {
-    char* destination = 0;
-    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    SaturatedArgs* args = (SaturatedArgs*) p;
+    char* destination = args->destination;
     int i;
-    int len = width * height * 4;
+    int len = endRow * args->width * 4;
     float Rf = 0.2999f;
     float Gf = 0.587f;
     float Bf = 0.114f;
-    float S = saturation;;
+    float S = args->saturation;
     float MS = 1.0f - S;
     float Rt = Rf * MS;
     float Gt = Gf * MS;
     float Bt = Bf * MS;
     float R, G, B;
-    for (i = 0; i < len; i+=4)
+    for (i = startRow * args->width * 4; i < len; i+=4)
     {
         int r = destination[RED];
         int g = destination[GREEN];
         int b = destination[BLUE];
-        int t = (r + g) / 2;
         R = r;
         G = g;
         B = b;
@@ -49,5 +55,17 @@ void JNIFUNCF(ImageFilterSaturated, nativeApplyFilter, jobject bitmap, jint widt
         destination[GREEN] = CLAMP(Gc);
         destination[BLUE] = CLAMP(Bc);
     }
+}
+
+void JNIFUNCF(ImageFilterSaturated, nativeApplyFilter, jobject bitmap, jint width, jint height, jfloat saturation)
+{
+    char* destination = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    SaturatedArgs args;
+    args.destination = destination;
+    args.width = width;
+    args.saturation = saturation;
+
+    processBands(height, getBandCount(width, height), saturatedBand, &args);
     AndroidBitmap_unlockPixels(env, bitmap);
 }
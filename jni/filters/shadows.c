@@ -16,6 +16,34 @@
 
 #include <math.h>
 #include "filters.h"
+#include "bands.h"
+
+typedef struct {
+    unsigned char* rgb;
+    int width;
+    double* poly;
+} ShadowsArgs;
+
+static void shadowsBand(void* p, int band, int startRow, int endRow)
+{
+    ShadowsArgs* args = (ShadowsArgs*) p;
+    unsigned char * rgb = args->rgb;
+    double* poly = args->poly;
+    unsigned short hsv[3];
+    int i;
+    int len = endRow * args->width * 4;
+
+    for (i = startRow * args->width * 4; i < len; i+=4)
+    {
+        rgb2hsv(rgb,i,hsv,0);
+
+        double v = (fastevalPoly(poly,5,hsv[0]/4080.)*4080);
+        if (v>4080) v = 4080;
+        hsv[0] = (unsigned short) ((v>0)?v:0);
+
+        hsv2rgb(hsv,0, rgb,i);
+    }
+}
 
 void JNIFUNCF(ImageFilterShadows, nativeApplyFilter, jobject bitmap, jint width, jint height, float scale){
     double shadowFilterMap[] = {
@@ -28,30 +56,19 @@ void JNIFUNCF(ImageFilterShadows, nativeApplyFilter, jobject bitmap, jint width,
 
     char* destination = 0;
     AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
-    unsigned char * rgb = (unsigned char * )destination;
     int i;
     double s = (scale>=0)?scale:scale/5;
-    int len = width * height * 4;
 
-    double *poly = (double *) malloc(5*sizeof(double));
+    double poly[5];
     for (i = 0; i < 5; i++) {
         poly[i] = fastevalPoly(shadowFilterMap+i*2,2 , s);
     }
 
-    unsigned short * hsv = (unsigned short *)malloc(3*sizeof(short));
-
-    for (i = 0; i < len; i+=4)
-    {
-        rgb2hsv(rgb,i,hsv,0);
-
-        double v = (fastevalPoly(poly,5,hsv[0]/4080.)*4080);
-        if (v>4080) v = 4080;
-        hsv[0] = (unsigned short) ((v>0)?v:0);
-
-        hsv2rgb(hsv,0, rgb,i);
-    }
+    ShadowsArgs args;
+    args.rgb = (unsigned char * )destination;
+    args.width = width;
+    args.poly = poly;
 
-    free(poly);
-    free(hsv);
+    processBands(height, getBandCount(width, height), shadowsBand, &args);
     AndroidBitmap_unlockPixels(env, bitmap);
 }
@@ -15,6 +15,7 @@
  */
 
 #include "filters.h"
+#include "bands.h"
 #include <math.h>
 
 #ifdef __cplusplus
@@ -88,22 +89,37 @@ inline float wrap(float value, float dimension) {
   return value - (dimension * floor(value/dimension));
 }
 
-void StereographicProjection(float scale, float angle, unsigned char* input_image,
-                             int input_width, int input_height,
-                             unsigned char* output_image, int output_width,
-                             int output_height) {
-  ImageRGBA input(input_image, input_width, input_height);
-  ImageRGBA output(output_image, output_width, output_height);
+struct ProjectionArgs {
+  float scale;
+  float angle;
+  unsigned char* input_image;
+  int input_width;
+  int input_height;
+  unsigned char* output_image;
+  int output_width;
+  int output_height;
+};
+
+// Projects the output rows [start_row, end_row).
+static void StereographicProjectionBand(void* p, int band, int start_row, int end_row) {
+  ProjectionArgs* args = static_cast<ProjectionArgs*>(p);
+  int input_width = args->input_width;
+  int input_height = args->input_height;
+  int output_width = args->output_width;
+  int output_height = args->output_height;
+  float angle = args->angle;
+  ImageRGBA input(args->input_image, input_width, input_height);
+  ImageRGBA output(args->output_image, output_width, output_height);
 
-  const float image_scale = output_width * scale;
+  const float image_scale = output_width * args->scale;
 
-  for (int x = 0; x < output_width; x++) {
-    // Center and scale x
-    float xf = (x - output_width / 2.0f) / image_scale;
+  for (int y = start_row; y < end_row; y++) {
+    // Center and scale y
+    float yf = (y - output_height / 2.0f) / image_scale;
 
-    for (int y = 0; y < output_height; y++) {
-      // Center and scale y
-      float yf = (y - output_height / 2.0f) / image_scale;
+    for (int x = 0; x < output_width; x++) {
+      // Center and scale x
+      float xf = (x - output_width / 2.0f) / image_scale;
 
       // Convert to polar
       float r = hypotf(xf, yf);
@@ -128,6 +144,23 @@ void StereographicProjection(float scale, float angle, unsigned char* input_imag
   }
 }
 
+void StereographicProjection(float scale, float angle, unsigned char* input_image,
+                             int input_width, int input_height,
+                             unsigned char* output_image, int output_width,
+                             int output_height) {
+  ProjectionArgs args;
+  args.scale = scale;
+  args.angle = angle;
+  args.input_image = input_image;
+  args.input_width = input_width;
+  args.input_height = input_height;
+  args.output_image = output_image;
+  args.output_width = output_width;
+  args.output_height = output_height;
+  processBands(output_height, getBandCount(output_width, output_height),
+               StereographicProjectionBand, &args);
+}
+
 
 void JNIFUNCF(ImageFilterTinyPlanet, nativeApplyFilter, jobject bitmap_in, jint width, jint height, jobject bitmap_out, jint output_size, jfloat scale,jfloat angle)
 {
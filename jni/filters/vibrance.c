@@ -16,24 +16,31 @@
 
 #include <math.h>
 #include "filters.h"
+#include "bands.h"
 
-void JNIFUNCF(ImageFilterVibrance, nativeApplyFilter, jobject bitmap, jint width, jint height,  jfloat vibrance)
+typedef struct {
+    char* destination;
+    int width;
+    float vibrance;
+} VibranceArgs;
+
+static void vibranceBand(void* p, int band, int startRow, int endRow)
 {
-    char* destination = 0;
-    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    VibranceArgs* args = (VibranceArgs*) p;
+    char* destination = args->destination;
     int i;
-    int len = width * height * 4;
+    int len = endRow * args->width * 4;
     float Rf = 0.2999f;
     float Gf = 0.587f;
     float Bf = 0.114f;
-    float Vib = vibrance/100.f;
+    float Vib = args->vibrance/100.f;
     float S  = Vib+1;
     float MS = 1.0f - S;
     float Rt = Rf * MS;
     float Gt = Gf * MS;
     float Bt = Bf * MS;
     float R, G, B;
-    for (i = 0; i < len; i+=4)
+    for (i = startRow * args->width * 4; i < len; i+=4)
     {
         int r = destination[RED];
         int g = destination[GREEN];
@@ -45,7 +52,6 @@ void JNIFUNCF(ImageFilterVibrance, nativeApplyFilter, jobject bitmap, jint width
         Rt = Rf * MS;
         Gt = Gf * MS;
         Bt = Bf * MS;
-        int t = (r + g) / 2;
         R = r;
         G = g;
         B = b;
@@ -58,5 +64,17 @@ void JNIFUNCF(ImageFilterVibrance, nativeApplyFilter, jobject bitmap, jint width
         destination[GREEN] = CLAMP(Gc);
         destination[BLUE] = CLAMP(Bc);
     }
+}
+
+void JNIFUNCF(ImageFilterVibrance, nativeApplyFilter, jobject bitmap, jint width, jint height,  jfloat vibrance)
+{
+    char* destination = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    VibranceArgs args;
+    args.destination = destination;
+    args.width = width;
+    args.vibrance = vibrance;
+
+    processBands(height, getBandCount(width, height), vibranceBand, &args);
     AndroidBitmap_unlockPixels(env, bitmap);
 }
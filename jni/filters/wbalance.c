@@ -15,24 +15,56 @@
  */
 
 #include "filters.h"
+#include "bands.h"
 
-void estmateWhite(unsigned char *src, int len, int *wr, int *wb, int *wg){
+typedef struct {
+    unsigned char* src;
+    int width;
+    // 3 histograms (red, green, blue) of 256 entries per band
+    int* hist;
+} HistogramArgs;
 
-    int STEP = 4;
-    int RANGE = 256;
-    int *histR = (int *) malloc(256*sizeof(int));
-    int *histG = (int *) malloc(256*sizeof(int));
-    int *histB = (int *) malloc(256*sizeof(int));
+static void histogramBand(void* p, int band, int startRow, int endRow)
+{
+    HistogramArgs* args = (HistogramArgs*) p;
+    unsigned char* src = args->src;
+    int *histR = args->hist + band * 3 * 256;
+    int *histG = histR + 256;
+    int *histB = histG + 256;
     int i;
-    for (i = 0; i < 255; i++) {
-        histR[i] = histG[i] = histB[i] =0;
-    }
+    int len = endRow * args->width * 4;
 
-    for (i = 0; i < len; i+=STEP) {
+    for (i = startRow * args->width * 4; i < len; i+=4) {
         histR[(src[RED])]++;
         histG[(src[GREEN])]++;
         histB[(src[BLUE])]++;
     }
+}
+
+void estmateWhite(unsigned char *src, int width, int height, int *wr, int *wb, int *wg){
+
+    int RANGE = 256;
+    int bandCount = getBandCount(width, height);
+    int *histR = (int *) calloc(256, sizeof(int));
+    int *histG = (int *) calloc(256, sizeof(int));
+    int *histB = (int *) calloc(256, sizeof(int));
+    int i, band;
+
+    // Build one histogram per band, then add them up.
+    HistogramArgs args;
+    args.src = src;
+    args.width = width;
+    args.hist = (int *) calloc(bandCount * 3 * 256, sizeof(int));
+    processBands(height, bandCount, histogramBand, &args);
+    for (band = 0; band < bandCount; band++) {
+        int *hist = args.hist + band * 3 * 256;
+        for (i = 0; i < 256; i++) {
+            histR[i] += hist[i];
+            histG[i] += hist[256 + i];
+            histB[i] += hist[512 + i];
+        }
+    }
+    free(args.hist);
     int min_r = -1, min_g = -1,min_b = -1;
     int max_r = 0, max_g = 0,max_b = 0;
     int sum_r = 0,sum_g=0,sum_b=0;
@@ -128,30 +160,25 @@ void estmateWhiteBox(unsigned char *src, int iw, int ih, int x,int y, int *wr, i
     *wb = b/sum;
 }
 
-void JNIFUNCF(ImageFilterWBalance, nativeApplyFilter, jobject bitmap, jint width, jint height, int locX,int locY)
+typedef struct {
+    unsigned char* rgb;
+    int width;
+    float scaleR;
+    float scaleG;
+    float scaleB;
+} WBalanceArgs;
+
+static void wbalanceBand(void* p, int band, int startRow, int endRow)
 {
-    char* destination = 0;
-    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    WBalanceArgs* args = (WBalanceArgs*) p;
+    unsigned char * rgb = args->rgb;
+    float scaleR = args->scaleR;
+    float scaleG = args->scaleG;
+    float scaleB = args->scaleB;
     int i;
-    int len = width * height * 4;
-    unsigned char * rgb = (unsigned char * )destination;
-    int wr;
-    int wg;
-    int wb;
-
-    if (locX==-1)
-        estmateWhite(rgb,len,&wr,&wg,&wb);
-    else
-        estmateWhiteBox(rgb, width, height,locX,locY,&wr,&wg,&wb);
+    int len = endRow * args->width * 4;
 
-    int min = MIN(wr, MIN(wg, wb));
-    int max = MAX(wr, MAX(wg, wb));
-    float avg = (min+max)/2.f;
-    float scaleR =  avg/wr;
-    float scaleG =  avg/wg;
-    float scaleB =  avg/wb;
-
-    for (i = 0; i < len; i+=4)
+    for (i = startRow * args->width * 4; i < len; i+=4)
     {
         int r = rgb[RED];
         int g = rgb[GREEN];
@@ -165,5 +192,59 @@ void JNIFUNCF(ImageFilterWBalance, nativeApplyFilter, jobject bitmap, jint width
         rgb[GREEN] = clamp(Gc);
         rgb[BLUE]  = clamp(Bc);
     }
+}
+
+// Scales the channels so the estimated white becomes neutral.
+static void applyWhite(unsigned char* rgb, int width, int height, int wr, int wg, int wb)
+{
+    int min = MIN(wr, MIN(wg, wb));
+    int max = MAX(wr, MAX(wg, wb));
+    float avg = (min+max)/2.f;
+
+    WBalanceArgs args;
+    args.rgb = rgb;
+    args.width = width;
+    args.scaleR =  avg/wr;
+    args.scaleG =  avg/wg;
+    args.scaleB =  avg/wb;
+
+    processBands(height, getBandCount(width, height), wbalanceBand, &args);
+}
+
+void JNIFUNCF(ImageFilterWBalance, nativeApplyFilter, jobject bitmap, jint width, jint height, int locX,int locY)
+{
+    char* destination = 0;
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    unsigned char * rgb = (unsigned char * )destination;
+    int wr;
+    int wg;
+    int wb;
+
+    if (locX==-1)
+        estmateWhite(rgb,width,height,&wr,&wg,&wb);
+    else
+        estmateWhiteBox(rgb, width, height,locX,locY,&wr,&wg,&wb);
+
+    applyWhite(rgb, width, height, wr, wg, wb);
+    AndroidBitmap_unlockPixels(env, bitmap);
+}
+
+// Estimates the white on statistics, a downsampled version of the whole
+// image, and applies the correction to bitmap, a region of the image.
+void JNIFUNCF(ImageFilterWBalance, nativeApplyFilterWithStatistics, jobject bitmap, jint width,
+        jint height, jobject statistics, jint swidth, jint sheight)
+{
+    char* source = 0;
+    char* destination = 0;
+    int wr;
+    int wg;
+    int wb;
+
+    AndroidBitmap_lockPixels(env, statistics, (void**) &source);
+    estmateWhite((unsigned char *) source, swidth, sheight, &wr, &wg, &wb);
+    AndroidBitmap_unlockPixels(env, statistics);
+
+    AndroidBitmap_lockPixels(env, bitmap, (void**) &destination);
+    applyWhite((unsigned char *) destination, width, height, wr, wg, wb);
     AndroidBitmap_unlockPixels(env, bitmap);
 }
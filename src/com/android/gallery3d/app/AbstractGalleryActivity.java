@@ -49,7 +49,9 @@ import com.android.gallery3d.util.PanoramaViewHelper;
 import com.android.gallery3d.util.ThreadPool;
 import com.android.photos.data.GalleryBitmapPool;
 
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
+import java.io.PrintWriter;
 
 public class AbstractGalleryActivity extends Activity implements GalleryContext {
     private static final String TAG = "AbstractGalleryActivity";
@@ -133,6 +135,12 @@ public class AbstractGalleryActivity extends Activity implements GalleryContext
         return mGLRootView;
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        if (mGLRootView != null) mGLRootView.dumpFrameStats(prefix, writer);
+    }
+
     public OrientationManager getOrientationManager() {
         return mOrientationManager;
     }
@@ -36,6 +36,7 @@ import android.widget.Toast;
 import com.android.gallery3d.R;
 import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.data.DataManager;
+import com.android.gallery3d.data.ExifIndex;
 import com.android.gallery3d.data.MediaDetails;
 import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.data.MediaObject;
@@ -110,6 +111,7 @@ public class AlbumPage extends ActivityState implements GalleryActionBar.Cluster
     private boolean mShowDetails;
     private float mUserDistance; // in pixel
     private Future<Integer> mSyncTask = null;
+    private Future<Void> mExifIndexTask = null;
     private boolean mLaunchedFromPhotoPage;
     private boolean mInCameraApp;
     private boolean mInCameraAndWantQuitOnPause;
@@ -466,6 +468,9 @@ public class AlbumPage extends ActivityState implements GalleryActionBar.Cluster
             setLoadingBit(BIT_LOADING_SYNC);
             mSyncTask = mMediaSet.requestSync(this);
         }
+        // Read the EXIF headers of the album ahead of the details and photo pages.
+        mExifIndexTask = ExifIndex.indexInBackground(
+                (GalleryApp) mActivity.getApplication(), mMediaSet);
         mInCameraAndWantQuitOnPause = mInCameraApp;
     }
 
@@ -486,6 +491,10 @@ public class AlbumPage extends ActivityState implements GalleryActionBar.Cluster
             mActivity.getGalleryActionBar().disableAlbumModeMenu(true);
         }
 
+        if (mExifIndexTask != null) {
+            mExifIndexTask.cancel();
+            mExifIndexTask = null;
+        }
         if (mSyncTask != null) {
             mSyncTask.cancel();
             mSyncTask = null;
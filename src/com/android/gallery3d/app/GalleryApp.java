@@ -23,6 +23,7 @@ import android.os.Looper;
 
 import com.android.gallery3d.data.DataManager;
 import com.android.gallery3d.data.DownloadCache;
+import com.android.gallery3d.data.ExifIndex;
 import com.android.gallery3d.data.ImageCacheService;
 import com.android.gallery3d.util.ThreadPool;
 
@@ -31,6 +32,7 @@ public interface GalleryApp {
 
     public ImageCacheService getImageCacheService();
     public DownloadCache getDownloadCache();
+    public ExifIndex getExifIndex();
     public ThreadPool getThreadPool();
 
     public Context getAndroidContext();
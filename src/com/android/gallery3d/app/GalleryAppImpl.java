@@ -22,6 +22,7 @@ import android.os.AsyncTask;
 
 import com.android.gallery3d.data.DataManager;
 import com.android.gallery3d.data.DownloadCache;
+import com.android.gallery3d.data.ExifIndex;
 import com.android.gallery3d.data.ImageCacheService;
 import com.android.gallery3d.gadget.WidgetUtils;
 import com.android.gallery3d.picasasource.PicasaSource;
@@ -38,7 +39,9 @@ public class GalleryAppImpl extends Application implements GalleryApp {
     private static final long DOWNLOAD_CAPACITY = 64 * 1024 * 1024; // 64M
 
     private ImageCacheService mImageCacheService;
+    private ExifIndex mExifIndex;
     private Object mLock = new Object();
+    private Object mExifIndexLock = new Object();
     private DataManager mDataManager;
     private ThreadPool mThreadPool;
     private DownloadCache mDownloadCache;
@@ -79,6 +82,17 @@ public class GalleryAppImpl extends Application implements GalleryApp {
         }
     }
 
+    @Override
+    public ExifIndex getExifIndex() {
+        // This method may block on file I/O so a dedicated lock is needed here.
+        synchronized (mExifIndexLock) {
+            if (mExifIndex == null) {
+                mExifIndex = new ExifIndex(getAndroidContext());
+            }
+            return mExifIndex;
+        }
+    }
+
     @Override
     public synchronized ThreadPool getThreadPool() {
         if (mThreadPool == null) {
@@ -42,10 +42,13 @@ public class SinglePhotoDataAdapter extends TileImageViewAdapter
     private static final String TAG = "SinglePhotoDataAdapter";
     private static final int SIZE_BACKUP = 1024;
     private static final int MSG_UPDATE_IMAGE = 1;
+    private static final int MSG_UPDATE_PREVIEW = 2;
 
     private MediaItem mItem;
     private boolean mHasFullImage;
     private Future<?> mTask;
+    private long mTaskVersion;
+    private Future<Bitmap> mPreviewTask;
     private Handler mHandler;
 
     private PhotoView mPhotoView;
@@ -63,6 +66,10 @@ public class SinglePhotoDataAdapter extends TileImageViewAdapter
             @Override
             @SuppressWarnings("unchecked")
             public void handleMessage(Message message) {
+                if (message.what == MSG_UPDATE_PREVIEW) {
+                    onDecodePreviewComplete((Future<Bitmap>) message.obj);
+                    return;
+                }
                 Utils.assertTrue(message.what == MSG_UPDATE_IMAGE);
                 if (mHasFullImage) {
                     onDecodeLargeComplete((ImageBundle) message.obj);
@@ -110,17 +117,48 @@ public class SinglePhotoDataAdapter extends TileImageViewAdapter
         }
     };
 
+    private FutureListener<Bitmap> mPreviewListener =
+            new FutureListener<Bitmap>() {
+        @Override
+        public void onFutureDone(Future<Bitmap> future) {
+            mHandler.sendMessage(
+                    mHandler.obtainMessage(MSG_UPDATE_PREVIEW, future));
+        }
+    };
+
     @Override
     public boolean isEmpty() {
         return false;
     }
 
     private void setScreenNail(Bitmap bitmap, int width, int height) {
+        BitmapScreenNail previous = mBitmapScreenNail;
         mBitmapScreenNail = new BitmapScreenNail(bitmap);
         setScreenNail(mBitmapScreenNail, width, height);
+        if (previous != null) previous.recycle();
+    }
+
+    // Shows the thumbnail until the large image is decoded. For a remote
+    // image it can be made from the embedded preview, long before the
+    // download is done.
+    private void onDecodePreviewComplete(Future<Bitmap> future) {
+        Bitmap preview = future.get();
+        if (future != mPreviewTask) {
+            // The large image is already shown.
+            if (preview != null) preview.recycle();
+            return;
+        }
+        mPreviewTask = null;
+        if (preview == null) return;
+        setScreenNail(preview, preview.getWidth(), preview.getHeight());
+        mPhotoView.notifyImageChange(0);
     }
 
     private void onDecodeLargeComplete(ImageBundle bundle) {
+        if (mPreviewTask != null) {
+            mPreviewTask.cancel();
+            mPreviewTask = null;
+        }
         try {
             setScreenNail(bundle.backupImage,
                     bundle.decoder.getWidth(), bundle.decoder.getHeight());
@@ -149,8 +187,16 @@ public class SinglePhotoDataAdapter extends TileImageViewAdapter
 
     @Override
     public void resume() {
+        if (mTask != null && mTaskVersion != mItem.getDataVersion()) {
+            // The item changed since it was decoded.
+            mTask = null;
+        }
         if (mTask == null) {
+            mTaskVersion = mItem.getDataVersion();
             if (mHasFullImage) {
+                mPreviewTask = mThreadPool.submit(
+                        mItem.requestImage(MediaItem.TYPE_THUMBNAIL),
+                        mPreviewListener);
                 mTask = mThreadPool.submit(
                         mItem.requestLargeImage(), mLargeListener);
             } else {
@@ -169,6 +215,14 @@ public class SinglePhotoDataAdapter extends TileImageViewAdapter
         if (task.get() == null) {
             mTask = null;
         }
+        Future<Bitmap> previewTask = mPreviewTask;
+        if (previewTask != null) {
+            previewTask.cancel();
+            previewTask.waitDone();
+            mPreviewTask = null;
+            Bitmap preview = previewTask.get();
+            if (preview != null) preview.recycle();
+        }
         if (mBitmapScreenNail != null) {
             mBitmapScreenNail.recycle();
             mBitmapScreenNail = null;
@@ -17,8 +17,10 @@
 package com.android.gallery3d.app;
 
 import android.graphics.Bitmap;
+import android.os.SystemClock;
 
 import com.android.gallery3d.app.SlideshowPage.Slide;
+import com.android.gallery3d.common.Utils;
 import com.android.gallery3d.data.ContentListener;
 import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.data.MediaObject;
@@ -36,7 +38,10 @@ public class SlideshowDataAdapter implements SlideshowPage.Model {
     @SuppressWarnings("unused")
     private static final String TAG = "SlideshowDataAdapter";
 
-    private static final int IMAGE_QUEUE_CAPACITY = 3;
+    // The number of slides loaded ahead, decoded in parallel. It grows when
+    // decoding a slide takes longer than showing the slides queued before it.
+    private static final int MIN_IMAGE_QUEUE_CAPACITY = 3;
+    private static final int MAX_IMAGE_QUEUE_CAPACITY = 6;
 
     public interface SlideshowSource {
         public void addContentListener(ContentListener listener);
@@ -55,7 +60,10 @@ public class SlideshowDataAdapter implements SlideshowPage.Model {
     private boolean mDataReady;
     private Path mInitialPath;
 
-    private final LinkedList<Slide> mImageQueue = new LinkedList<Slide>();
+    private final LinkedList<PendingSlide> mImageQueue = new LinkedList<PendingSlide>();
+    private int mImageQueueCapacity = MIN_IMAGE_QUEUE_CAPACITY;
+    // Moving average of the decode time of a slide, guarded by this
+    private long mDecodeTime;
 
     private Future<Void> mReloadTask;
     private final ThreadPool mThreadPool;
@@ -91,13 +99,66 @@ public class SlideshowDataAdapter implements SlideshowPage.Model {
         return mSource.getMediaItem(index);
     }
 
+    // A slide whose bitmap is being decoded, guarded by SlideshowDataAdapter.this
+    private class PendingSlide implements Job<Bitmap>, FutureListener<Bitmap> {
+        final MediaItem mItem;
+        final int mIndex;
+        Future<Bitmap> mFuture;
+        Bitmap mBitmap;
+        boolean mDone;
+
+        PendingSlide(MediaItem item, int index) {
+            mItem = item;
+            mIndex = index;
+        }
+
+        @Override
+        public Bitmap run(JobContext jc) {
+            long start = SystemClock.uptimeMillis();
+            Bitmap bitmap = mItem.requestImage(MediaItem.TYPE_THUMBNAIL).run(jc);
+            if (bitmap != null && !jc.isCancelled()) {
+                onSlideDecoded(SystemClock.uptimeMillis() - start);
+            }
+            return bitmap;
+        }
+
+        @Override
+        public void onFutureDone(Future<Bitmap> future) {
+            synchronized (SlideshowDataAdapter.this) {
+                mBitmap = future.get();
+                mDone = true;
+                SlideshowDataAdapter.this.notifyAll();
+            }
+        }
+    }
+
+    private synchronized void onSlideDecoded(long decodeTime) {
+        mDecodeTime = mDecodeTime == 0 ? decodeTime : (mDecodeTime * 3 + decodeTime) / 4;
+        // A slide queued now is shown after the ones before it, so it must be
+        // decoded within capacity - 1 slideshow delays.
+        int needed = (int) ((mDecodeTime + SlideshowPage.SLIDESHOW_DELAY - 1)
+                / SlideshowPage.SLIDESHOW_DELAY) + 1;
+        mImageQueueCapacity = Utils.clamp(needed,
+                MIN_IMAGE_QUEUE_CAPACITY, MAX_IMAGE_QUEUE_CAPACITY);
+    }
+
+    private void clearImageQueue() {
+        for (PendingSlide slide : mImageQueue) {
+            slide.mFuture.cancel();
+        }
+        mImageQueue.clear();
+    }
+
     private class ReloadTask implements Job<Void> {
         @Override
         public Void run(JobContext jc) {
+            // This job mostly waits for room in the queue, don't hold a cpu
+            // slot meanwhile.
+            jc.setMode(ThreadPool.MODE_NONE);
             while (true) {
                 synchronized (SlideshowDataAdapter.this) {
                     while (mIsActive && (!mDataReady
-                            || mImageQueue.size() >= IMAGE_QUEUE_CAPACITY)) {
+                            || mImageQueue.size() >= mImageQueueCapacity)) {
                         try {
                             SlideshowDataAdapter.this.wait();
                         } catch (InterruptedException ex) {
@@ -113,7 +174,7 @@ public class SlideshowDataAdapter implements SlideshowPage.Model {
 
                 if (mNeedReset) {
                     synchronized (SlideshowDataAdapter.this) {
-                        mImageQueue.clear();
+                        clearImageQueue();
                         mLoadIndex = mNextOutput;
                     }
                     continue;
@@ -127,18 +188,11 @@ public class SlideshowDataAdapter implements SlideshowPage.Model {
                     continue;
                 }
 
-                Bitmap bitmap = item
-                        .requestImage(MediaItem.TYPE_THUMBNAIL)
-                        .run(jc);
-
-                if (bitmap != null) {
-                    synchronized (SlideshowDataAdapter.this) {
-                        mImageQueue.addLast(
-                                new Slide(item, mLoadIndex, bitmap));
-                        if (mImageQueue.size() == 1) {
-                            SlideshowDataAdapter.this.notifyAll();
-                        }
-                    }
+                // Decode in parallel with the slides queued before
+                PendingSlide slide = new PendingSlide(item, mLoadIndex);
+                synchronized (SlideshowDataAdapter.this) {
+                    mImageQueue.addLast(slide);
+                    slide.mFuture = mThreadPool.submit(slide, slide);
                 }
                 ++mLoadIndex;
             }
@@ -157,17 +211,23 @@ public class SlideshowDataAdapter implements SlideshowPage.Model {
     }
 
     private synchronized Slide innerNextBitmap() {
-        while (mIsActive && mDataReady && mImageQueue.isEmpty()) {
-            try {
-                wait();
-            } catch (InterruptedException t) {
-                throw new AssertionError();
+        while (true) {
+            while (mIsActive && mDataReady
+                    && (mImageQueue.isEmpty() || !mImageQueue.getFirst().mDone)) {
+                try {
+                    wait();
+                } catch (InterruptedException t) {
+                    throw new AssertionError();
+                }
             }
+            if (mImageQueue.isEmpty() || !mImageQueue.getFirst().mDone) return null;
+            PendingSlide slide = mImageQueue.removeFirst();
+            this.notifyAll();
+            // Skip the slides which failed to decode
+            if (slide.mBitmap == null) continue;
+            mNextOutput++;
+            return new Slide(slide.mItem, slide.mIndex, slide.mBitmap);
         }
-        if (mImageQueue.isEmpty()) return null;
-        mNextOutput++;
-        this.notifyAll();
-        return mImageQueue.removeFirst();
     }
 
     @Override
@@ -22,6 +22,7 @@ import android.graphics.Bitmap;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.view.MotionEvent;
 
 import com.android.gallery3d.R;
@@ -39,6 +40,8 @@ import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.FutureListener;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Random;
 
 public class SlideshowPage extends ActivityState {
@@ -51,10 +54,16 @@ public class SlideshowPage extends ActivityState {
     public static final String KEY_REPEAT = "repeat";
     public static final String KEY_DREAM = "dream";
 
-    private static final long SLIDESHOW_DELAY = 3000; // 3 seconds
+    static final long SLIDESHOW_DELAY = 3000; // 3 seconds
+    // The next slide is requested this long before it is due, so its
+    // texture can be uploaded before the transition starts.
+    private static final long PREPARE_TIME = 1000;
+    // The span of the items fetched by findMediaItems() in a single query
+    private static final int MAX_FETCH_SPAN = 64;
 
     private static final int MSG_LOAD_NEXT_BITMAP = 1;
     private static final int MSG_SHOW_PENDING_BITMAP = 2;
+    private static final int MSG_PREPARE_PENDING_BITMAP = 3;
 
     public static interface Model {
         public void pause();
@@ -82,6 +91,10 @@ public class SlideshowPage extends ActivityState {
 
     private Slide mPendingSlide = null;
     private boolean mIsActive = false;
+    // When the pending slide is due, 0 if it should be shown when ready
+    private long mNextDeadline;
+    private int mSlideCount;
+    private int mMissedDeadlineCount;
     private final Intent mResultIntent = new Intent();
 
     @Override
@@ -128,6 +141,9 @@ public class SlideshowPage extends ActivityState {
                     case MSG_SHOW_PENDING_BITMAP:
                         showPendingBitmap();
                         break;
+                    case MSG_PREPARE_PENDING_BITMAP:
+                        preparePendingBitmap();
+                        break;
                     case MSG_LOAD_NEXT_BITMAP:
                         loadNextBitmap();
                         break;
@@ -144,11 +160,24 @@ public class SlideshowPage extends ActivityState {
             @Override
             public void onFutureDone(Future<Slide> future) {
                 mPendingSlide = future.get();
-                mHandler.sendEmptyMessage(MSG_SHOW_PENDING_BITMAP);
+                mHandler.sendEmptyMessage(MSG_PREPARE_PENDING_BITMAP);
             }
         });
     }
 
+    private void preparePendingBitmap() {
+        Slide slide = mPendingSlide;
+        if (slide == null || mNextDeadline == 0) {
+            showPendingBitmap();
+            return;
+        }
+        mSlideshowView.prepareNext(slide.bitmap);
+        long delay = mNextDeadline - SystemClock.uptimeMillis();
+        mSlideCount++;
+        if (delay < 0) mMissedDeadlineCount++;
+        mHandler.sendEmptyMessageDelayed(MSG_SHOW_PENDING_BITMAP, Math.max(0, delay));
+    }
+
     private void showPendingBitmap() {
         // mPendingBitmap could be null, if
         // 1.) there is no more items
@@ -166,7 +195,8 @@ public class SlideshowPage extends ActivityState {
         setStateResult(Activity.RESULT_OK, mResultIntent
                 .putExtra(KEY_ITEM_PATH, slide.item.getPath().toString())
                 .putExtra(KEY_PHOTO_INDEX, slide.index));
-        mHandler.sendEmptyMessageDelayed(MSG_LOAD_NEXT_BITMAP, SLIDESHOW_DELAY);
+        mNextDeadline = SystemClock.uptimeMillis() + SLIDESHOW_DELAY;
+        mHandler.sendEmptyMessageDelayed(MSG_LOAD_NEXT_BITMAP, SLIDESHOW_DELAY - PREPARE_TIME);
     }
 
     @Override
@@ -178,12 +208,18 @@ public class SlideshowPage extends ActivityState {
 
         mHandler.removeMessages(MSG_LOAD_NEXT_BITMAP);
         mHandler.removeMessages(MSG_SHOW_PENDING_BITMAP);
+        mHandler.removeMessages(MSG_PREPARE_PENDING_BITMAP);
+        if (mSlideCount > 0) {
+            Log.d(TAG, "missed the deadline of " + mMissedDeadlineCount + " of "
+                    + mSlideCount + " slides");
+        }
     }
 
     @Override
     public void onResume() {
         super.onResume();
         mIsActive = true;
+        mNextDeadline = 0;
         mModel.resume();
 
         if (mPendingSlide != null) {
@@ -236,8 +272,41 @@ public class SlideshowPage extends ActivityState {
         return list.isEmpty() ? null : list.get(0);
     }
 
+    // Finds the items at the given sorted indices of mediaSet, offset by
+    // base, walking the sub sets once. Indices close to each other in a set
+    // are fetched with a single query.
+    private static void findMediaItems(MediaSet mediaSet, int[] indices, int from, int to,
+            int base, HashMap<Integer, MediaItem> items) {
+        for (int i = 0, n = mediaSet.getSubMediaSetCount(); i < n && from < to; ++i) {
+            MediaSet subset = mediaSet.getSubMediaSet(i);
+            int count = subset.getTotalMediaItemCount();
+            int end = from;
+            while (end < to && indices[end] < base + count) ++end;
+            if (end > from) findMediaItems(subset, indices, from, end, base, items);
+            from = end;
+            base += count;
+        }
+        while (from < to) {
+            int last = from;
+            while (last + 1 < to
+                    && indices[last + 1] - indices[from] < MAX_FETCH_SPAN) {
+                ++last;
+            }
+            int start = indices[from] - base;
+            ArrayList<MediaItem> list = mediaSet.getMediaItem(
+                    start, indices[last] - indices[from] + 1);
+            for (int i = from; i <= last; ++i) {
+                int offset = indices[i] - base - start;
+                if (offset < list.size()) items.put(indices[i], list.get(offset));
+            }
+            from = last + 1;
+        }
+    }
+
     private static class ShuffleSource implements SlideshowDataAdapter.SlideshowSource {
         private static final int RETRY_COUNT = 5;
+        // The number of items of the order fetched together
+        private static final int FETCH_BATCH_SIZE = 8;
         private final MediaSet mMediaSet;
         private final Random mRandom = new Random();
         private int mOrder[] = new int[0];
@@ -245,6 +314,12 @@ public class SlideshowPage extends ActivityState {
         private long mSourceVersion = MediaSet.INVALID_DATA_VERSION;
         private int mLastIndex = -1;
 
+        // The items of the order positions [mFetchStart, mFetchEnd)
+        private final HashMap<Integer, MediaItem> mFetchedItems =
+                new HashMap<Integer, MediaItem>();
+        private int mFetchStart;
+        private int mFetchEnd;
+
         public ShuffleSource(MediaSet mediaSet, boolean repeat) {
             mMediaSet = Utils.checkNotNull(mediaSet);
             mRepeat = repeat;
@@ -259,8 +334,10 @@ public class SlideshowPage extends ActivityState {
         public MediaItem getMediaItem(int index) {
             if (!mRepeat && index >= mOrder.length) return null;
             if (mOrder.length == 0) return null;
-            mLastIndex = mOrder[index % mOrder.length];
-            MediaItem item = findMediaItem(mMediaSet, mLastIndex);
+            int position = index % mOrder.length;
+            if (position < mFetchStart || position >= mFetchEnd) fetchItems(position);
+            mLastIndex = mOrder[position];
+            MediaItem item = mFetchedItems.get(mLastIndex);
             for (int i = 0; i < RETRY_COUNT && item == null; ++i) {
                 Log.w(TAG, "fail to find image: " + mLastIndex);
                 mLastIndex = mRandom.nextInt(mOrder.length);
@@ -269,11 +346,23 @@ public class SlideshowPage extends ActivityState {
             return item;
         }
 
+        private void fetchItems(int position) {
+            int end = Math.min(position + FETCH_BATCH_SIZE, mOrder.length);
+            int[] indices = Arrays.copyOfRange(mOrder, position, end);
+            Arrays.sort(indices);
+            mFetchedItems.clear();
+            findMediaItems(mMediaSet, indices, 0, indices.length, 0, mFetchedItems);
+            mFetchStart = position;
+            mFetchEnd = end;
+        }
+
         @Override
         public long reload() {
             long version = mMediaSet.reload();
             if (version != mSourceVersion) {
                 mSourceVersion = version;
+                mFetchedItems.clear();
+                mFetchEnd = 0;
                 int count = mMediaSet.getTotalMediaItemCount();
                 if (count != mOrder.length) generateOrderArray(count);
             }
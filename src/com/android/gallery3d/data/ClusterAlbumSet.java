@@ -128,13 +128,11 @@ public class ClusterAlbumSet extends MediaSet implements ContentListener {
     }
 
     private void updateClustersContents() {
+        ClusteringSnapshot.InfoColumns columns = ClusteringSnapshot.getInfoColumns(mBaseSet);
         final HashSet<Path> existing = new HashSet<Path>();
-        mBaseSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
-            @Override
-            public void consume(int index, MediaItem item) {
-                existing.add(item.getPath());
-            }
-        });
+        for (int i = 0; i < columns.count; i++) {
+            if (columns.paths[i] != null) existing.add(columns.paths[i]);
+        }
 
         int n = mAlbums.size();
 
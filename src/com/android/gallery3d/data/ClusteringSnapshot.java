@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import android.os.SystemClock;
+
+import java.util.WeakHashMap;
+
+// The values the clusterings group the items of a set by, captured for a data
+// version of the set and shared by the ClusterAlbumSets of all kinds on top
+// of it, so switching between groupings doesn't enumerate the set again.
+//
+// The values come in two groups of columns, each captured the first time a
+// clustering asks for it:
+// (1) Info: the paths, dates and locations, read with
+//     MediaSet.enumerateTotalItemInfo() without loading the items.
+// (2) Items: the paths, sizes, tags and faces, read from the items in the
+//     order of MediaSet.enumerateTotalMediaItems(), which the size, tag and
+//     face clusters keep.
+// The entries past the end of the items of a set that shrank while it was
+// enumerated have a null path.
+//
+// A snapshot never refers to its set, so it goes away with the set.
+public class ClusteringSnapshot {
+    private static final String TAG = "ClusteringSnapshot";
+    private static final boolean DEBUG = false;
+
+    private static final WeakHashMap<MediaSet, ClusteringSnapshot> sSnapshots =
+            new WeakHashMap<MediaSet, ClusteringSnapshot>();
+
+    public static class InfoColumns {
+        public final int count;
+        public final Path[] paths;
+        public final long[] datesInMs;
+        public final double[] latitudes;
+        public final double[] longitudes;
+
+        private InfoColumns(int count) {
+            this.count = count;
+            paths = new Path[count];
+            datesInMs = new long[count];
+            latitudes = new double[count];
+            longitudes = new double[count];
+        }
+    }
+
+    public static class ItemColumns {
+        public final int count;
+        public final Path[] paths;
+        public final long[] sizes;
+        // null for the items without tags or faces.
+        public final String[][] tags;
+        public final Face[][] faces;
+
+        private ItemColumns(int count) {
+            this.count = count;
+            paths = new Path[count];
+            sizes = new long[count];
+            tags = new String[count][];
+            faces = new Face[count][];
+        }
+    }
+
+    private long mDataVersion = MediaObject.INVALID_DATA_VERSION;
+    private InfoColumns mInfoColumns;
+    private ItemColumns mItemColumns;
+
+    private ClusteringSnapshot() {
+    }
+
+    private static ClusteringSnapshot get(MediaSet baseSet) {
+        synchronized (sSnapshots) {
+            ClusteringSnapshot snapshot = sSnapshots.get(baseSet);
+            if (snapshot == null) {
+                snapshot = new ClusteringSnapshot();
+                sSnapshots.put(baseSet, snapshot);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Returns the info columns of the given set. They are captured again
+     * when the set has a new data version, so the set is reloaded first.
+     */
+    public static InfoColumns getInfoColumns(MediaSet baseSet) {
+        ClusteringSnapshot snapshot = get(baseSet);
+        synchronized (snapshot) {
+            snapshot.checkDataVersion(baseSet);
+            if (snapshot.mInfoColumns == null) {
+                snapshot.mInfoColumns = captureInfoColumns(baseSet);
+            }
+            return snapshot.mInfoColumns;
+        }
+    }
+
+    /**
+     * Returns the item columns of the given set. They are captured again
+     * when the set has a new data version, so the set is reloaded first.
+     */
+    public static ItemColumns getItemColumns(MediaSet baseSet) {
+        ClusteringSnapshot snapshot = get(baseSet);
+        synchronized (snapshot) {
+            snapshot.checkDataVersion(baseSet);
+            if (snapshot.mItemColumns == null) {
+                snapshot.mItemColumns = captureItemColumns(baseSet);
+            }
+            return snapshot.mItemColumns;
+        }
+    }
+
+    private void checkDataVersion(MediaSet baseSet) {
+        long version = baseSet.getDataVersion();
+        if (version != mDataVersion) {
+            mDataVersion = version;
+            mInfoColumns = null;
+            mItemColumns = null;
+        }
+    }
+
+    private static InfoColumns captureInfoColumns(MediaSet baseSet) {
+        long startTime = SystemClock.uptimeMillis();
+        final InfoColumns columns = new InfoColumns(baseSet.getTotalMediaItemCount());
+        baseSet.enumerateTotalItemInfo(new MediaSet.ItemInfoConsumer() {
+            @Override
+            public void consume(MediaSet.ItemInfoBatch batch) {
+                int start = batch.startIndex;
+                int n = Math.min(batch.count, columns.count - start);
+                if (start < 0 || n <= 0) return;
+                System.arraycopy(batch.paths, 0, columns.paths, start, n);
+                System.arraycopy(batch.datesInMs, 0, columns.datesInMs, start, n);
+                System.arraycopy(batch.latitudes, 0, columns.latitudes, start, n);
+                System.arraycopy(batch.longitudes, 0, columns.longitudes, start, n);
+            }
+        });
+        if (DEBUG) {
+            Log.d(TAG, "captured info of " + columns.count + " items of " + baseSet.getPath()
+                    + " in " + (SystemClock.uptimeMillis() - startTime) + "ms");
+        }
+        return columns;
+    }
+
+    private static ItemColumns captureItemColumns(MediaSet baseSet) {
+        long startTime = SystemClock.uptimeMillis();
+        final ItemColumns columns = new ItemColumns(baseSet.getTotalMediaItemCount());
+        baseSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
+            @Override
+            public void consume(int index, MediaItem item) {
+                if (index < 0 || index >= columns.count) return;
+                columns.paths[index] = item.getPath();
+                columns.sizes[index] = item.getSize();
+                String[] tags = item.getTags();
+                if (tags != null && tags.length > 0) {
+                    columns.tags[index] = tags;
+                }
+                Face[] faces = item.getFaces();
+                if (faces != null && faces.length > 0) {
+                    columns.faces[index] = faces;
+                }
+            }
+        });
+        if (DEBUG) {
+            Log.d(TAG, "captured " + columns.count + " items of " + baseSet.getPath()
+                    + " in " + (SystemClock.uptimeMillis() - startTime) + "ms");
+        }
+        return columns;
+    }
+}
@@ -66,6 +66,13 @@ public class ComboAlbum extends MediaSet implements ContentListener {
         return count;
     }
 
+    @Override
+    protected void collectItemInfoSources(ArrayList<MediaSet> sources) {
+        for (MediaSet set : mSets) {
+            set.collectItemInfoSources(sources);
+        }
+    }
+
     @Override
     public boolean isLeafAlbum() {
         return true;
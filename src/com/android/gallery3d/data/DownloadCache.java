@@ -35,13 +35,29 @@ import com.android.gallery3d.util.ThreadPool.JobContext;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 
 public class DownloadCache {
     private static final String TAG = "DownloadCache";
-    private static final int MAX_DELETE_COUNT = 16;
-    private static final int LRU_CAPACITY = 4;
+    private static final int LRU_CAPACITY = 32;
+
+    // Downloads run on their own pool, so they never hold up decoding jobs
+    // in the application's ThreadPool. This matches the number of jobs
+    // ThreadPool lets into MODE_NETWORK at the same time.
+    private static final int NETWORK_THREAD_COUNT = 2;
+
+    // When evicting, free space down to this fraction of the capacity, so we
+    // don't start another pass for every new download.
+    private static final float EVICTION_LOW_WATER_MARK = 0.9f;
+
+    // Partial downloads are kept so they can be resumed. Those not touched
+    // for this long are deleted by the eviction pass.
+    private static final long PARTIAL_FILE_MAX_AGE = 24 * 60 * 60 * 1000; // 1 day
+    private static final long PARTIAL_FILE_WAIT_TIME = 100; // ms
+    private static final String PARTIAL_SUFFIX = ".partial";
+    private static final String VALIDATOR_SUFFIX = ".validator";
 
     private static final String TABLE_NAME = DownloadEntry.SCHEMA.getTableName();
 
@@ -70,13 +86,25 @@ public class DownloadCache {
             new LruCache<String, Entry>(LRU_CAPACITY);
     private final HashMap<String, DownloadTask> mTaskMap =
             new HashMap<String, DownloadTask>();
+    // Names of the partial files being written, so that a download which
+    // is still winding down after a cancel doesn't collide with a new one.
+    private final HashSet<String> mActivePartialFiles = new HashSet<String>();
     private final File mRoot;
     private final GalleryApp mApplication;
     private final SQLiteDatabase mDatabase;
     private final long mCapacity;
+    private final ThreadPool mNetworkPool =
+            new ThreadPool(NETWORK_THREAD_COUNT, NETWORK_THREAD_COUNT);
 
     private long mTotalBytes = 0;
     private boolean mInitialized = false;
+    private boolean mEvictionScheduled = false;
+
+    public interface ProgressListener {
+        // Called on the download thread while partialFile is being written.
+        // length is the number of bytes in the file so far.
+        void onProgress(File partialFile, long length);
+    }
 
     public DownloadCache(GalleryApp application, File root, long capacity) {
         mRoot = Utils.checkNotNull(root);
@@ -112,6 +140,13 @@ public class DownloadCache {
     }
 
     public Entry download(JobContext jc, URL url) {
+        return download(jc, url, null);
+    }
+
+    // Like download(jc, url), but the listener is notified as the content
+    // arrives, so the caller can look at the partial file before the whole
+    // download finishes. The listener is not called for cached entries.
+    public Entry download(JobContext jc, URL url, ProgressListener listener) {
         if (!mInitialized) initialize();
 
         String stringUrl = url.toString();
@@ -126,7 +161,7 @@ public class DownloadCache {
         }
 
         // Then, find it in database
-        TaskProxy proxy = new TaskProxy();
+        TaskProxy proxy = new TaskProxy(listener);
         synchronized (mTaskMap) {
             Entry entry = findEntryInDatabase(stringUrl);
             if (entry != null) {
@@ -140,7 +175,7 @@ public class DownloadCache {
             if (task == null) { // if not, start the download task now
                 task = new DownloadTask(stringUrl);
                 mTaskMap.put(stringUrl, task);
-                task.mFuture = mApplication.getThreadPool().submit(task, task);
+                task.mFuture = mNetworkPool.submit(task, task);
             }
             task.addProxy(proxy);
         }
@@ -155,29 +190,59 @@ public class DownloadCache {
                 ID_WHERE, new String[] {String.valueOf(id)});
     }
 
-    private synchronized void freeSomeSpaceIfNeed(int maxDeleteFileCount) {
-        if (mTotalBytes <= mCapacity) return;
+    // Schedules an eviction pass in the background if the cache is over its
+    // capacity. Callers never wait for files to be deleted.
+    private void freeSomeSpaceIfNeed() {
+        synchronized (this) {
+            if (mTotalBytes <= mCapacity || mEvictionScheduled) return;
+            mEvictionScheduled = true;
+        }
+        mApplication.getThreadPool().submit(new Job<Void>() {
+            @Override
+            public Void run(JobContext jc) {
+                jc.setMode(ThreadPool.MODE_NONE);
+                try {
+                    freeSpace();
+                    deleteStalePartialFiles();
+                } finally {
+                    synchronized (DownloadCache.this) {
+                        mEvictionScheduled = false;
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    // Deletes the least recently accessed files until the total size is below
+    // the low water mark. Each row is dropped under the lock download() looks
+    // up the database with, so an entry is either handed out and kept, or
+    // gone from the database before its file is deleted. The files are
+    // deleted outside the lock, so downloads are not blocked by them.
+    private void freeSpace() {
+        long target = (long) (mCapacity * EVICTION_LOW_WATER_MARK);
         Cursor cursor = mDatabase.query(TABLE_NAME,
                 FREESPACE_PROJECTION, null, null, null, null, FREESPACE_ORDER_BY);
         try {
-            while (maxDeleteFileCount > 0
-                    && mTotalBytes > mCapacity && cursor.moveToNext()) {
+            while (cursor.moveToNext()) {
+                synchronized (this) {
+                    if (mTotalBytes <= target) break;
+                }
                 long id = cursor.getLong(FREESPACE_IDNEX_ID);
                 String url = cursor.getString(FREESPACE_INDEX_CONTENT_URL);
                 long size = cursor.getLong(FREESPACE_INDEX_CONTENT_SIZE);
                 String path = cursor.getString(FREESPACE_IDNEX_DATA);
-                boolean containsKey;
-                synchronized (mEntryMap) {
-                    containsKey = mEntryMap.containsKey(url);
-                }
-                if (!containsKey) {
-                    --maxDeleteFileCount;
-                    mTotalBytes -= size;
-                    new File(path).delete();
+                synchronized (mTaskMap) {
+                    synchronized (mEntryMap) {
+                        // skip delete, since it is being used
+                        if (mEntryMap.containsKey(url)) continue;
+                    }
                     mDatabase.delete(TABLE_NAME,
                             ID_WHERE, new String[]{String.valueOf(id)});
-                } else {
-                    // skip delete, since it is being used
+                }
+                new File(path).delete();
+                synchronized (this) {
+                    mTotalBytes -= size;
                 }
             }
         } finally {
@@ -185,6 +250,55 @@ public class DownloadCache {
         }
     }
 
+    private void deleteStalePartialFiles() {
+        File[] files = mRoot.listFiles();
+        if (files == null) return;
+        long expired = System.currentTimeMillis() - PARTIAL_FILE_MAX_AGE;
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(PARTIAL_SUFFIX) && !name.endsWith(VALIDATOR_SUFFIX)) continue;
+            if (file.lastModified() > expired) continue;
+            synchronized (mActivePartialFiles) {
+                if (mActivePartialFiles.contains(getPartialBaseName(name))) continue;
+                file.delete();
+            }
+        }
+    }
+
+    private static String getPartialBaseName(String fileName) {
+        return fileName.substring(0, fileName.lastIndexOf('.'));
+    }
+
+    // Returns the partial file for the url, waiting until no other task is
+    // writing it. Returns null if the job is cancelled while waiting.
+    private File acquirePartialFile(JobContext jc, String url) {
+        String name = String.format("%016x", Utils.crc64Long(url));
+        synchronized (mActivePartialFiles) {
+            while (mActivePartialFiles.contains(name)) {
+                if (jc.isCancelled()) return null;
+                try {
+                    mActivePartialFiles.wait(PARTIAL_FILE_WAIT_TIME);
+                } catch (InterruptedException e) {
+                    // ignore.
+                }
+            }
+            mActivePartialFiles.add(name);
+        }
+        return new File(mRoot, name + PARTIAL_SUFFIX);
+    }
+
+    private void releasePartialFile(File partialFile) {
+        synchronized (mActivePartialFiles) {
+            mActivePartialFiles.remove(getPartialBaseName(partialFile.getName()));
+            mActivePartialFiles.notifyAll();
+        }
+    }
+
+    private static File getValidatorFile(File partialFile) {
+        return new File(partialFile.getParentFile(),
+                getPartialBaseName(partialFile.getName()) + VALIDATOR_SUFFIX);
+    }
+
     private synchronized long insertEntry(String url, File file) {
         long size = file.length();
         mTotalBytes += size;
@@ -217,7 +331,7 @@ public class DownloadCache {
         } finally {
             cursor.close();
         }
-        if (mTotalBytes > mCapacity) freeSomeSpaceIfNeed(MAX_DELETE_COUNT);
+        if (mTotalBytes > mCapacity) freeSomeSpaceIfNeed();
     }
 
     private final class DatabaseHelper extends SQLiteOpenHelper {
@@ -257,10 +371,12 @@ public class DownloadCache {
         }
     }
 
-    private class DownloadTask implements Job<File>, FutureListener<File> {
+    private class DownloadTask implements Job<File>, FutureListener<File>,
+            DownloadUtils.ProgressListener {
         private HashSet<TaskProxy> mProxySet = new HashSet<TaskProxy>();
         private Future<File> mFuture;
         private final String mUrl;
+        private File mPartialFile;
 
         public DownloadTask(String url) {
             mUrl = Utils.checkNotNull(url);
@@ -307,38 +423,67 @@ public class DownloadCache {
                     proxy.setResult(entry);
                 }
                 mTaskMap.remove(mUrl);
-                freeSomeSpaceIfNeed(MAX_DELETE_COUNT);
+            }
+            freeSomeSpaceIfNeed();
+        }
+
+        @Override
+        public void onProgress(long length) {
+            ArrayList<ProgressListener> listeners = new ArrayList<ProgressListener>();
+            synchronized (mTaskMap) {
+                for (TaskProxy proxy : mProxySet) {
+                    if (proxy.mListener != null) listeners.add(proxy.mListener);
+                }
+            }
+            // Call the listeners without holding the lock, they may read the
+            // partial file.
+            for (ProgressListener listener : listeners) {
+                listener.onProgress(mPartialFile, length);
             }
         }
 
         @Override
         public File run(JobContext jc) {
-            // TODO: utilize etag
             jc.setMode(ThreadPool.MODE_NETWORK);
-            File tempFile = null;
+            File partialFile = acquirePartialFile(jc, mUrl);
+            if (partialFile == null) return null;
+            mPartialFile = partialFile;
+            File validatorFile = getValidatorFile(partialFile);
             try {
                 URL url = new URL(mUrl);
-                tempFile = File.createTempFile("cache", ".tmp", mRoot);
-                // download from url to tempFile
-                jc.setMode(ThreadPool.MODE_NETWORK);
-                boolean downloaded = DownloadUtils.requestDownload(jc, url, tempFile);
-                jc.setMode(ThreadPool.MODE_NONE);
-                if (downloaded) return tempFile;
+                // download (or resume downloading) from url to partialFile
+                boolean downloaded = DownloadUtils.requestResumableDownload(
+                        jc, url, partialFile, validatorFile, this);
+                if (!downloaded || jc.isCancelled()) {
+                    // keep partialFile, the next request resumes from there
+                    return null;
+                }
+                File cacheFile = File.createTempFile("cache", ".tmp", mRoot);
+                if (partialFile.renameTo(cacheFile)) {
+                    validatorFile.delete();
+                    return cacheFile;
+                }
+                cacheFile.delete();
             } catch (Exception e) {
                 Log.e(TAG, String.format("fail to download %s", mUrl), e);
             } finally {
+                releasePartialFile(partialFile);
                 jc.setMode(ThreadPool.MODE_NONE);
             }
-            if (tempFile != null) tempFile.delete();
             return null;
         }
     }
 
     public static class TaskProxy {
+        private final ProgressListener mListener;
         private DownloadTask mTask;
         private boolean mIsCancelled = false;
         private Entry mEntry;
 
+        TaskProxy(ProgressListener listener) {
+            mListener = listener;
+        }
+
         synchronized void setResult(Entry entry) {
             if (mIsCancelled) return;
             mEntry = entry;
@@ -21,16 +21,30 @@ import com.android.gallery3d.util.ThreadPool.CancelListener;
 import com.android.gallery3d.util.ThreadPool.JobContext;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 
 public class DownloadUtils {
     private static final String TAG = "DownloadService";
 
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    // How often the ProgressListener is called while downloading.
+    private static final int PROGRESS_INTERVAL = 16 * 1024; // bytes
+
+    public interface ProgressListener {
+        // Called on the downloading thread with the number of bytes in the
+        // output so far, including bytes kept from an earlier attempt.
+        void onProgress(long length);
+    }
+
     public static boolean requestDownload(JobContext jc, URL url, File file) {
         FileOutputStream fos = null;
         try {
@@ -43,9 +57,131 @@ public class DownloadUtils {
         }
     }
 
+    // Downloads the url into the file. If the file already holds the start of
+    // the content from an earlier attempt, only the rest is requested with an
+    // HTTP range request. validatorFile keeps the ETag (or Last-Modified) of
+    // the content, so we never append to a file whose content has changed on
+    // the server. The partial content is kept if the download fails or is
+    // cancelled.
+    public static boolean requestResumableDownload(
+            JobContext jc, URL url, File file, File validatorFile) {
+        return requestResumableDownload(jc, url, file, validatorFile, null);
+    }
+
+    public static boolean requestResumableDownload(JobContext jc, URL url,
+            File file, File validatorFile, ProgressListener listener) {
+        String protocol = url.getProtocol();
+        if (!"http".equals(protocol) && !"https".equals(protocol)) {
+            validatorFile.delete();
+            return requestDownload(jc, url, file);
+        }
+
+        HttpURLConnection connection = null;
+        InputStream input = null;
+        FileOutputStream output = null;
+        try {
+            long offset = file.length();
+            String validator = offset > 0 ? readValidator(validatorFile) : null;
+            connection = (HttpURLConnection) url.openConnection();
+            if (validator != null) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                connection.setRequestProperty("If-Range", validator);
+            }
+
+            int code = connection.getResponseCode();
+            boolean append = validator != null
+                    && code == HttpURLConnection.HTTP_PARTIAL
+                    && isRangeFrom(connection, offset);
+            if (!append && code != HttpURLConnection.HTTP_OK) {
+                if (validator != null && (code == HTTP_RANGE_NOT_SATISFIABLE
+                        || code == HttpURLConnection.HTTP_PARTIAL)) {
+                    // The partial content doesn't match the server any
+                    // more; start over.
+                    file.delete();
+                    validatorFile.delete();
+                    connection.disconnect();
+                    connection = null;
+                    return requestResumableDownload(
+                            jc, url, file, validatorFile, listener);
+                }
+                Log.w(TAG, "fail to download " + url + ": " + code);
+                return false;
+            }
+            if (!append) writeValidator(validatorFile, connection);
+
+            input = connection.getInputStream();
+            output = new FileOutputStream(file, append);
+            dump(jc, input, output, listener, append ? offset : 0);
+            return true;
+        } catch (Throwable t) {
+            Log.w(TAG, "fail to download", t);
+            return false;
+        } finally {
+            Utils.closeSilently(input);
+            Utils.closeSilently(output);
+            if (connection != null) connection.disconnect();
+        }
+    }
+
+    // Checks the Content-Range header, e.g. "bytes 1000-1999/2000".
+    private static boolean isRangeFrom(URLConnection connection, long offset) {
+        String range = connection.getHeaderField("Content-Range");
+        return range != null && range.startsWith("bytes " + offset + "-");
+    }
+
+    private static String readValidator(File validatorFile) {
+        if (!validatorFile.isFile()) return null;
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(validatorFile);
+            byte buffer[] = new byte[(int) validatorFile.length()];
+            int offset = 0;
+            while (offset < buffer.length) {
+                int rc = fis.read(buffer, offset, buffer.length - offset);
+                if (rc < 0) return null;
+                offset += rc;
+            }
+            String validator = new String(buffer, "UTF-8");
+            return validator.isEmpty() ? null : validator;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            Utils.closeSilently(fis);
+        }
+    }
+
+    private static void writeValidator(File validatorFile, URLConnection connection) {
+        String validator = connection.getHeaderField("ETag");
+        if (validator == null) validator = connection.getHeaderField("Last-Modified");
+        if (validator == null) {
+            // Without a validator we cannot resume safely.
+            validatorFile.delete();
+            return;
+        }
+        FileOutputStream fos = null;
+        try {
+            fos = new FileOutputStream(validatorFile);
+            fos.write(validator.getBytes("UTF-8"));
+        } catch (IOException e) {
+            validatorFile.delete();
+        } finally {
+            Utils.closeSilently(fos);
+        }
+    }
+
     public static void dump(JobContext jc, InputStream is, OutputStream os)
             throws IOException {
+        dump(jc, is, os, null, 0);
+    }
+
+    // Copies the input to the output, calling the listener every
+    // PROGRESS_INTERVAL bytes. The output must not be buffered, so that the
+    // listener can read what has been written so far.
+    public static void dump(JobContext jc, InputStream is, OutputStream os,
+            ProgressListener listener, long offset) throws IOException {
         byte buffer[] = new byte[4096];
+        long length = offset;
+        long nextProgress = offset + PROGRESS_INTERVAL;
         int rc = is.read(buffer, 0, buffer.length);
         final Thread thread = Thread.currentThread();
         jc.setCancelListener(new CancelListener() {
@@ -57,6 +193,11 @@ public class DownloadUtils {
         while (rc > 0) {
             if (jc.isCancelled()) throw new InterruptedIOException();
             os.write(buffer, 0, rc);
+            length += rc;
+            if (listener != null && length >= nextProgress) {
+                listener.onProgress(length);
+                nextProgress = length + PROGRESS_INTERVAL;
+            }
             rc = is.read(buffer, 0, buffer.length);
         }
         jc.setCancelListener(null);
@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.android.gallery3d.R;
+import com.android.gallery3d.app.GalleryApp;
+import com.android.gallery3d.common.BlobCache;
+import com.android.gallery3d.common.BlobCache.LookupRequest;
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.exif.ExifInterface;
+import com.android.gallery3d.exif.ExifTag;
+import com.android.gallery3d.exif.MappedExifReader;
+import com.android.gallery3d.util.CacheManager;
+import com.android.gallery3d.util.Future;
+import com.android.gallery3d.util.GalleryUtils;
+import com.android.gallery3d.util.ThreadPool;
+import com.android.gallery3d.util.ThreadPool.Job;
+import com.android.gallery3d.util.ThreadPool.JobContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Persistent index of the EXIF values the gallery shows or uses, so the
+// details, the orientation and the thumbnail range of a JPEG are read from
+// its header only once. Entries are keyed by the path, size and modification
+// date of the file, an edited file never matches its old entry.
+public class ExifIndex {
+    private static final String TAG = "ExifIndex";
+    private static final boolean DEBUG = false;
+
+    private static final String EXIF_INDEX_FILE = "exif_index";
+    private static final int EXIF_INDEX_MAX_ENTRIES = 20000;
+    private static final int EXIF_INDEX_MAX_BYTES = 8 * 1024 * 1024;
+    private static final int EXIF_INDEX_VERSION = 1;
+
+    // Number of jobs reading the files of an album at the same time.
+    private static final int INDEXING_JOBS = 4;
+
+    // Indexing runs on a pool of its own, so it never holds up the decoding
+    // jobs of the application's ThreadPool.
+    private static ThreadPool sThreadPool;
+
+    private final BlobCache mCache;
+
+    // The data version of each set whose files were all indexed.
+    private final HashMap<Path, Long> mIndexedVersions = new HashMap<Path, Long>();
+
+    public static class Entry {
+        public int orientation;
+        public String flash;
+        public String width;
+        public String height;
+        public String make;
+        public String model;
+        public String aperture;
+        public String iso;
+        public String whiteBalance;
+        public String exposureTime;
+        public double focalLength = Double.NaN;
+        public boolean hasLatLong;
+        public double latitude;
+        public double longitude;
+        public int thumbnailOffset = -1;
+        public int thumbnailLength;
+
+        // Adds the values MediaDetails.extractExifInfo() would add.
+        public void fillDetails(MediaDetails details) {
+            if (flash != null) {
+                details.addDetail(MediaDetails.INDEX_FLASH,
+                        new MediaDetails.FlashState(Integer.valueOf(flash)));
+            }
+            addDetail(details, MediaDetails.INDEX_WIDTH, width);
+            addDetail(details, MediaDetails.INDEX_HEIGHT, height);
+            addDetail(details, MediaDetails.INDEX_MAKE, make);
+            addDetail(details, MediaDetails.INDEX_MODEL, model);
+            addDetail(details, MediaDetails.INDEX_APERTURE, aperture);
+            addDetail(details, MediaDetails.INDEX_ISO, iso);
+            addDetail(details, MediaDetails.INDEX_WHITE_BALANCE, whiteBalance);
+            addDetail(details, MediaDetails.INDEX_EXPOSURE_TIME, exposureTime);
+            if (!Double.isNaN(focalLength)) {
+                details.addDetail(MediaDetails.INDEX_FOCAL_LENGTH, focalLength);
+                details.setUnit(MediaDetails.INDEX_FOCAL_LENGTH, R.string.unit_mm);
+            }
+        }
+
+        private static void addDetail(MediaDetails details, int key, String value) {
+            if (value != null) {
+                details.addDetail(key, value);
+            }
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeByte(orientation);
+            writeString(out, flash);
+            writeString(out, width);
+            writeString(out, height);
+            writeString(out, make);
+            writeString(out, model);
+            writeString(out, aperture);
+            writeString(out, iso);
+            writeString(out, whiteBalance);
+            writeString(out, exposureTime);
+            out.writeDouble(focalLength);
+            out.writeBoolean(hasLatLong);
+            if (hasLatLong) {
+                out.writeDouble(latitude);
+                out.writeDouble(longitude);
+            }
+            out.writeInt(thumbnailOffset);
+            out.writeInt(thumbnailLength);
+        }
+
+        private void read(DataInputStream in) throws IOException {
+            orientation = in.readByte();
+            flash = readString(in);
+            width = readString(in);
+            height = readString(in);
+            make = readString(in);
+            model = readString(in);
+            aperture = readString(in);
+            iso = readString(in);
+            whiteBalance = readString(in);
+            exposureTime = readString(in);
+            focalLength = in.readDouble();
+            hasLatLong = in.readBoolean();
+            if (hasLatLong) {
+                latitude = in.readDouble();
+                longitude = in.readDouble();
+            }
+            thumbnailOffset = in.readInt();
+            thumbnailLength = in.readInt();
+        }
+
+        private static void writeString(DataOutputStream out, String value)
+                throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value);
+            }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+
+    public ExifIndex(Context context) {
+        mCache = CacheManager.getCache(context, EXIF_INDEX_FILE,
+                EXIF_INDEX_MAX_ENTRIES, EXIF_INDEX_MAX_BYTES,
+                EXIF_INDEX_VERSION);
+    }
+
+    /**
+     * Returns the EXIF values of the given JPEG file, reading and indexing
+     * them if needed, or null if the file can't be read. Does disk io.
+     */
+    public Entry get(String filePath) {
+        File file = new File(filePath);
+        long dateModified = file.lastModified();
+        if (dateModified == 0) {
+            return null;
+        }
+        byte[] key = makeKey(filePath, file.length(), dateModified);
+        Entry entry = lookup(key);
+        if (entry != null) {
+            return entry;
+        }
+        try {
+            entry = extract(MappedExifReader.open(filePath));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read exif from file: " + filePath, e);
+            return null;
+        }
+        insert(key, entry);
+        return entry;
+    }
+
+    /**
+     * Returns the compressed EXIF thumbnail of the given JPEG file, or null
+     * if it has none. Does disk io.
+     */
+    public byte[] getThumbnail(String filePath) throws IOException {
+        Entry entry = get(filePath);
+        if (entry == null || entry.thumbnailOffset < 0 || entry.thumbnailLength <= 0) {
+            return null;
+        }
+        byte[] thumbnail = new byte[entry.thumbnailLength];
+        RandomAccessFile file = new RandomAccessFile(filePath, "r");
+        try {
+            file.seek(entry.thumbnailOffset);
+            file.readFully(thumbnail);
+        } finally {
+            file.close();
+        }
+        return thumbnail;
+    }
+
+    private static synchronized ThreadPool getThreadPool() {
+        if (sThreadPool == null) {
+            sThreadPool = new ThreadPool(INDEXING_JOBS, INDEXING_JOBS);
+        }
+        return sThreadPool;
+    }
+
+    /**
+     * Indexes the JPEG images of the given set and of its sub sets in the
+     * background, reading several files at once. Does nothing if they were
+     * already indexed for the current data version of the set.
+     */
+    public static Future<Void> indexInBackground(final GalleryApp application,
+            final MediaSet mediaSet) {
+        final ThreadPool threadPool = getThreadPool();
+        return threadPool.submit(new Job<Void>() {
+            @Override
+            public Void run(JobContext jc) {
+                ExifIndex exifIndex = application.getExifIndex();
+                Path setPath = mediaSet.getPath();
+                long version = mediaSet.getDataVersion();
+                if (exifIndex.isIndexed(setPath, version)) {
+                    return null;
+                }
+                final ArrayList<String> paths = new ArrayList<String>();
+                mediaSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
+                    @Override
+                    public void consume(int index, MediaItem item) {
+                        if (MediaItem.MIME_TYPE_JPEG.equals(item.getMimeType())
+                                && item.getFilePath() != null) {
+                            paths.add(item.getFilePath());
+                        }
+                    }
+                });
+                if (jc.isCancelled()) {
+                    return null;
+                }
+                exifIndex.index(jc, threadPool, paths, setPath, version);
+                return null;
+            }
+        });
+    }
+
+    private synchronized boolean isIndexed(Path setPath, long version) {
+        if (version == MediaObject.INVALID_DATA_VERSION) {
+            return false;
+        }
+        Long indexedVersion = mIndexedVersions.get(setPath);
+        return indexedVersion != null && indexedVersion == version;
+    }
+
+    private synchronized void setIndexed(Path setPath, long version) {
+        mIndexedVersions.put(setPath, version);
+    }
+
+    // Reads the files from several jobs. They stop once the enumerating job
+    // is cancelled, the last one to finish marks the set as indexed unless
+    // it was cancelled.
+    private void index(final JobContext parent, ThreadPool threadPool,
+            final ArrayList<String> paths, final Path setPath, final long version) {
+        if (paths.isEmpty()) {
+            setIndexed(setPath, version);
+            return;
+        }
+        final long startTime = SystemClock.uptimeMillis();
+        final AtomicInteger next = new AtomicInteger();
+        int jobs = Math.min(INDEXING_JOBS, paths.size());
+        final AtomicInteger runningJobs = new AtomicInteger(jobs);
+        for (int i = 0; i < jobs; i++) {
+            threadPool.submit(new Job<Void>() {
+                @Override
+                public Void run(JobContext jc) {
+                    // Reading headers waits on the disk, not on the cpu.
+                    jc.setMode(ThreadPool.MODE_NONE);
+                    int index;
+                    while (!parent.isCancelled()
+                            && (index = next.getAndIncrement()) < paths.size()) {
+                        get(paths.get(index));
+                    }
+                    if (runningJobs.decrementAndGet() == 0) {
+                        int count = Math.min(next.get(), paths.size());
+                        if (count == paths.size()) {
+                            setIndexed(setPath, version);
+                        }
+                        if (DEBUG) {
+                            long time = Math.max(1, SystemClock.uptimeMillis() - startTime);
+                            Log.d(TAG, "indexed " + count + " files in " + time + "ms ("
+                                    + (count * 1000 / time) + " files/s)");
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    private static Entry extract(MappedExifReader reader) {
+        Entry entry = new Entry();
+        entry.orientation = reader.getOrientation();
+        entry.flash = getValue(reader, ExifInterface.TAG_FLASH);
+        entry.width = getValue(reader, ExifInterface.TAG_IMAGE_WIDTH);
+        entry.height = getValue(reader, ExifInterface.TAG_IMAGE_LENGTH);
+        entry.make = getValue(reader, ExifInterface.TAG_MAKE);
+        entry.model = getValue(reader, ExifInterface.TAG_MODEL);
+        entry.aperture = getValue(reader, ExifInterface.TAG_APERTURE_VALUE);
+        entry.iso = getValue(reader, ExifInterface.TAG_ISO_SPEED_RATINGS);
+        entry.whiteBalance = getValue(reader, ExifInterface.TAG_WHITE_BALANCE);
+        entry.exposureTime = getValue(reader, ExifInterface.TAG_EXPOSURE_TIME);
+        entry.focalLength = reader.getRationalValue(ExifInterface.TAG_FOCAL_LENGTH, Double.NaN);
+        double[] latLong = new double[2];
+        entry.hasLatLong = reader.getLatLong(latLong);
+        entry.latitude = latLong[0];
+        entry.longitude = latLong[1];
+        entry.thumbnailOffset = reader.getThumbnailOffset();
+        entry.thumbnailLength = reader.getThumbnailLength();
+        return entry;
+    }
+
+    // Formats the value of the tag the way MediaDetails does.
+    private static String getValue(MappedExifReader reader, int tagId) {
+        short type = reader.getTagType(tagId);
+        if (type < 0) {
+            return null;
+        } else if (type == ExifTag.TYPE_UNSIGNED_RATIONAL || type == ExifTag.TYPE_RATIONAL) {
+            return String.valueOf(reader.getRationalValue(tagId, 0));
+        } else if (type == ExifTag.TYPE_ASCII) {
+            return reader.getStringValue(tagId);
+        } else {
+            return String.valueOf(reader.getLongValue(tagId, 0));
+        }
+    }
+
+    private Entry lookup(byte[] key) {
+        if (mCache == null) {
+            return null;
+        }
+        try {
+            LookupRequest request = new LookupRequest();
+            request.key = Utils.crc64Long(key);
+            synchronized (mCache) {
+                if (!mCache.lookup(request)) return null;
+            }
+            if (!isSameKey(key, request.buffer)) {
+                return null;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    request.buffer, key.length, request.length - key.length));
+            Entry entry = new Entry();
+            entry.read(in);
+            return entry;
+        } catch (IOException e) {
+            // ignore.
+        }
+        return null;
+    }
+
+    private void insert(byte[] key, Entry entry) {
+        if (mCache == null) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            bytes.write(key);
+            entry.write(new DataOutputStream(bytes));
+            synchronized (mCache) {
+                mCache.insert(Utils.crc64Long(key), bytes.toByteArray());
+            }
+        } catch (IOException e) {
+            // ignore.
+        }
+    }
+
+    private static byte[] makeKey(String filePath, long size, long dateModified) {
+        return GalleryUtils.getBytes(filePath + "+" + size + "+" + dateModified);
+    }
+
+    private static boolean isSameKey(byte[] key, byte[] buffer) {
+        int n = key.length;
+        if (buffer.length < n) {
+            return false;
+        }
+        for (int i = 0; i < n; ++i) {
+            if (key[i] != buffer[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -36,7 +36,7 @@ public class FaceClustering extends Clustering {
     private class FaceCluster {
         ArrayList<Path> mPaths = new ArrayList<Path>();
         String mName;
-        MediaItem mCoverItem;
+        Path mCoverPath;
         Rect mCoverRegion;
         int mCoverFaceIndex;
 
@@ -44,25 +44,14 @@ public class FaceClustering extends Clustering {
             mName = name;
         }
 
-        public void add(MediaItem item, int faceIndex) {
-            Path path = item.getPath();
+        public void add(Path path, int faceIndex, Rect region) {
             mPaths.add(path);
-            Face[] faces = item.getFaces();
-            if (faces != null) {
-                Face face = faces[faceIndex];
-                if (mCoverItem == null) {
-                    mCoverItem = item;
-                    mCoverRegion = face.getPosition();
-                    mCoverFaceIndex = faceIndex;
-                } else {
-                    Rect region = face.getPosition();
-                    if (mCoverRegion.width() < region.width() &&
-                            mCoverRegion.height() < region.height()) {
-                        mCoverItem = item;
-                        mCoverRegion = face.getPosition();
-                        mCoverFaceIndex = faceIndex;
-                    }
-                }
+            if (region == null) return;
+            if (mCoverPath == null || (mCoverRegion.width() < region.width()
+                    && mCoverRegion.height() < region.height())) {
+                mCoverPath = path;
+                mCoverRegion = region;
+                mCoverFaceIndex = faceIndex;
             }
         }
 
@@ -70,15 +59,15 @@ public class FaceClustering extends Clustering {
             return mPaths.size();
         }
 
+        // The cover item is only loaded for the person it ends up covering.
         public MediaItem getCover() {
-            if (mCoverItem != null) {
-                if (PicasaSource.isPicasaImage(mCoverItem)) {
-                    return PicasaSource.getFaceItem(mContext, mCoverItem, mCoverFaceIndex);
-                } else {
-                    return mCoverItem;
-                }
+            if (mCoverPath == null) return null;
+            MediaItem coverItem = (MediaItem) DataManager.from(mContext)
+                    .getMediaObject(mCoverPath);
+            if (coverItem != null && PicasaSource.isPicasaImage(coverItem)) {
+                return PicasaSource.getFaceItem(mContext, coverItem, mCoverFaceIndex);
             }
-            return null;
+            return coverItem;
         }
     }
 
@@ -89,29 +78,28 @@ public class FaceClustering extends Clustering {
 
     @Override
     public void run(MediaSet baseSet) {
-        final TreeMap<Face, FaceCluster> map =
-                new TreeMap<Face, FaceCluster>();
-        final FaceCluster untagged = new FaceCluster(mUntaggedString);
-
-        baseSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
-            @Override
-            public void consume(int index, MediaItem item) {
-                Face[] faces = item.getFaces();
-                if (faces == null || faces.length == 0) {
-                    untagged.add(item, -1);
-                    return;
-                }
-                for (int j = 0; j < faces.length; j++) {
-                    Face face = faces[j];
-                    FaceCluster cluster = map.get(face);
-                    if (cluster == null) {
-                        cluster = new FaceCluster(face.getName());
-                        map.put(face, cluster);
-                    }
-                    cluster.add(item, j);
+        TreeMap<Face, FaceCluster> map = new TreeMap<Face, FaceCluster>();
+        FaceCluster untagged = new FaceCluster(mUntaggedString);
+
+        ClusteringSnapshot.ItemColumns columns = ClusteringSnapshot.getItemColumns(baseSet);
+        for (int i = 0; i < columns.count; i++) {
+            Path path = columns.paths[i];
+            if (path == null) continue;
+            Face[] faces = columns.faces[i];
+            if (faces == null) {
+                untagged.add(path, -1, null);
+                continue;
+            }
+            for (int j = 0; j < faces.length; j++) {
+                Face face = faces[j];
+                FaceCluster cluster = map.get(face);
+                if (cluster == null) {
+                    cluster = new FaceCluster(face.getName());
+                    map.put(face, cluster);
                 }
+                cluster.add(path, j, face.getPosition());
             }
-        });
+        }
 
         int m = map.size();
         mClusters = map.values().toArray(new FaceCluster[m + ((untagged.size() > 0) ? 1 : 0)]);
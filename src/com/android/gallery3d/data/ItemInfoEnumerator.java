@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.data;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.android.gallery3d.data.MediaSet.ItemInfoBatch;
+import com.android.gallery3d.data.MediaSet.ItemInfoConsumer;
+import com.android.gallery3d.util.PriorityThreadFactory;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Runs MediaSet.enumerateTotalItemInfo(). The sets holding the items are
+// read on a few threads, which fill a fixed number of batches and hand them
+// to the consumer on the calling thread. Reading the next batches overlaps
+// with consuming the current one, and a slow consumer holds the readers
+// back instead of letting the batches pile up.
+class ItemInfoEnumerator {
+    private static final String TAG = "ItemInfoEnumerator";
+    private static final boolean DEBUG = false;
+
+    private static final int FETCH_THREADS = 3;
+    private static final int KEEP_ALIVE_SECONDS = 10;
+
+    // Every reader holds at most one batch, the others go to the consumer.
+    private static final int BATCH_COUNT = FETCH_THREADS * 2 + 1;
+
+    // Marks the end of the items of a set in the queue of filled batches.
+    private static final ItemInfoBatch END = new ItemInfoBatch();
+
+    private static final ExecutorService sExecutor = createExecutor();
+
+    private final ArrayBlockingQueue<ItemInfoBatch> mFreeBatches =
+            new ArrayBlockingQueue<ItemInfoBatch>(BATCH_COUNT);
+    private final LinkedBlockingQueue<ItemInfoBatch> mFilledBatches =
+            new LinkedBlockingQueue<ItemInfoBatch>();
+
+    // Collects the items of one set into batches. The indices of the items
+    // start at the index of the set and stop at its count, the items added
+    // to the set since it was counted are dropped.
+    static class Sink {
+        private final ItemInfoEnumerator mEnumerator;
+        private final int mEnd;
+        private int mNext;
+        private ItemInfoBatch mBatch;
+
+        private Sink(ItemInfoEnumerator enumerator, int start, int end) {
+            mEnumerator = enumerator;
+            mNext = start;
+            mEnd = end;
+        }
+
+        // Returns false once the sink takes no more items.
+        boolean add(Path path, long dateInMs, long size,
+                double latitude, double longitude) {
+            if (mNext >= mEnd) return false;
+            if (mBatch == null) {
+                mBatch = mEnumerator.obtainBatch();
+                if (mBatch == null) return false;
+                mBatch.startIndex = mNext;
+                mBatch.count = 0;
+            }
+            mBatch.add(path, dateInMs, size, latitude, longitude);
+            mNext++;
+            if (mBatch.isFull()) flush();
+            return mNext < mEnd;
+        }
+
+        private void flush() {
+            if (mBatch != null) {
+                mEnumerator.mFilledBatches.add(mBatch);
+                mBatch = null;
+            }
+        }
+    }
+
+    private class FetchTask implements Runnable {
+        private final MediaSet mSource;
+        private final int mStart;
+        private final int mEnd;
+
+        FetchTask(MediaSet source, int start, int end) {
+            mSource = source;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public void run() {
+            Sink sink = new Sink(ItemInfoEnumerator.this, mStart, mEnd);
+            try {
+                mSource.fetchItemInfo(sink);
+                sink.flush();
+            } catch (Throwable t) {
+                Log.w(TAG, "cannot fetch items of " + mSource.getPath(), t);
+            } finally {
+                mFilledBatches.add(END);
+            }
+        }
+    }
+
+    private static ExecutorService createExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new PriorityThreadFactory("item-info-fetcher",
+                        Process.THREAD_PRIORITY_BACKGROUND));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    static void enumerate(MediaSet set, ItemInfoConsumer consumer) {
+        ArrayList<MediaSet> sources = new ArrayList<MediaSet>();
+        set.collectItemInfoSources(sources);
+        new ItemInfoEnumerator().run(sources, consumer);
+    }
+
+    private ItemInfoEnumerator() {
+        for (int i = 0; i < BATCH_COUNT; i++) {
+            mFreeBatches.add(new ItemInfoBatch());
+        }
+    }
+
+    // Returns null if the enumeration is cancelled.
+    private ItemInfoBatch obtainBatch() {
+        try {
+            return mFreeBatches.take();
+        } catch (InterruptedException e) {
+            return null;
+        }
+    }
+
+    private void run(ArrayList<MediaSet> sources, ItemInfoConsumer consumer) {
+        long startTime = SystemClock.uptimeMillis();
+        int n = sources.size();
+        ArrayList<Future<?>> tasks = new ArrayList<Future<?>>(n);
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            MediaSet source = sources.get(i);
+            int count = source.getMediaItemCount();
+            tasks.add(sExecutor.submit(new FetchTask(source, start, start + count)));
+            start += count;
+        }
+
+        int consumed = 0;
+        try {
+            int running = n;
+            while (running > 0) {
+                ItemInfoBatch batch = mFilledBatches.take();
+                if (batch == END) {
+                    running--;
+                    continue;
+                }
+                consumer.consume(batch);
+                consumed += batch.count;
+                mFreeBatches.add(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // Stops the readers if the consumer failed or was interrupted.
+            for (int i = 0; i < n; i++) {
+                tasks.get(i).cancel(true);
+            }
+        }
+        if (DEBUG) {
+            Log.d(TAG, "enumerated " + consumed + " items of " + n + " sets in "
+                    + (SystemClock.uptimeMillis() - startTime) + "ms");
+        }
+    }
+}
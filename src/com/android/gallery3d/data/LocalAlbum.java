@@ -43,6 +43,15 @@ public class LocalAlbum extends MediaSet {
     private static final String TAG = "LocalAlbum";
     private static final String[] COUNT_PROJECTION = { "count(*)" };
 
+    // The columns fetchItemInfo() reads, the same for images and videos.
+    private static final String[] ITEM_INFO_PROJECTION = {
+            ImageColumns._ID,           // 0
+            ImageColumns.DATE_TAKEN,    // 1
+            ImageColumns.SIZE,          // 2
+            ImageColumns.LATITUDE,      // 3
+            ImageColumns.LONGITUDE,     // 4
+    };
+
     private static final int INVALID_COUNT = -1;
     private final String mWhereClause;
     private final String mOrderClause;
@@ -141,6 +150,33 @@ public class LocalAlbum extends MediaSet {
         return list;
     }
 
+    // Reads the few columns of the items in one query instead of loading
+    // them, the cursor window pages through the rows as they are read.
+    @Override
+    protected void fetchItemInfo(ItemInfoEnumerator.Sink sink) {
+        GalleryUtils.assertNotInRenderThread();
+        Cursor cursor = mResolver.query(
+                mBaseUri, ITEM_INFO_PROJECTION, mWhereClause,
+                new String[]{String.valueOf(mBucketId)},
+                mOrderClause);
+        if (cursor == null) {
+            Log.w(TAG, "query fail: " + mBaseUri);
+            return;
+        }
+
+        try {
+            while (cursor.moveToNext()) {
+                Path childPath = mItemPath.getChild(cursor.getInt(0));
+                if (!sink.add(childPath, cursor.getLong(1), cursor.getLong(2),
+                        cursor.getDouble(3), cursor.getDouble(4))) {
+                    break;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
     private static MediaItem loadOrUpdateItem(Path path, Cursor cursor,
             DataManager dataManager, GalleryApp app, boolean isImage) {
         synchronized (DataManager.LOCK) {
@@ -194,11 +194,9 @@ public class LocalImage extends LocalMediaItem {
 
             // try to decode from JPEG EXIF
             if (type == MediaItem.TYPE_MICROTHUMBNAIL) {
-                ExifInterface exif = new ExifInterface();
                 byte[] thumbData = null;
                 try {
-                    exif.readExif(mLocalFilePath);
-                    thumbData = exif.getThumbnail();
+                    thumbData = mApplication.getExifIndex().getThumbnail(mLocalFilePath);
                 } catch (FileNotFoundException e) {
                     Log.w(TAG, "failed to find file to read thumbnail: " + mLocalFilePath);
                 } catch (IOException e) {
@@ -323,7 +321,10 @@ public class LocalImage extends LocalMediaItem {
         if (MIME_TYPE_JPEG.equals(mimeType)) {
             // ExifInterface returns incorrect values for photos in other format.
             // For example, the width and height of an webp images is always '0'.
-            MediaDetails.extractExifInfo(details, filePath);
+            ExifIndex.Entry entry = mApplication.getExifIndex().get(filePath);
+            if (entry != null) {
+                entry.fillDetails(details);
+            }
         }
         return details;
     }
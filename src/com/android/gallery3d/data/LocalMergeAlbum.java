@@ -172,6 +172,13 @@ public class LocalMergeAlbum extends MediaSet implements ContentListener {
         return count;
     }
 
+    @Override
+    protected void collectItemInfoSources(ArrayList<MediaSet> sources) {
+        for (MediaSet set : mSources) {
+            set.collectItemInfoSources(sources);
+        }
+    }
+
     @Override
     public long reload() {
         boolean changed = false;
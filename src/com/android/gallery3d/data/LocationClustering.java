@@ -65,29 +65,19 @@ class LocationClustering extends Clustering {
 
     @Override
     public void run(MediaSet baseSet) {
-        final int total = baseSet.getTotalMediaItemCount();
-        final SmallItem[] buf = new SmallItem[total];
-        // Separate items to two sets: with or without lat-long.
-        final double[] latLong = new double[2];
-        baseSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
-            @Override
-            public void consume(int index, MediaItem item) {
-                if (index < 0 || index >= total) return;
-                SmallItem s = new SmallItem();
-                s.path = item.getPath();
-                item.getLatLong(latLong);
-                s.lat = latLong[0];
-                s.lng = latLong[1];
-                buf[index] = s;
-            }
-        });
+        ClusteringSnapshot.InfoColumns columns = ClusteringSnapshot.getInfoColumns(baseSet);
+        int total = columns.count;
 
+        // Separate items to two sets: with or without lat-long.
         final ArrayList<SmallItem> withLatLong = new ArrayList<SmallItem>();
         final ArrayList<SmallItem> withoutLatLong = new ArrayList<SmallItem>();
         final ArrayList<Point> points = new ArrayList<Point>();
         for (int i = 0; i < total; i++) {
-            SmallItem s = buf[i];
-            if (s == null) continue;
+            if (columns.paths[i] == null) continue;
+            SmallItem s = new SmallItem();
+            s.path = columns.paths[i];
+            s.lat = columns.latitudes[i];
+            s.lng = columns.longitudes[i];
             if (GalleryUtils.isValidLocation(s.lat, s.lng)) {
                 withLatLong.add(s);
                 points.add(new Point(s.lat, s.lng));
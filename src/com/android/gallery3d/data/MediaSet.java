@@ -233,6 +233,80 @@ public abstract class MediaSet extends MediaObject {
         return start;
     }
 
+    // The path, date, size and location of consecutive items, as given by
+    // enumerateTotalItemInfo(). Only the first count entries are valid, the
+    // item at entry i has the index startIndex + i.
+    public static class ItemInfoBatch {
+        public int startIndex;
+        public int count;
+        public final Path[] paths = new Path[MEDIAITEM_BATCH_FETCH_COUNT];
+        public final long[] datesInMs = new long[MEDIAITEM_BATCH_FETCH_COUNT];
+        public final long[] sizes = new long[MEDIAITEM_BATCH_FETCH_COUNT];
+        public final double[] latitudes = new double[MEDIAITEM_BATCH_FETCH_COUNT];
+        public final double[] longitudes = new double[MEDIAITEM_BATCH_FETCH_COUNT];
+
+        boolean isFull() {
+            return count == paths.length;
+        }
+
+        void add(Path path, long dateInMs, long size, double latitude, double longitude) {
+            int i = count++;
+            paths[i] = path;
+            datesInMs[i] = dateInMs;
+            sizes[i] = size;
+            latitudes[i] = latitude;
+            longitudes[i] = longitude;
+        }
+    }
+
+    public static interface ItemInfoConsumer {
+        void consume(ItemInfoBatch batch);
+    }
+
+    // Enumerates the path, date, size and location of all media items under
+    // this set, reading only those values where the set allows it instead of
+    // loading the items. The sets holding the items are read in parallel
+    // while ItemInfoConsumer.consume() is called on the calling thread.
+    //
+    // The indices are unique within [0, getTotalMediaItemCount()), but
+    // unlike enumerateTotalMediaItems(), merged sets give the items of each
+    // of their sources in turn instead of interleaving them.
+    public void enumerateTotalItemInfo(ItemInfoConsumer consumer) {
+        ItemInfoEnumerator.enumerate(this, consumer);
+    }
+
+    // Adds the sets whose items enumerateTotalItemInfo() reads, each with
+    // fetchItemInfo(), in the order of enumerateTotalMediaItems().
+    protected void collectItemInfoSources(ArrayList<MediaSet> sources) {
+        if (getMediaItemCount() > 0) sources.add(this);
+        int m = getSubMediaSetCount();
+        for (int i = 0; i < m; i++) {
+            getSubMediaSet(i).collectItemInfoSources(sources);
+        }
+    }
+
+    // Adds the values of the items of this set, not of its sub sets, to the
+    // sink. It runs on a worker thread of enumerateTotalItemInfo(). The
+    // default implementation uses getMediaItem().
+    protected void fetchItemInfo(ItemInfoEnumerator.Sink sink) {
+        int total = getMediaItemCount();
+        double[] latLong = new double[2];
+        int start = 0;
+        while (start < total) {
+            int count = Math.min(MEDIAITEM_BATCH_FETCH_COUNT, total - start);
+            ArrayList<MediaItem> items = getMediaItem(start, count);
+            for (int i = 0, n = items.size(); i < n; i++) {
+                MediaItem item = items.get(i);
+                item.getLatLong(latLong);
+                if (!sink.add(item.getPath(), item.getDateInMs(), item.getSize(),
+                        latLong[0], latLong[1])) {
+                    return;
+                }
+            }
+            start += count;
+        }
+    }
+
     /**
      * Requests sync on this MediaSet. It returns a Future object that can be used by the caller
      * to query the status of the sync. The sync result code is one of the SYNC_RESULT_* constants
@@ -54,26 +54,26 @@ public class SizeClustering extends Clustering {
     public void run(MediaSet baseSet) {
         @SuppressWarnings("unchecked")
         final ArrayList<Path>[] group = new ArrayList[SIZE_LEVELS.length];
-        baseSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
-            @Override
-            public void consume(int index, MediaItem item) {
-                // Find the cluster this item belongs to.
-                long size = item.getSize();
-                int i;
-                for (i = 0; i < SIZE_LEVELS.length - 1; i++) {
-                    if (size < SIZE_LEVELS[i + 1]) {
-                        break;
-                    }
+        ClusteringSnapshot.ItemColumns columns = ClusteringSnapshot.getItemColumns(baseSet);
+        for (int j = 0; j < columns.count; j++) {
+            if (columns.paths[j] == null) continue;
+
+            // Find the cluster this item belongs to.
+            long size = columns.sizes[j];
+            int i;
+            for (i = 0; i < SIZE_LEVELS.length - 1; i++) {
+                if (size < SIZE_LEVELS[i + 1]) {
+                    break;
                 }
+            }
 
-                ArrayList<Path> list = group[i];
-                if (list == null) {
-                    list = new ArrayList<Path>();
-                    group[i] = list;
-                }
-                list.add(item.getPath());
+            ArrayList<Path> list = group[i];
+            if (list == null) {
+                list = new ArrayList<Path>();
+                group[i] = list;
             }
-        });
+            list.add(columns.paths[j]);
+        }
 
         int count = 0;
         for (int i = 0; i < group.length; i++) {
@@ -42,27 +42,26 @@ public class TagClustering extends Clustering {
                 new TreeMap<String, ArrayList<Path>>();
         final ArrayList<Path> untagged = new ArrayList<Path>();
 
-        baseSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
-            @Override
-            public void consume(int index, MediaItem item) {
-                Path path = item.getPath();
+        ClusteringSnapshot.ItemColumns columns = ClusteringSnapshot.getItemColumns(baseSet);
+        for (int i = 0; i < columns.count; i++) {
+            Path path = columns.paths[i];
+            if (path == null) continue;
 
-                String[] tags = item.getTags();
-                if (tags == null || tags.length == 0) {
-                    untagged.add(path);
-                    return;
-                }
-                for (int j = 0; j < tags.length; j++) {
-                    String key = tags[j];
-                    ArrayList<Path> list = map.get(key);
-                    if (list == null) {
-                        list = new ArrayList<Path>();
-                        map.put(key, list);
-                    }
-                    list.add(path);
+            String[] tags = columns.tags[i];
+            if (tags == null) {
+                untagged.add(path);
+                continue;
+            }
+            for (int j = 0; j < tags.length; j++) {
+                String key = tags[j];
+                ArrayList<Path> list = map.get(key);
+                if (list == null) {
+                    list = new ArrayList<Path>();
+                    map.put(key, list);
                 }
+                list.add(path);
             }
-        });
+        }
 
         int m = map.size();
         mClusters = new ArrayList<ArrayList<Path>>();
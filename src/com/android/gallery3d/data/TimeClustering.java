@@ -98,29 +98,18 @@ public class TimeClustering extends Clustering {
 
     @Override
     public void run(MediaSet baseSet) {
-        final int total = baseSet.getTotalMediaItemCount();
-        final SmallItem[] buf = new SmallItem[total];
-        final double[] latLng = new double[2];
-
-        baseSet.enumerateTotalMediaItems(new MediaSet.ItemConsumer() {
-            @Override
-            public void consume(int index, MediaItem item) {
-                if (index < 0 || index >= total) return;
-                SmallItem s = new SmallItem();
-                s.path = item.getPath();
-                s.dateInMs = item.getDateInMs();
-                item.getLatLong(latLng);
-                s.lat = latLng[0];
-                s.lng = latLng[1];
-                buf[index] = s;
-            }
-        });
+        ClusteringSnapshot.InfoColumns columns = ClusteringSnapshot.getInfoColumns(baseSet);
+        int total = columns.count;
 
         ArrayList<SmallItem> items = new ArrayList<SmallItem>(total);
         for (int i = 0; i < total; i++) {
-            if (buf[i] != null) {
-                items.add(buf[i]);
-            }
+            if (columns.paths[i] == null) continue;
+            SmallItem s = new SmallItem();
+            s.path = columns.paths[i];
+            s.dateInMs = columns.datesInMs[i];
+            s.lat = columns.latitudes[i];
+            s.lng = columns.longitudes[i];
+            items.add(s);
         }
 
         Collections.sort(items, sDateComparator);
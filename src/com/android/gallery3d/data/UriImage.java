@@ -19,6 +19,7 @@ package com.android.gallery3d.data;
 import android.content.ContentResolver;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
 import android.graphics.BitmapRegionDecoder;
 import android.net.Uri;
@@ -28,12 +29,18 @@ import com.android.gallery3d.app.GalleryApp;
 import com.android.gallery3d.app.PanoramaMetadataSupport;
 import com.android.gallery3d.common.BitmapUtils;
 import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.exif.ExifInterface;
+import com.android.gallery3d.util.Future;
+import com.android.gallery3d.util.ThreadPool;
 import com.android.gallery3d.util.ThreadPool.CancelListener;
 import com.android.gallery3d.util.ThreadPool.Job;
 import com.android.gallery3d.util.ThreadPool.JobContext;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
@@ -46,6 +53,11 @@ public class UriImage extends MediaItem {
     private static final int STATE_DOWNLOADED = 2;
     private static final int STATE_ERROR = -1;
 
+    // The EXIF header (APP1) is limited to 64KB and comes right after the
+    // SOI marker (and possibly a JFIF APP0). If we cannot find a thumbnail
+    // in this many bytes, there is none.
+    private static final long MAX_PREVIEW_OFFSET = 128 * 1024;
+
     private final Uri mUri;
     private final String mContentType;
 
@@ -54,7 +66,22 @@ public class UriImage extends MediaItem {
     private int mState = STATE_INIT;
     private int mWidth;
     private int mHeight;
-    private int mRotation;
+    // Written by the download and the preview reader, read by the UI.
+    private volatile int mRotation;
+
+    // For remote images, the download runs in a job of its own, so that
+    // waiting jobs can return a preview before the download is done. The
+    // download is cancelled when all the jobs waiting for it are cancelled.
+    private Future<Void> mDownloadFuture;
+    private int mWaitingJobCount;
+    // The EXIF thumbnail found in the partially downloaded file. Thumbnails
+    // made from it are temporary: once the download is done, the data version
+    // changes so they are requested again from the full image. They are never
+    // stored in the ImageCacheService, since UriImage doesn't decode through
+    // an ImageCacheRequest.
+    private Bitmap mPreview;
+    private boolean mPreviewDone;
+    private boolean mPreviewReturned;
     private PanoramaMetadataSupport mPanoramaMetadata = new PanoramaMetadataSupport(this);
 
     private GalleryApp mApplication;
@@ -85,16 +112,27 @@ public class UriImage extends MediaItem {
                     Utils.closeSilently(mFileDescriptor);
                     mFileDescriptor = null;
                 }
+            } else {
+                // The full image is available, the preview is not needed.
+                // Images requested from the preview are stale now, a new
+                // data version lets their holders request them again.
+                mPreview = null;
+                if (mPreviewReturned) mDataVersion = nextVersionNumber();
+                mPreviewReturned = false;
             }
             notifyAll();
         }
     }
 
-    private int openOrDownloadInner(JobContext jc) {
+    private boolean isLocal() {
         String scheme = mUri.getScheme();
-        if (ContentResolver.SCHEME_CONTENT.equals(scheme)
+        return ContentResolver.SCHEME_CONTENT.equals(scheme)
                 || ContentResolver.SCHEME_ANDROID_RESOURCE.equals(scheme)
-                || ContentResolver.SCHEME_FILE.equals(scheme)) {
+                || ContentResolver.SCHEME_FILE.equals(scheme);
+    }
+
+    private int openOrDownloadInner(JobContext jc) {
+        if (isLocal()) {
             try {
                 if (MIME_TYPE_JPEG.equalsIgnoreCase(mContentType)) {
                     InputStream is = mApplication.getContentResolver()
@@ -113,7 +151,9 @@ public class UriImage extends MediaItem {
         } else {
             try {
                 URL url = new URI(mUri.toString()).toURL();
-                mCacheEntry = mApplication.getDownloadCache().download(jc, url);
+                boolean isJpeg = MIME_TYPE_JPEG.equalsIgnoreCase(mContentType);
+                mCacheEntry = mApplication.getDownloadCache().download(
+                        jc, url, isJpeg ? mPreviewListener : null);
                 if (jc.isCancelled()) return STATE_INIT;
                 if (mCacheEntry == null) {
                     Log.w(TAG, "download failed " + url);
@@ -134,37 +174,127 @@ public class UriImage extends MediaItem {
         }
     }
 
+    private final DownloadCache.ProgressListener mPreviewListener =
+            new DownloadCache.ProgressListener() {
+        @Override
+        public void onProgress(File partialFile, long length) {
+            synchronized (UriImage.this) {
+                if (mPreviewDone) return;
+            }
+            Bitmap preview = decodeExifThumbnail(partialFile);
+            synchronized (UriImage.this) {
+                if (preview != null) {
+                    mPreview = preview;
+                    UriImage.this.notifyAll();
+                }
+                mPreviewDone = preview != null || length >= MAX_PREVIEW_OFFSET;
+            }
+        }
+    };
+
+    // Returns the EXIF thumbnail of a (possibly truncated) JPEG file, or null
+    // if there is none or it has not been downloaded yet. Also picks up the
+    // rotation, so the preview is shown the right way up.
+    private Bitmap decodeExifThumbnail(File file) {
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(file));
+            ExifInterface exif = new ExifInterface();
+            exif.readExif(is);
+            byte[] thumbnail = exif.getThumbnail();
+            if (thumbnail == null) return null;
+            Integer orientation = exif.getTagIntValue(ExifInterface.TAG_ORIENTATION);
+            if (orientation != null) {
+                mRotation = ExifInterface.getRotationForOrientationValue(
+                        orientation.shortValue());
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Config.ARGB_8888;
+            return BitmapFactory.decodeByteArray(thumbnail, 0, thumbnail.length, options);
+        } catch (IOException e) {
+            // not enough data yet
+            return null;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "fail to read exif thumbnail", e);
+            return null;
+        } finally {
+            Utils.closeSilently(is);
+        }
+    }
+
+    // caller should hold synchronized on "this"
+    private void startDownload() {
+        mDownloadFuture = mApplication.getThreadPool().submit(new Job<Void>() {
+            @Override
+            public Void run(JobContext jc) {
+                // The transfer itself runs on the network pool of the
+                // DownloadCache, this job only waits for it.
+                jc.setMode(ThreadPool.MODE_NONE);
+                openFileOrDownloadTempFile(jc);
+                return null;
+            }
+        });
+    }
+
     private boolean prepareInputFile(JobContext jc) {
+        return prepareInputFile(jc, false) == STATE_DOWNLOADED;
+    }
+
+    // Waits until the input file is ready. If acceptPreview is true, it
+    // returns STATE_DOWNLOADING as soon as a preview is available instead.
+    // Returns STATE_INIT if the job is cancelled.
+    private int prepareInputFile(JobContext jc, boolean acceptPreview) {
         jc.setCancelListener(new CancelListener() {
             @Override
             public void onCancel() {
-                synchronized (this) {
-                    notifyAll();
+                synchronized (UriImage.this) {
+                    UriImage.this.notifyAll();
                 }
             }
         });
 
-        while (true) {
-            synchronized (this) {
-                if (jc.isCancelled()) return false;
-                if (mState == STATE_INIT) {
-                    mState = STATE_DOWNLOADING;
-                    // Then leave the synchronized block and continue.
-                } else if (mState == STATE_ERROR) {
-                    return false;
-                } else if (mState == STATE_DOWNLOADED) {
-                    return true;
-                } else /* if (mState == STATE_DOWNLOADING) */ {
-                    try {
-                        wait();
-                    } catch (InterruptedException ex) {
-                        // ignored.
+        synchronized (this) {
+            ++mWaitingJobCount;
+        }
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (jc.isCancelled()) return STATE_INIT;
+                    if (mState == STATE_INIT) {
+                        mState = STATE_DOWNLOADING;
+                        if (!isLocal()) {
+                            startDownload();
+                            continue;
+                        }
+                        // Then leave the synchronized block and continue.
+                    } else if (mState == STATE_ERROR) {
+                        return STATE_ERROR;
+                    } else if (mState == STATE_DOWNLOADED) {
+                        return STATE_DOWNLOADED;
+                    } else /* if (mState == STATE_DOWNLOADING) */ {
+                        if (acceptPreview && mPreview != null) return STATE_DOWNLOADING;
+                        try {
+                            wait();
+                        } catch (InterruptedException ex) {
+                            // ignored.
+                        }
+                        continue;
                     }
-                    continue;
                 }
+                // This is only reached for STATE_INIT->STATE_DOWNLOADING of
+                // local files.
+                openFileOrDownloadTempFile(jc);
             }
-            // This is only reached for STATE_INIT->STATE_DOWNLOADING
-            openFileOrDownloadTempFile(jc);
+        } finally {
+            synchronized (this) {
+                // Nobody is interested in the download any more. The partial
+                // file is kept, so the next request resumes from there.
+                if (--mWaitingJobCount == 0 && jc.isCancelled()
+                        && mState == STATE_DOWNLOADING && mDownloadFuture != null) {
+                    mDownloadFuture.cancel();
+                }
+            }
+            jc.setCancelListener(null);
         }
     }
 
@@ -189,8 +319,26 @@ public class UriImage extends MediaItem {
 
         @Override
         public Bitmap run(JobContext jc) {
-            if (!prepareInputFile(jc)) return null;
+            // A thumbnail may be made from the preview while the full image
+            // is still downloading.
+            boolean acceptPreview = mType == MediaItem.TYPE_THUMBNAIL
+                    || mType == MediaItem.TYPE_MICROTHUMBNAIL;
+            int state = prepareInputFile(jc, acceptPreview);
             int targetSize = MediaItem.getTargetSize(mType);
+            if (state == STATE_DOWNLOADING) {
+                Bitmap preview;
+                synchronized (UriImage.this) {
+                    preview = mPreview;
+                    if (preview != null) mPreviewReturned = true;
+                }
+                if (preview != null) {
+                    // The preview is shared, don't let it be recycled.
+                    return resize(preview.copy(Config.ARGB_8888, false), targetSize);
+                }
+                // The download finished in the meantime.
+                state = prepareInputFile(jc, false);
+            }
+            if (state != STATE_DOWNLOADED) return null;
             Options options = new Options();
             options.inPreferredConfig = Config.ARGB_8888;
             Bitmap bitmap = DecodeUtils.decodeThumbnail(jc,
@@ -200,12 +348,16 @@ public class UriImage extends MediaItem {
                 return null;
             }
 
+            return resize(bitmap, targetSize);
+        }
+
+        private Bitmap resize(Bitmap bitmap, int targetSize) {
+            if (bitmap == null) return null;
             if (mType == MediaItem.TYPE_MICROTHUMBNAIL) {
-                bitmap = BitmapUtils.resizeAndCropCenter(bitmap, targetSize, true);
+                return BitmapUtils.resizeAndCropCenter(bitmap, targetSize, true);
             } else {
-                bitmap = BitmapUtils.resizeDownBySideLength(bitmap, targetSize, true);
+                return BitmapUtils.resizeDownBySideLength(bitmap, targetSize, true);
             }
-            return bitmap;
         }
     }
 
@@ -70,6 +70,7 @@ import com.android.gallery3d.R;
 import com.android.gallery3d.app.PhotoPage;
 import com.android.gallery3d.data.LocalAlbum;
 import com.android.gallery3d.filtershow.cache.ImageLoader;
+import com.android.gallery3d.filtershow.cache.PreviewCache;
 import com.android.gallery3d.filtershow.category.Action;
 import com.android.gallery3d.filtershow.category.CategoryAdapter;
 import com.android.gallery3d.filtershow.category.CategorySelected;
@@ -167,6 +168,7 @@ public class FilterShowActivity extends FragmentActivity implements OnItemClickL
 
     private Uri mOriginalImageUri = null;
     private ImagePreset mOriginalPreset = null;
+    private PreviewCache mPreviewCache = null;
 
     private Uri mSelectedImageUri = null;
 
@@ -781,6 +783,7 @@ public class FilterShowActivity extends FragmentActivity implements OnItemClickL
 
     private class LoadBitmapTask extends AsyncTask<Uri, Boolean, Boolean> {
         int mBitmapSize;
+        Bitmap mCachedPreview;
 
         public LoadBitmapTask() {
             mBitmapSize = getScreenImageSize();
@@ -791,6 +794,10 @@ public class FilterShowActivity extends FragmentActivity implements OnItemClickL
             if (!MasterImage.getImage().loadBitmap(params[0], mBitmapSize)) {
                 return false;
             }
+            ImagePreset preset = mOriginalPreset;
+            if (preset != null) {
+                mCachedPreview = loadCachedPreview(params[0], preset);
+            }
             publishProgress(ImageLoader.queryLightCycle360(MasterImage.getImage().getActivity()));
             return true;
         }
@@ -858,6 +865,9 @@ public class FilterShowActivity extends FragmentActivity implements OnItemClickL
                 MasterImage.getImage().setLoadedPreset(mOriginalPreset);
                 MasterImage.getImage().setPreset(mOriginalPreset,
                         mOriginalPreset.getLastRepresentation(), true);
+                if (mCachedPreview != null) {
+                    MasterImage.getImage().setCachedPreview(mCachedPreview, mOriginalPreset);
+                }
                 mOriginalPreset = null;
             } else {
                 setDefaultPreset();
@@ -876,6 +886,54 @@ public class FilterShowActivity extends FragmentActivity implements OnItemClickL
 
     }
 
+    private synchronized PreviewCache getPreviewCache() {
+        if (mPreviewCache == null) {
+            mPreviewCache = new PreviewCache(this);
+        }
+        return mPreviewCache;
+    }
+
+    // Called from a background thread.
+    private Bitmap loadCachedPreview(Uri uri, ImagePreset preset) {
+        PreviewCache cache = getPreviewCache();
+        Bitmap preview = cache.get(uri, preset, PreviewCache.TYPE_HIGHRES_PREVIEW);
+        if (preview == null) {
+            preview = cache.get(uri, preset, PreviewCache.TYPE_PREVIEW);
+        }
+        return preview;
+    }
+
+    // Keeps the previews of the preset being saved, so they can be shown
+    // right away when the saved image is edited again.
+    private void storePreviews() {
+        MasterImage master = MasterImage.getImage();
+        final Uri uri = master.getUri();
+        final ImagePreset preset = new ImagePreset(master.getPreset());
+        // The bitmaps are reused by the pipeline, store copies.
+        Bitmap bitmap = master.getFilteredImage();
+        final Bitmap preview = bitmap != null && preset.equals(master.getCurrentPreset())
+                ? bitmap.copy(Bitmap.Config.ARGB_8888, false) : null;
+        bitmap = master.getHighresImage();
+        final Bitmap highres = bitmap != null && preset.equals(master.getHighresPreset())
+                ? bitmap.copy(Bitmap.Config.ARGB_8888, false) : null;
+        if (preview == null && highres == null) {
+            return;
+        }
+        (new AsyncTask<Void, Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                PreviewCache cache = getPreviewCache();
+                if (preview != null) {
+                    cache.put(uri, preset, PreviewCache.TYPE_PREVIEW, preview);
+                }
+                if (highres != null) {
+                    cache.put(uri, preset, PreviewCache.TYPE_HIGHRES_PREVIEW, highres);
+                }
+                return null;
+            }
+        }).execute();
+    }
+
     private void clearGalleryBitmapPool() {
         (new AsyncTask<Void, Void, Void>() {
             @Override
@@ -1395,6 +1453,7 @@ public class FilterShowActivity extends FragmentActivity implements OnItemClickL
             int bucketId = GalleryUtils.getBucketId(saveDir.getPath());
             String albumName = LocalAlbum.getLocalizedName(getResources(), bucketId, null);
             showSavingProgress(albumName);
+            storePreviews();
             mImageShow.saveImage(this, null);
         } else {
             done();
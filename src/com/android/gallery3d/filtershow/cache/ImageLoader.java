@@ -35,9 +35,12 @@ import android.webkit.MimeTypeMap;
 
 import com.adobe.xmp.XMPException;
 import com.adobe.xmp.XMPMeta;
+import com.android.gallery3d.app.GalleryApp;
 import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.data.ExifIndex;
 import com.android.gallery3d.exif.ExifInterface;
 import com.android.gallery3d.exif.ExifTag;
+import com.android.gallery3d.exif.MappedExifReader;
 import com.android.gallery3d.filtershow.imageshow.MasterImage;
 import com.android.gallery3d.filtershow.pipeline.FilterEnvironment;
 import com.android.gallery3d.filtershow.tools.XmpPresets;
@@ -139,7 +142,12 @@ public final class ImageLoader {
                     return ORI_NORMAL;
                 }
                 String path = uri.getPath();
-                exif.readExif(path);
+                Context appContext = context.getApplicationContext();
+                if (appContext instanceof GalleryApp) {
+                    ExifIndex.Entry entry = ((GalleryApp) appContext).getExifIndex().get(path);
+                    return entry == null ? ORI_NORMAL : parseOrientation(entry.orientation);
+                }
+                return parseOrientation(MappedExifReader.open(path).getOrientation());
             } else {
                 is = context.getContentResolver().openInputStream(uri);
                 exif.readExif(is);
@@ -164,24 +172,27 @@ public final class ImageLoader {
     private static int parseExif(ExifInterface exif){
         Integer tagval = exif.getTagIntValue(ExifInterface.TAG_ORIENTATION);
         if (tagval != null) {
-            int orientation = tagval;
-            switch(orientation) {
-                case ORI_NORMAL:
-                case ORI_ROTATE_90:
-                case ORI_ROTATE_180:
-                case ORI_ROTATE_270:
-                case ORI_FLIP_HOR:
-                case ORI_FLIP_VERT:
-                case ORI_TRANSPOSE:
-                case ORI_TRANSVERSE:
-                    return orientation;
-                default:
-                    return ORI_NORMAL;
-            }
+            return parseOrientation(tagval);
         }
         return ORI_NORMAL;
     }
 
+    private static int parseOrientation(int orientation) {
+        switch(orientation) {
+            case ORI_NORMAL:
+            case ORI_ROTATE_90:
+            case ORI_ROTATE_180:
+            case ORI_ROTATE_270:
+            case ORI_FLIP_HOR:
+            case ORI_FLIP_VERT:
+            case ORI_TRANSPOSE:
+            case ORI_TRANSVERSE:
+                return orientation;
+            default:
+                return ORI_NORMAL;
+        }
+    }
+
     /**
      * Returns the rotation of image at the given URI as one of 0, 90, 180,
      * 270.  Defaults to 0.
@@ -297,6 +308,49 @@ public final class ImageLoader {
         return null;
     }
 
+    /**
+     * Returns the bitmap for the rectangular region given by "bounds",
+     * downsampled by sampleSize. The bounds must be a subset of the bitmap
+     * stored at uri, otherwise returns null.
+     */
+    public static Bitmap loadRegionBitmap(Context context, BitmapCache cache,
+                                          Uri uri, Rect bounds, int sampleSize) {
+        InputStream is = null;
+        try {
+            is = context.getContentResolver().openInputStream(uri);
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(is, false);
+            Rect r = new Rect(0, 0, decoder.getWidth(), decoder.getHeight());
+            if (!r.contains(bounds)) {
+                return null;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            options.inSampleSize = sampleSize;
+            Bitmap reuse = null;
+            if (sampleSize == 1) {
+                // The size of a downsampled region is up to the decoder
+                reuse = cache.getBitmap(bounds.width(), bounds.height(),
+                        BitmapCache.REGION);
+                options.inBitmap = reuse;
+            }
+            Bitmap bitmap = decoder.decodeRegion(bounds, options);
+            if (reuse != null && bitmap != reuse) {
+                cache.cache(reuse); // not reused, put back in cache
+            }
+            return bitmap;
+        } catch (FileNotFoundException e) {
+            Log.e(LOGTAG, "FileNotFoundException for " + uri, e);
+        } catch (IOException e) {
+            Log.e(LOGTAG, "IOException for " + uri, e);
+        } catch (IllegalArgumentException e) {
+            Log.e(LOGTAG, "exc, bounds: " + bounds.left + "," + bounds.top + " - "
+                    + bounds.width() + "x" + bounds.height() + " exc: " + e);
+        } finally {
+            Utils.closeSilently(is);
+        }
+        return null;
+    }
+
     /**
      * Returns the bounds of the bitmap stored at a given Url.
      */
@@ -420,19 +474,28 @@ public final class ImageLoader {
                                                    Rect destination) {
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inMutable = true;
+        int sampleSize = getRegionSampleSize(bounds, destination);
+        if (sampleSize > 1) {
+            options.inSampleSize = sampleSize;
+        }
+        return loadRegionBitmap(context, cache, uri, options, bounds);
+    }
+
+    /**
+     * Returns the sample size needed to show the given bounds of the image
+     * in the destination, 1 if the bounds are shown at full resolution.
+     */
+    public static int getRegionSampleSize(Rect bounds, Rect destination) {
+        int sampleSize = 1;
         if (destination != null) {
             int thresholdWidth = (int) (destination.width() * OVERDRAW_ZOOM);
-            if (bounds.width() > thresholdWidth) {
-                int sampleSize = 1;
-                int w = bounds.width();
-                while (w > thresholdWidth) {
-                    sampleSize *= 2;
-                    w /= sampleSize;
-                }
-                options.inSampleSize = sampleSize;
+            int w = bounds.width();
+            while (w > thresholdWidth) {
+                sampleSize *= 2;
+                w /= sampleSize;
             }
         }
-        return loadRegionBitmap(context, cache, uri, options, bounds);
+        return sampleSize;
     }
 
     /**
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.cache;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+
+import com.android.gallery3d.common.BitmapUtils;
+import com.android.gallery3d.common.BlobCache;
+import com.android.gallery3d.common.BlobCache.LookupRequest;
+import com.android.gallery3d.common.Utils;
+import com.android.gallery3d.filtershow.pipeline.ImagePreset;
+import com.android.gallery3d.util.CacheManager;
+import com.android.gallery3d.util.GalleryUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Disk cache of the previews rendered by the editor, so reopening an edited
+// photo shows its final result right away while the pipeline renders it
+// again. Previews are keyed by the source uri, its modification date and
+// the JSON of the preset; a changed image or preset never matches.
+public class PreviewCache {
+    private static final String LOGTAG = "PreviewCache";
+
+    private static final String PREVIEW_CACHE_FILE = "filtershow_previews";
+    private static final int PREVIEW_CACHE_MAX_ENTRIES = 64;
+    private static final int PREVIEW_CACHE_MAX_BYTES = 32 * 1024 * 1024;
+    private static final int PREVIEW_CACHE_VERSION = 1;
+
+    public static final int TYPE_PREVIEW = 0;
+    public static final int TYPE_HIGHRES_PREVIEW = 1;
+
+    private final Context mContext;
+    private final BlobCache mCache;
+
+    public PreviewCache(Context context) {
+        mContext = context.getApplicationContext();
+        mCache = CacheManager.getCache(mContext, PREVIEW_CACHE_FILE,
+                PREVIEW_CACHE_MAX_ENTRIES, PREVIEW_CACHE_MAX_BYTES,
+                PREVIEW_CACHE_VERSION);
+    }
+
+    // Returns the preview of the preset applied to the image, or null if it
+    // is not in the cache. Does disk io, don't call it on the UI thread.
+    public Bitmap get(Uri uri, ImagePreset preset, int type) {
+        byte[] key = makeKey(uri, preset, type);
+        if (key == null) {
+            return null;
+        }
+        try {
+            LookupRequest request = new LookupRequest();
+            request.key = Utils.crc64Long(key);
+            synchronized (mCache) {
+                if (!mCache.lookup(request)) return null;
+            }
+            if (!isSameKey(key, request.buffer)) {
+                return null;
+            }
+            return BitmapFactory.decodeByteArray(request.buffer, key.length,
+                    request.length - key.length);
+        } catch (IOException e) {
+            Log.w(LOGTAG, "could not read preview of " + uri, e);
+        }
+        return null;
+    }
+
+    // Stores the preview of the preset applied to the image. Does disk io,
+    // don't call it on the UI thread.
+    public void put(Uri uri, ImagePreset preset, int type, Bitmap preview) {
+        byte[] key = makeKey(uri, preset, type);
+        if (key == null) {
+            return;
+        }
+        byte[] value = BitmapUtils.compressToBytes(preview);
+        ByteBuffer buffer = ByteBuffer.allocate(key.length + value.length);
+        buffer.put(key);
+        buffer.put(value);
+        synchronized (mCache) {
+            try {
+                mCache.insert(Utils.crc64Long(key), buffer.array());
+            } catch (IOException e) {
+                Log.w(LOGTAG, "could not write preview of " + uri, e);
+            }
+        }
+    }
+
+    private byte[] makeKey(Uri uri, ImagePreset preset, int type) {
+        if (mCache == null || uri == null || preset == null) {
+            return null;
+        }
+        long dateModified = getDateModified(uri);
+        String json = preset.getJsonString(ImagePreset.JASON_SAVED);
+        if (dateModified == 0 || json == null) {
+            return null;
+        }
+        return GalleryUtils.getBytes(uri.toString() + "+" + dateModified
+                + "+" + Utils.crc64Long(json) + "+" + type);
+    }
+
+    private long getDateModified(Uri uri) {
+        String path = null;
+        if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
+            path = uri.getPath();
+        } else {
+            try {
+                path = ImageLoader.getLocalPathFromUri(mContext, uri);
+            } catch (Exception e) {
+                // Not a media store uri, we can't tell if it changed.
+            }
+        }
+        return path == null ? 0 : new File(path).lastModified();
+    }
+
+    private static boolean isSameKey(byte[] key, byte[] buffer) {
+        int n = key.length;
+        if (buffer.length < n) {
+            return false;
+        }
+        for (int i = 0; i < n; ++i) {
+            if (key[i] != buffer[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -29,6 +29,7 @@ public class FilterCurvesRepresentation extends FilterRepresentation {
         setEditorId(R.id.imageCurves);
         setShowParameterValue(false);
         setSupportsPartialRendering(true);
+        setIsPointOperation(true);
         reset();
     }
 
@@ -32,6 +32,7 @@ public class FilterRepresentation {
     private int mPriority = TYPE_NORMAL;
     private Class<?> mFilterClass;
     private boolean mSupportsPartialRendering = false;
+    private boolean mIsPointOperation = false;
     private int mTextId = 0;
     private int mEditorId = BasicEditor.ID;
     private int mButtonId = 0;
@@ -64,6 +65,7 @@ public class FilterRepresentation {
         representation.setFilterClass(getFilterClass());
         representation.setFilterType(getFilterType());
         representation.setSupportsPartialRendering(supportsPartialRendering());
+        representation.setIsPointOperation(isPointOperation());
         representation.setTextId(getTextId());
         representation.setEditorId(getEditorId());
         representation.setOverlayId(getOverlayId());
@@ -144,6 +146,17 @@ public class FilterRepresentation {
         mSupportsPartialRendering = value;
     }
 
+    // A point operation computes each output pixel from the input pixel at
+    // the same position only, so consecutive point operations can be fused
+    // into a single ColorCube pass.
+    public boolean isPointOperation() {
+        return mIsPointOperation;
+    }
+
+    public void setIsPointOperation(boolean value) {
+        mIsPointOperation = value;
+    }
+
     public void useParametersFrom(FilterRepresentation a) {
     }
 
@@ -275,6 +288,9 @@ public class FilterRepresentation {
             && representation.getFilterType() == FilterRepresentation.TYPE_GEOMETRY) {
             return true;
         }
+        if (isPointOperation() && representation.isPointOperation()) {
+            return true;
+        }
         return false;
     }
 }
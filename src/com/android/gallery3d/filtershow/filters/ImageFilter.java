@@ -27,6 +27,13 @@ import com.android.gallery3d.filtershow.imageshow.MasterImage;
 import com.android.gallery3d.filtershow.pipeline.FilterEnvironment;
 
 public abstract class ImageFilter implements Cloneable {
+    // How the output of a filter at a pixel depends on its input, used to
+    // render a region of the image: on the same pixel only, on the pixels
+    // within getFootprintRadius(), or on statistics of the whole image.
+    public static final int FOOTPRINT_POINT = 0;
+    public static final int FOOTPRINT_NEIGHBORHOOD = 1;
+    public static final int FOOTPRINT_GLOBAL = 2;
+
     private FilterEnvironment mEnvironment = null;
 
     protected String mName = "Original";
@@ -80,6 +87,22 @@ public abstract class ImageFilter implements Cloneable {
 
     public abstract void useRepresentation(FilterRepresentation representation);
 
+    public int getFootprint() {
+        return FOOTPRINT_POINT;
+    }
+
+    // Returns the radius of a FOOTPRINT_NEIGHBORHOOD filter, in pixels of the
+    // bitmap it is applied to.
+    public int getFootprintRadius() {
+        return 0;
+    }
+
+    // Applies a FOOTPRINT_GLOBAL filter to a region of the image, taking its
+    // statistics from a downsampled version of the whole image.
+    public Bitmap applyRegion(Bitmap bitmap, Bitmap statistics, float scaleFactor, int quality) {
+        return apply(bitmap, scaleFactor, quality);
+    }
+
     native protected void nativeApplyGradientFilter(Bitmap bitmap, int w, int h,
             int[] redGradient, int[] greenGradient, int[] blueGradient);
 
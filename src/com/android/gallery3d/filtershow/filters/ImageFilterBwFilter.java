@@ -39,6 +39,7 @@ public class ImageFilterBwFilter extends SimpleImageFilter {
         representation.setMinimum(-180);
         representation.setTextId(R.string.bwfilter);
         representation.setSupportsPartialRendering(true);
+        representation.setIsPointOperation(true);
         return representation;
     }
 
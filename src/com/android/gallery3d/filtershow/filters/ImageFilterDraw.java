@@ -35,6 +35,8 @@ import com.android.gallery3d.filtershow.filters.FilterDrawRepresentation.StrokeD
 import com.android.gallery3d.filtershow.imageshow.MasterImage;
 import com.android.gallery3d.filtershow.pipeline.FilterEnvironment;
 
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.Vector;
 
 public class ImageFilterDraw extends ImageFilter {
@@ -43,8 +45,10 @@ public class ImageFilterDraw extends ImageFilter {
     public final static byte BRUSH_STYLE_SPATTER = 1;
     public final static byte BRUSH_STYLE_MARKER = 2;
     public final static int NUMBER_OF_STYLES = 3;
-    Bitmap mOverlayBitmap; // this accelerates interaction
-    int mCachedStrokes = -1;
+    // The preview and the highres pipelines each render at their own size.
+    private static final int MAX_STROKE_LAYERS = 2;
+    // this accelerates interaction
+    private final LinkedList<StrokeLayer> mStrokeLayers = new LinkedList<StrokeLayer>();
     int mCurrentStyle = 0;
 
     FilterDrawRepresentation mParameters = new FilterDrawRepresentation();
@@ -137,6 +141,8 @@ public class ImageFilterDraw extends ImageFilter {
     class Brush implements DrawStyle {
         int mBrushID;
         Bitmap mBrush;
+        Bitmap mScaledBrush;
+        int mScaledBrushSize;
         byte mType;
 
         public Brush(int brushID) {
@@ -154,20 +160,37 @@ public class ImageFilterDraw extends ImageFilter {
             return mBrush;
         }
 
+        Bitmap getScaledBrush(int size) {
+            if (mScaledBrush == null || mScaledBrushSize != size) {
+                // done this way because of a bug in
+                // Bitmap.createScaledBitmap(getBrush(),(int) size,(int) size,true);
+                mScaledBrush = createScaledBitmap(getBrush(), size, size, true);
+                mScaledBrushSize = size;
+            }
+            return mScaledBrush;
+        }
+
         @Override
         public void paint(FilterDrawRepresentation.StrokeData sd, Canvas canvas,
                 Matrix toScrMatrix,
                 int quality) {
+            paint(sd, canvas, toScrMatrix, 0);
+        }
+
+        // Stamps the brush along the stroke from the given distance, and
+        // returns the distance where the next stamp goes.
+        float paint(FilterDrawRepresentation.StrokeData sd, Canvas canvas,
+                Matrix toScrMatrix, float from) {
             if (sd == null || sd.mPath == null) {
-                return;
+                return from;
             }
             Paint paint = new Paint();
             paint.setStyle(Style.STROKE);
             paint.setAntiAlias(true);
             Path mCacheTransPath = new Path();
             mCacheTransPath.addPath(sd.mPath, toScrMatrix);
-            draw(canvas, paint, sd.mColor, toScrMatrix.mapRadius(sd.mRadius) * 2,
-                    mCacheTransPath);
+            return draw(canvas, paint, sd.mColor, toScrMatrix.mapRadius(sd.mRadius) * 2,
+                    mCacheTransPath, from);
         }
 
         public Bitmap createScaledBitmap(Bitmap src, int dstWidth, int dstHeight, boolean filter)
@@ -184,7 +207,7 @@ public class ImageFilterDraw extends ImageFilter {
             return result;
 
         }
-        void draw(Canvas canvas, Paint paint, int color, float size, Path path) {
+        float draw(Canvas canvas, Paint paint, int color, float size, Path path, float from) {
             PathMeasure mPathMeasure = new PathMeasure();
             float[] mPosition = new float[2];
             float[] mTan = new float[2];
@@ -195,18 +218,17 @@ public class ImageFilterDraw extends ImageFilter {
             paint.setColor(color);
 
             paint.setColorFilter(new PorterDuffColorFilter(color, PorterDuff.Mode.MULTIPLY));
-            Bitmap brush;
-            // done this way because of a bug in
-            // Bitmap.createScaledBitmap(getBrush(),(int) size,(int) size,true);
-            brush = createScaledBitmap(getBrush(), (int) size, (int) size, true);
+            Bitmap brush = getScaledBrush((int) size);
             float len = mPathMeasure.getLength();
             float s2 = size / 2;
             float step = s2 / 8;
-            for (float i = 0; i < len; i += step) {
+            float i = from;
+            for (; i < len; i += step) {
                 mPathMeasure.getPosTan(i, mPosition, mTan);
                 //                canvas.drawCircle(pos[0], pos[1], size, paint);
                 canvas.drawBitmap(brush, mPosition[0] - s2, mPosition[1] - s2, paint);
             }
+            return i;
         }
 
         @Override
@@ -230,48 +252,146 @@ public class ImageFilterDraw extends ImageFilter {
         paint.setStrokeWidth(40);
 
         if (mParameters.getDrawing().isEmpty() && mParameters.getCurrentDrawing() == null) {
-            mOverlayBitmap = null;
-            mCachedStrokes = -1;
+            mStrokeLayers.clear();
             return;
         }
         if (quality == FilterEnvironment.QUALITY_FINAL) {
-
+            // Replay the strokes at full resolution rather than scaling a layer.
             for (FilterDrawRepresentation.StrokeData strokeData : mParameters.getDrawing()) {
                 paint(strokeData, canvas, originalRotateToScreen, quality);
             }
             return;
         }
 
-        if (mOverlayBitmap == null ||
-                mOverlayBitmap.getWidth() != canvas.getWidth() ||
-                mOverlayBitmap.getHeight() != canvas.getHeight() ||
-                mParameters.getDrawing().size() < mCachedStrokes) {
+        StrokeLayer layer = getStrokeLayer(canvas.getWidth(), canvas.getHeight(),
+                originalRotateToScreen);
+        layer.update(mParameters.getDrawing());
+        canvas.drawBitmap(layer.mBitmap, 0, 0, paint);
 
-            mOverlayBitmap = Bitmap.createBitmap(
-                    canvas.getWidth(), canvas.getHeight(), Bitmap.Config.ARGB_8888);
-            mCachedStrokes = 0;
+        StrokeData stroke = mParameters.getCurrentDrawing();
+        if (stroke != null) {
+            layer.drawCurrentStroke(stroke, canvas, paint);
         }
+    }
 
-        if (mCachedStrokes < mParameters.getDrawing().size()) {
-            fillBuffer(originalRotateToScreen);
+    private StrokeLayer getStrokeLayer(int width, int height, Matrix originalRotateToScreen) {
+        for (StrokeLayer layer : mStrokeLayers) {
+            if (layer.matches(width, height, originalRotateToScreen)) {
+                mStrokeLayers.remove(layer);
+                mStrokeLayers.addFirst(layer);
+                return layer;
+            }
+        }
+        StrokeLayer layer = new StrokeLayer(width, height, originalRotateToScreen);
+        mStrokeLayers.addFirst(layer);
+        if (mStrokeLayers.size() > MAX_STROKE_LAYERS) {
+            mStrokeLayers.removeLast();
         }
-        canvas.drawBitmap(mOverlayBitmap, 0, 0, paint);
+        return layer;
+    }
 
-        StrokeData stroke = mParameters.getCurrentDrawing();
-        if (stroke != null) {
-            paint(stroke, canvas, originalRotateToScreen, quality);
+    private static boolean sameStrokeStyle(StrokeData a, StrokeData b) {
+        return a.mType == b.mType && a.mColor == b.mColor && a.mRadius == b.mRadius;
+    }
+
+    private static boolean sameStroke(StrokeData a, StrokeData b) {
+        return a == b || (a.noPoints == b.noPoints && continuesStroke(a, a.noPoints, b));
+    }
+
+    // Returns true if b is the stroke a, continued with more points.
+    private static boolean continuesStroke(StrokeData a, int points, StrokeData b) {
+        if (!sameStrokeStyle(a, b) || b.noPoints < points) {
+            return false;
         }
+        for (int i = 0; i < points * 2; i++) {
+            if (a.mPoints[i] != b.mPoints[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    public void fillBuffer(Matrix originalRotateToScreen) {
-        Canvas drawCache = new Canvas(mOverlayBitmap);
-        Vector<FilterDrawRepresentation.StrokeData> v = mParameters.getDrawing();
-        int n = v.size();
+    // The strokes rasterized at one size and geometry of the image. A render
+    // only paints the strokes added since the previous one. The stroke being
+    // drawn gets its own layer when it stamps a brush, so only its new
+    // segments are stamped as points arrive.
+    private class StrokeLayer {
+        final int mWidth;
+        final int mHeight;
+        final Matrix mMatrix;
+        final Bitmap mBitmap;
+        final Vector<StrokeData> mStrokes = new Vector<StrokeData>();
+        Bitmap mCurrentBitmap;
+        StrokeData mCurrentStroke;
+        int mCurrentPoints;
+        float mCurrentLength;
+
+        StrokeLayer(int width, int height, Matrix matrix) {
+            mWidth = width;
+            mHeight = height;
+            mMatrix = new Matrix(matrix);
+            mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
 
-        for (int i = mCachedStrokes; i < n; i++) {
-            paint(v.get(i), drawCache, originalRotateToScreen, FilterEnvironment.QUALITY_PREVIEW);
+        boolean matches(int width, int height, Matrix matrix) {
+            return mWidth == width && mHeight == height && mMatrix.equals(matrix);
+        }
+
+        void update(Vector<StrokeData> drawing) {
+            int n = drawing.size();
+            boolean valid = mStrokes.size() <= n;
+            for (int i = 0; valid && i < mStrokes.size(); i++) {
+                valid = sameStroke(mStrokes.get(i), drawing.get(i));
+            }
+            if (!valid) {
+                mBitmap.eraseColor(Color.TRANSPARENT);
+                mStrokes.clear();
+            }
+            Canvas canvas = new Canvas(mBitmap);
+            for (int i = mStrokes.size(); i < n; i++) {
+                StrokeData stroke = drawing.get(i);
+                if (mCurrentStroke != null
+                        && continuesStroke(mCurrentStroke, mCurrentPoints, stroke)) {
+                    // The stroke being drawn was finished, keep what's stamped
+                    Brush brush = (Brush) mDrawingsTypes[stroke.mType];
+                    brush.paint(stroke, new Canvas(mCurrentBitmap), mMatrix, mCurrentLength);
+                    canvas.drawBitmap(mCurrentBitmap, 0, 0, null);
+                    clearCurrentStroke();
+                } else {
+                    paint(stroke, canvas, mMatrix, FilterEnvironment.QUALITY_PREVIEW);
+                }
+                mStrokes.add(stroke);
+            }
+        }
+
+        void drawCurrentStroke(StrokeData stroke, Canvas canvas, Paint paint) {
+            DrawStyle style = mDrawingsTypes[stroke.mType];
+            if (!(style instanceof Brush)) {
+                style.paint(stroke, canvas, mMatrix, FilterEnvironment.QUALITY_PREVIEW);
+                return;
+            }
+            if (mCurrentStroke == null
+                    || !continuesStroke(mCurrentStroke, mCurrentPoints, stroke)) {
+                clearCurrentStroke();
+            }
+            if (mCurrentBitmap == null) {
+                mCurrentBitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
+            }
+            mCurrentLength = ((Brush) style).paint(stroke, new Canvas(mCurrentBitmap),
+                    mMatrix, mCurrentLength);
+            mCurrentStroke = stroke;
+            mCurrentPoints = stroke.noPoints;
+            canvas.drawBitmap(mCurrentBitmap, 0, 0, paint);
+        }
+
+        private void clearCurrentStroke() {
+            if (mCurrentBitmap != null) {
+                mCurrentBitmap.eraseColor(Color.TRANSPARENT);
+            }
+            mCurrentStroke = null;
+            mCurrentPoints = 0;
+            mCurrentLength = 0;
         }
-        mCachedStrokes = n;
     }
 
     public void draw(Canvas canvas, Matrix originalRotateToScreen) {
@@ -282,6 +402,11 @@ public class ImageFilterDraw extends ImageFilter {
                 null, canvas, originalRotateToScreen, FilterEnvironment.QUALITY_PREVIEW);
     }
 
+    @Override
+    public void freeResources() {
+        mStrokeLayers.clear();
+    }
+
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
         int w = bitmap.getWidth();
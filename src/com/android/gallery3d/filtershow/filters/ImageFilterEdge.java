@@ -38,6 +38,16 @@ public class ImageFilterEdge extends SimpleImageFilter {
 
     native protected void nativeApplyFilter(Bitmap bitmap, int w, int h, float p);
 
+    @Override
+    public int getFootprint() {
+        return FOOTPRINT_NEIGHBORHOOD;
+    }
+
+    @Override
+    public int getFootprintRadius() {
+        return 1;
+    }
+
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
         if (getParameters() == null) {
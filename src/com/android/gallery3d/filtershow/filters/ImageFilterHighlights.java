@@ -42,6 +42,7 @@ public class ImageFilterHighlights extends SimpleImageFilter {
         representation.setMaximum(100);
         representation.setDefaultValue(0);
         representation.setSupportsPartialRendering(true);
+        representation.setIsPointOperation(true);
         return representation;
     }
 
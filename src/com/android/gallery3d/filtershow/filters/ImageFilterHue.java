@@ -41,6 +41,7 @@ public class ImageFilterHue extends SimpleImageFilter {
         representation.setTextId(R.string.hue);
         representation.setEditorId(BasicEditor.ID);
         representation.setSupportsPartialRendering(true);
+        representation.setIsPointOperation(true);
         return representation;
     }
 
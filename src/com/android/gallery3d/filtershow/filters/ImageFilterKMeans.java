@@ -55,24 +55,35 @@ public class ImageFilterKMeans extends SimpleImageFilter {
 
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
+        return applyRegion(bitmap, bitmap, scaleFactor, quality);
+    }
+
+    @Override
+    public int getFootprint() {
+        return FOOTPRINT_GLOBAL;
+    }
+
+    // The centroids are computed on downsampled versions of statistics.
+    @Override
+    public Bitmap applyRegion(Bitmap bitmap, Bitmap statistics, float scaleFactor, int quality) {
         if (getParameters() == null) {
             return bitmap;
         }
         int w = bitmap.getWidth();
         int h = bitmap.getHeight();
 
-        Bitmap large_bm_ds = bitmap;
-        Bitmap small_bm_ds = bitmap;
+        Bitmap large_bm_ds = statistics;
+        Bitmap small_bm_ds = statistics;
 
         // find width/height for larger downsampled bitmap
-        int lw = w;
-        int lh = h;
+        int lw = statistics.getWidth();
+        int lh = statistics.getHeight();
         while (lw > 256 && lh > 256) {
             lw /= 2;
             lh /= 2;
         }
-        if (lw != w) {
-            large_bm_ds = Bitmap.createScaledBitmap(bitmap, lw, lh, true);
+        if (lw != statistics.getWidth()) {
+            large_bm_ds = Bitmap.createScaledBitmap(statistics, lw, lh, true);
         }
 
         // find width/height for smaller downsampled bitmap
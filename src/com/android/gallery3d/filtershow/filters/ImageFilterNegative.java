@@ -19,6 +19,7 @@ public class ImageFilterNegative extends ImageFilter {
         representation.setShowParameterValue(false);
         representation.setEditorId(ImageOnlyEditor.ID);
         representation.setSupportsPartialRendering(true);
+        representation.setIsPointOperation(true);
         representation.setIsBooleanFilter(true);
         return representation;
     }
@@ -68,6 +68,16 @@ public class ImageFilterSharpen extends ImageFilterRS {
         }
     }
 
+    @Override
+    public int getFootprint() {
+        return FOOTPRINT_NEIGHBORHOOD;
+    }
+
+    @Override
+    public int getFootprintRadius() {
+        return 1;
+    }
+
     private void computeKernel() {
         float scaleFactor = getEnvironment().getScaleFactor();
         float p1 = mParameters.getValue() * scaleFactor;
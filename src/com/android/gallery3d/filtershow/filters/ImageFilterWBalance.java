@@ -49,6 +49,9 @@ public class ImageFilterWBalance extends ImageFilter {
 
     native protected void nativeApplyFilter(Bitmap bitmap, int w, int h, int locX, int locY);
 
+    native protected void nativeApplyFilterWithStatistics(Bitmap bitmap, int w, int h,
+            Bitmap statistics, int sw, int sh);
+
     @Override
     public Bitmap apply(Bitmap bitmap, float scaleFactor, int quality) {
         int w = bitmap.getWidth();
@@ -57,4 +60,16 @@ public class ImageFilterWBalance extends ImageFilter {
         return bitmap;
     }
 
+    @Override
+    public int getFootprint() {
+        return FOOTPRINT_GLOBAL;
+    }
+
+    @Override
+    public Bitmap applyRegion(Bitmap bitmap, Bitmap statistics, float scaleFactor, int quality) {
+        nativeApplyFilterWithStatistics(bitmap, bitmap.getWidth(), bitmap.getHeight(),
+                statistics, statistics.getWidth(), statistics.getHeight());
+        return bitmap;
+    }
+
 }
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.filters;
+
+import java.util.Arrays;
+
+/**
+ * Java versions of the native filter kernels in jni/filters, working on
+ * pixels as returned by Bitmap.getPixels() (0xAARRGGBB). They follow the
+ * native math step by step so their output can be compared with the native
+ * one, and only depend on the JVM, so they can be timed off the device.
+ * The alpha channel is left untouched, as in the native filters.
+ */
+public final class PixelKernels {
+
+    private PixelKernels() {
+    }
+
+    private static int clamp(int c) {
+        return Math.max(0, Math.min(255, c));
+    }
+
+    private static int red(int pixel) {
+        return (pixel >> 16) & 0xFF;
+    }
+
+    private static int green(int pixel) {
+        return (pixel >> 8) & 0xFF;
+    }
+
+    private static int blue(int pixel) {
+        return pixel & 0xFF;
+    }
+
+    private static int rgb(int pixel, int r, int g, int b) {
+        return (pixel & 0xFF000000) | (r << 16) | (g << 8) | b;
+    }
+
+    // negative.c
+    public static void negative(int[] pixels, int width, int height) {
+        int len = width * height;
+        for (int i = 0; i < len; i++) {
+            pixels[i] ^= 0x00FFFFFF;
+        }
+    }
+
+    // contrast.c
+    public static void contrast(int[] pixels, int width, int height, float bright) {
+        float m = (float) Math.pow(2, bright / 100.);
+        float c = 127 - m * 127;
+        int len = width * height;
+        for (int i = 0; i < len; i++) {
+            int p = pixels[i];
+            pixels[i] = rgb(p, clamp((int) (m * red(p) + c)),
+                    clamp((int) (m * green(p) + c)),
+                    clamp((int) (m * blue(p) + c)));
+        }
+    }
+
+    // exposure.c
+    public static void exposure(int[] pixels, int width, int height, float bright) {
+        int m = (int) (255 - bright);
+        int len = width * height;
+        for (int i = 0; i < len; i++) {
+            int p = pixels[i];
+            pixels[i] = rgb(p, clamp((255 * red(p)) / m),
+                    clamp((255 * green(p)) / m),
+                    clamp((255 * blue(p)) / m));
+        }
+    }
+
+    // bwfilter.c
+    public static void bwFilter(int[] pixels, int width, int height, int rw, int gw, int bw) {
+        float sr = rw;
+        float sg = gw;
+        float sb = bw;
+        float min = Math.min(sr, Math.min(sg, sb));
+        float max = Math.max(sr, Math.max(sg, sb));
+        float avg = (min + max) / 2;
+        sr /= avg;
+        sg /= avg;
+        sb /= avg;
+        int len = width * height;
+        for (int i = 0; i < len; i++) {
+            int p = pixels[i];
+            float r = sr * red(p);
+            float g = sg * green(p);
+            float b = sb * blue(p);
+            min = Math.min(r, Math.min(g, b));
+            max = Math.max(r, Math.max(g, b));
+            int v = (int) Math.max(0, Math.min(255, (min + max) / 2));
+            pixels[i] = rgb(p, v, v, v);
+        }
+    }
+
+    // redeye.c and redEyeMath.c. The rectangle is clipped to the image
+    // before the masks are sized, the native code clips it after.
+    public static void redEye(int[] pixels, int width, int height, short[] rect) {
+        int recX = Math.max(rect[0], 0);
+        int recY = Math.max(rect[1], 0);
+        int recW = Math.min(rect[2] + rect[0], width) - recX;
+        int recH = Math.min(rect[3] + rect[1], height) - recY;
+        if (recW <= 0 || recH <= 0) {
+            return;
+        }
+        byte[] mask1 = new byte[recW * recH];
+        byte[] mask2 = new byte[recW * recH];
+
+        for (int y = 0; y < recH; y++) {
+            int sy = (recY + y) * width;
+            for (int x = 0; x < recW; x++) {
+                mask2[x + y * recW] = (byte) (isRed(pixels[recX + x + sy]) ? 1 : 0);
+            }
+        }
+        dilateMask(mask2, mask1, recW, recH);
+        dilateMask(mask1, mask2, recW, recH);
+        dilateMask(mask2, mask1, recW, recH);
+        dilateMask(mask1, mask2, recW, recH);
+        for (int y = 0; y < recH; y++) {
+            int sy = (recY + y) * width;
+            for (int x = 0; x < recW; x++) {
+                int p = pixels[recX + x + sy];
+                int value = Math.max(red(p), Math.max(green(p), blue(p)));
+                mask2[x + y * recW] = (byte) (mask2[x + y * recW] > 0 && value > 240 ? 1 : 0);
+            }
+        }
+        dilateMask(mask2, mask1, recW, recH);
+        for (int i = 0; i < 12; i++) {
+            dilateMaskIfRed(pixels, width, mask1, mask2, recX, recY, recW, recH);
+            dilateMaskIfRed(pixels, width, mask2, mask1, recX, recY, recW, recH);
+        }
+        dilateMask(mask1, mask2, recW, recH);
+        dilateMask(mask2, mask1, recW, recH);
+
+        for (int y = 3; y < recH - 3; y++) {
+            int sy = (recY + y) * width;
+            for (int x = 3; x < recW - 3; x++) {
+                int i = recX + x + sy;
+                int p = pixels[i];
+                int r = red(p);
+                int g = green(p);
+                int b = blue(p);
+                if (mask1[x + y * recW] != 0) {
+                    int m = Math.max(g, b);
+                    float rr = (r - m) / (float) m;
+                    if (rr > .7f && g < 60 && b < 60) {
+                        pixels[i] = rgb(p, 0, 0, 0);
+                    } else if (mask2[x + y * recW] != 0) {
+                        pixels[i] = rgb(p, r / 2, g / 2, b / 2);
+                    } else {
+                        pixels[i] = rgb(p, (2 * r) / 3, (2 * g) / 3, (2 * b) / 3);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isRed(int pixel) {
+        int max = Math.max(green(pixel), blue(pixel));
+        return red(pixel) * 100 / (max + 2) > 160 && max < 80;
+    }
+
+    private static void dilateMask(byte[] mask, byte[] out, int mw, int mh) {
+        for (int y = 1; y < mh - 1; y++) {
+            int row = mw * y;
+            for (int x = 1; x < mw - 1; x++) {
+                out[row + x] = (byte) (mask[row + x] | mask[row + x + 1]
+                        | mask[row + x - 1] | mask[row + x - mw]
+                        | mask[row + x + mw]);
+            }
+        }
+    }
+
+    private static void dilateMaskIfRed(int[] pixels, int width, byte[] mask, byte[] out,
+            int recX, int recY, int recW, int recH) {
+        for (int y = 1; y < recH - 1; y++) {
+            int row = recW * y;
+            int sy = (recY + y) * width;
+            for (int x = 1; x < recW - 1; x++) {
+                int b = mask[row + x] | mask[row + x + 1] | mask[row + x - 1]
+                        | mask[row + x - recW] | mask[row + x + recW];
+                if (b != 0 && isRed(pixels[recX + x + sy])) {
+                    out[row + x] = 1;
+                } else {
+                    out[row + x] = mask[row + x];
+                }
+            }
+        }
+    }
+
+    // kmeans.cc and kmeans.h. The native filter draws the initial picks from
+    // the small bitmap with rand(), whose sequence depends on the C library,
+    // so the picks are given here: k centers as r, g, b triplets. With the
+    // picks of the native run the output is the same.
+    public static void kMeans(int[] pixels, int width, int height,
+            int[] large, int lwidth, int lheight, int[] small, int swidth, int sheight,
+            int k, int[] picks) {
+        int[] finalCentroids = new int[k * 3];
+        runKMeansWithPicks(k, finalCentroids, small, swidth * sheight, 20, picks.clone());
+        int[] nextCentroids = new int[k * 3];
+        runKMeansWithPicks(k, nextCentroids, large, lwidth * lheight, 8, finalCentroids);
+
+        int len = width * height;
+        for (int i = 0; i < len; i++) {
+            int best = findClosest(pixels[i], nextCentroids, k);
+            pixels[i] = rgb(pixels[i], nextCentroids[best], nextCentroids[best + 1],
+                    nextCentroids[best + 2]);
+        }
+    }
+
+    // Returns the centers for kMeans() taken from the given pixels, as
+    // initialPickHeuristicRandom() does with the indices it draws.
+    public static int[] getPicks(int[] values, int[] indices) {
+        int[] picks = new int[indices.length * 3];
+        for (int x = 0; x < indices.length; x++) {
+            int pixel = values[indices[x]];
+            picks[x * 3] = red(pixel);
+            picks[x * 3 + 1] = green(pixel);
+            picks[x * 3 + 2] = blue(pixel);
+        }
+        return picks;
+    }
+
+    // As in the native code, the picks are used as a work buffer, and only
+    // the first center is copied from the last buffer written at the end.
+    private static void runKMeansWithPicks(int k, int[] finalCentroids, int[] values, int len,
+            int iterations, int[] initialPicks) {
+        Arrays.fill(finalCentroids, 0);
+        int[] c1 = initialPicks;
+        int[] c2 = finalCentroids;
+        for (int x = 0; x < iterations; x++) {
+            boolean changed = calculateNewCentroids(k, values, len, c1, c2);
+            int[] temp = c1;
+            c1 = c2;
+            c2 = temp;
+            if (!changed) {
+                break;
+            }
+        }
+        System.arraycopy(c1, 0, finalCentroids, 0, 3);
+    }
+
+    private static boolean calculateNewCentroids(int k, int[] values, int len,
+            int[] oldCenters, int[] dst) {
+        int[] popularities = new int[k];
+        int[] sums = new int[k * 3];
+        for (int x = 0; x < len; x++) {
+            int p = values[x];
+            int best = findClosest(p, oldCenters, k);
+            sums[best] += red(p);
+            sums[best + 1] += green(p);
+            sums[best + 2] += blue(p);
+            popularities[best / 3]++;
+        }
+        boolean changed = false;
+        for (int x = 0; x < k * 3; x++) {
+            int popularity = popularities[x / 3];
+            int center = popularity == 0 ? sums[x] : sums[x] / popularity;
+            if (dst[x] != center) {
+                changed = true;
+            }
+            dst[x] = center;
+        }
+        return changed;
+    }
+
+    // Returns the offset of the closest center. Distances are truncated to
+    // ints as in the native code, the first of equal centers wins.
+    private static int findClosest(int pixel, int[] centers, int k) {
+        int r = red(pixel);
+        int g = green(pixel);
+        int b = blue(pixel);
+        int best = 0;
+        int bestDistance = distance(r, g, b, centers, 0);
+        for (int y = 3; y < k * 3; y += 3) {
+            int d = distance(r, g, b, centers, y);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = y;
+            }
+        }
+        return best;
+    }
+
+    private static int distance(int r, int g, int b, int[] centers, int offset) {
+        int dr = r - centers[offset];
+        int dg = g - centers[offset + 1];
+        int db = b - centers[offset + 2];
+        return (int) Math.sqrt(dr * dr + dg * dg + db * db);
+    }
+}
@@ -21,12 +21,27 @@ import android.util.Log;
 import com.android.gallery3d.filtershow.filters.FilterRepresentation;
 import com.android.gallery3d.filtershow.pipeline.ImagePreset;
 
+import java.util.Vector;
+
 public class HistoryItem {
     private static final String LOGTAG = "HistoryItem";
+    // Number of steps between two items keeping a full copy of their preset.
+    static final int SNAPSHOT_INTERVAL = 8;
+
     private ImagePreset mImagePreset;
     private FilterRepresentation mFilterRepresentation;
     private Bitmap mPreviewImage;
 
+    // Once frozen, an item either keeps a snapshot of its preset, or the
+    // representations that changed since the previous item: for each filter,
+    // the position of the same filter in the previous preset, or -1 and a
+    // copy of the representation if it was added or modified.
+    private ImagePreset mSnapshot;
+    private HistoryItem mPrevious;
+    private int[] mPreviousPositions;
+    private FilterRepresentation[] mChangedRepresentations;
+    private int mStepsFromSnapshot;
+
     public HistoryItem(ImagePreset preset, FilterRepresentation representation) {
         mImagePreset = preset; // just keep a pointer to the current preset
         if (representation != null) {
@@ -34,8 +49,25 @@ public class HistoryItem {
         }
     }
 
+    // Returns the preset of this step. Don't modify it, make a copy instead.
     public ImagePreset getImagePreset() {
-        return mImagePreset;
+        if (mImagePreset != null) {
+            return mImagePreset;
+        }
+        if (mSnapshot != null) {
+            return mSnapshot;
+        }
+        Vector<FilterRepresentation> previousFilters = mPrevious.getImagePreset().getFilters();
+        ImagePreset preset = new ImagePreset();
+        Vector<FilterRepresentation> filters = preset.getFilters();
+        for (int i = 0; i < mPreviousPositions.length; i++) {
+            if (mPreviousPositions[i] < 0) {
+                filters.add(mChangedRepresentations[i]);
+            } else {
+                filters.add(previousFilters.elementAt(mPreviousPositions[i]));
+            }
+        }
+        return preset;
     }
 
     public FilterRepresentation getFilterRepresentation() {
@@ -50,4 +82,51 @@ public class HistoryItem {
         mPreviewImage = previewImage;
     }
 
+    public boolean isSnapshot() {
+        return mSnapshot != null;
+    }
+
+    // Called once a newer step is added: the current preset stops being
+    // edited in place, so only keep what changed since the previous step.
+    void freeze(HistoryItem previous) {
+        ImagePreset preset = mImagePreset;
+        if (preset == null) {
+            return;
+        }
+        mImagePreset = null;
+        if (previous == null || previous.mStepsFromSnapshot + 1 >= SNAPSHOT_INTERVAL) {
+            mSnapshot = new ImagePreset(preset);
+            mStepsFromSnapshot = 0;
+            return;
+        }
+        Vector<FilterRepresentation> filters = preset.getFilters();
+        ImagePreset previousPreset = previous.getImagePreset();
+        Vector<FilterRepresentation> previousFilters = previousPreset.getFilters();
+        int n = filters.size();
+        mPrevious = previous;
+        mStepsFromSnapshot = previous.mStepsFromSnapshot + 1;
+        mPreviousPositions = new int[n];
+        mChangedRepresentations = new FilterRepresentation[n];
+        int changed = 0;
+        for (int i = 0; i < n; i++) {
+            FilterRepresentation representation = filters.elementAt(i);
+            int position = previousPreset.getPositionForRepresentation(representation);
+            if (position >= 0) {
+                FilterRepresentation previousRepresentation = previousFilters.elementAt(position);
+                if (!previousRepresentation.same(representation)
+                        || !previousRepresentation.equals(representation)) {
+                    position = -1;
+                }
+            }
+            mPreviousPositions[i] = position;
+            if (position < 0) {
+                mChangedRepresentations[i] = representation.copy();
+                changed++;
+            }
+        }
+        if (HistoryManager.DEBUG) {
+            Log.v(LOGTAG, "froze step with " + changed + " of " + n + " filters changed, "
+                    + mStepsFromSnapshot + " steps from snapshot");
+        }
+    }
 }
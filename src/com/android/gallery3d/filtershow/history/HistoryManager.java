@@ -16,6 +16,7 @@
 
 package com.android.gallery3d.filtershow.history;
 
+import android.graphics.Bitmap;
 import android.graphics.drawable.Drawable;
 import android.view.MenuItem;
 
@@ -23,6 +24,9 @@ import java.util.Vector;
 
 public class HistoryManager {
     private static final String LOGTAG = "HistoryManager";
+    static final boolean DEBUG = false;
+    // Memory kept for the rendered previews of the snapshot steps.
+    private static final int MAX_PREVIEWS_SIZE = 8 * 1024 * 1024;
 
     private Vector<HistoryItem> mHistoryItems = new Vector<HistoryItem>();
     private int mCurrentPresetPosition = 0;
@@ -52,6 +56,29 @@ public class HistoryManager {
         mHistoryItems.clear();
     }
 
+    // Keeps the rendered preview of a snapshot step, so jumping back to it
+    // can show it while its preset is rendered again. The previews of the
+    // oldest steps are dropped past the memory budget.
+    public void setRenderedPreview(HistoryItem item, Bitmap preview) {
+        if (!item.isSnapshot() || preview == null
+                || preview.getByteCount() > MAX_PREVIEWS_SIZE) {
+            return;
+        }
+        item.setPreviewImage(preview);
+        int size = 0;
+        for (int i = 0; i < getCount(); i++) {
+            HistoryItem historyItem = getItem(i);
+            Bitmap bitmap = historyItem.getPreviewImage();
+            if (bitmap == null) {
+                continue;
+            }
+            size += bitmap.getByteCount();
+            if (size > MAX_PREVIEWS_SIZE) {
+                historyItem.setPreviewImage(null);
+            }
+        }
+    }
+
     private void add(HistoryItem item) {
         mHistoryItems.add(item);
     }
@@ -145,6 +172,10 @@ public class HistoryManager {
             mCurrentPresetPosition = position;
             notifyDataSetChanged();
         }
+        HistoryItem last = getItem(position);
+        if (last != null) {
+            last.freeze(getItem(position + 1));
+        }
         mHistoryItems.insertElementAt(preset, position);
         mCurrentPresetPosition = position;
         notifyDataSetChanged();
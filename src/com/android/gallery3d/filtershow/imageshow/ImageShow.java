@@ -261,13 +261,15 @@ public class ImageShow extends View implements OnGestureListener,
                 getHeight() - 2*mShadowMargin);
 
         MasterImage img = MasterImage.getImage();
+        Bitmap cachedPreview = img.getCachedPreview();
         // Hide the loading indicator as needed
-        if (mActivity.isLoadingVisible() && getFilteredImage() != null) {
+        if (mActivity.isLoadingVisible()
+                && (getFilteredImage() != null || cachedPreview != null)) {
             if ((img.getLoadedPreset() == null)
-                    || (img.getLoadedPreset() != null
+                    || (getFilteredImage() != null
                     && img.getLoadedPreset().equals(img.getCurrentPreset()))) {
                 mActivity.stopLoadingIndicator();
-            } else if (img.getLoadedPreset() != null) {
+            } else if (img.getLoadedPreset() != null && cachedPreview == null) {
                 return;
             }
             mActivity.stopLoadingIndicator();
@@ -282,7 +284,10 @@ public class ImageShow extends View implements OnGestureListener,
 
         boolean isDoingNewLookAnimation = MasterImage.getImage().onGoingNewLookAnimation();
 
-        if (highresPreview == null || isDoingNewLookAnimation) {
+        if (cachedPreview != null && !isDoingNewLookAnimation) {
+            // The pipeline is still rendering the loaded preset.
+            drawImageAndAnimate(canvas, cachedPreview);
+        } else if (highresPreview == null || isDoingNewLookAnimation) {
             drawImageAndAnimate(canvas, getFilteredImage());
         } else {
             drawImageAndAnimate(canvas, highresPreview);
@@ -327,6 +332,9 @@ public class ImageShow extends View implements OnGestureListener,
             rBounds.set(MasterImage.getImage().getPartialBounds());
             if (fullHighres != null) {
                 originalToScreen.preTranslate(rBounds.left, rBounds.top);
+                // The partial bitmap may be downsampled
+                originalToScreen.preScale(rBounds.width() / (float) fullHighres.getWidth(),
+                        rBounds.height() / (float) fullHighres.getHeight());
                 canvas.clipRect(mImageBounds);
                 canvas.drawBitmap(fullHighres, originalToScreen, mPaint);
             }
@@ -82,6 +82,11 @@ public class MasterImage implements RenderingRequestCaller {
     private Bitmap mFiltersOnlyBitmap = null;
     private Bitmap mPartialBitmap = null;
     private Bitmap mHighresBitmap = null;
+    private ImagePreset mHighresPreset = null;
+    // The preview of the loaded preset saved by a previous session, shown
+    // until the pipeline has rendered the preset again.
+    private Bitmap mCachedPreview = null;
+    private ImagePreset mCachedPreviewPreset = null;
     private Bitmap mPreviousImage = null;
     private int mShadowMargin = 15; // not scaled, fixed in the asset
     private Rect mPartialBounds = new Rect();
@@ -260,8 +265,12 @@ public class MasterImage implements RenderingRequestCaller {
         mPreset = preset;
         mPreset.fillImageStateAdapter(mState);
         if (addToHistory) {
+            HistoryItem previousItem = mHistory.getCurrent();
             HistoryItem historyItem = new HistoryItem(mPreset, change);
             mHistory.addHistoryItem(historyItem);
+            if (previousItem != null && previousItem.isSnapshot()) {
+                keepRenderedPreview(previousItem);
+            }
         }
         updatePresets(true);
         resetGeometryImages(false);
@@ -272,11 +281,26 @@ public class MasterImage implements RenderingRequestCaller {
         HistoryItem historyItem = mHistory.getItem(position);
         // We need a copy from the history
         ImagePreset newPreset = new ImagePreset(historyItem.getImagePreset());
+        // Show the preview rendered for this step until it's rendered again
+        Bitmap preview = historyItem.getPreviewImage();
+        if (preview != null) {
+            setCachedPreview(preview, newPreset);
+        }
         // don't need to add it to the history
         setPreset(newPreset, historyItem.getFilterRepresentation(), false);
         mHistory.setCurrentPreset(position);
     }
 
+    private void keepRenderedPreview(HistoryItem item) {
+        Buffer consumer = mPreviewBuffer.getConsumer();
+        if (consumer == null || consumer.getBitmap() == null
+                || !item.getImagePreset().equals(consumer.getPreset())) {
+            return;
+        }
+        mHistory.setRenderedPreview(item,
+                consumer.getBitmap().copy(Bitmap.Config.ARGB_8888, false));
+    }
+
     public HistoryManager getHistory() {
         return mHistory;
     }
@@ -361,6 +385,31 @@ public class MasterImage implements RenderingRequestCaller {
         return mHighresBitmap;
     }
 
+    // Returns the preset the highres preview was rendered with.
+    public ImagePreset getHighresPreset() {
+        return mHighresPreset;
+    }
+
+    public synchronized void setCachedPreview(Bitmap preview, ImagePreset preset) {
+        mCachedPreview = preview;
+        mCachedPreviewPreset = preset;
+    }
+
+    // Returns the cached preview, or null once the pipeline has rendered the
+    // preset or the preset was changed.
+    public synchronized Bitmap getCachedPreview() {
+        if (mCachedPreview == null) {
+            return null;
+        }
+        Buffer consumer = mPreviewBuffer.getConsumer();
+        if ((consumer != null && mCachedPreviewPreset.equals(consumer.getPreset()))
+                || mPreset == null || !mCachedPreviewPreset.equals(mPreset)) {
+            mCachedPreview = null;
+            mCachedPreviewPreset = null;
+        }
+        return mCachedPreview;
+    }
+
     public Bitmap getPreviousImage() {
         return mPreviousImage;
     }
@@ -535,6 +584,7 @@ public class MasterImage implements RenderingRequestCaller {
         if (mHighresBitmap != null) {
             mBitmapCache.cache(mHighresBitmap);
             mHighresBitmap = null;
+            mHighresPreset = null;
             notifyObservers();
         }
     }
@@ -712,6 +762,7 @@ public class MasterImage implements RenderingRequestCaller {
         if (request.getType() == RenderingRequest.HIGHRES_RENDERING) {
             mBitmapCache.cache(mHighresBitmap);
             mHighresBitmap = request.getBitmap();
+            mHighresPreset = request.getImagePreset();
             notifyObservers();
             needsCheckModification = true;
         }
@@ -17,6 +17,7 @@
 package com.android.gallery3d.filtershow.pipeline;
 
 import android.graphics.Bitmap;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.gallery3d.filtershow.cache.BitmapCache;
@@ -24,17 +25,104 @@ import com.android.gallery3d.filtershow.filters.FilterRepresentation;
 import com.android.gallery3d.filtershow.imageshow.GeometryMathUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.Vector;
 
+// CacheProcessing keeps the intermediate results of the preview rendering.
+// The filters are grouped into CacheSteps, and the result of every prefix of
+// the steps is cached, keyed by the steps of that prefix. Rendering starts
+// from the longest cached prefix, so changing a filter in the middle of the
+// history, or going back and forth in it, only renders what changed.
+//
+// The cache has a memory budget. When it is exceeded, the entries which are
+// cheap to render again and haven't been used for a while are evicted first
+// (GreedyDual-Size: an entry's priority is the time it took to render per
+// megabyte, plus an inflation value raised to the priority of each evicted
+// entry, so entries that are not used again eventually go away).
 public class CacheProcessing {
     private static final String LOGTAG = "CacheProcessing";
     private static final boolean DEBUG = false;
     private static final boolean NO_CACHING = false;
-    private Vector<CacheStep> mSteps = new Vector<CacheStep>();
+
+    private static final int MEGABYTE = 1024 * 1024;
+    private static final long MAX_BUDGET = 32 * MEGABYTE;
+    // At least two preview sized bitmaps, so the last steps can be cached.
+    private static final long MIN_BUDGET = 8 * MEGABYTE;
+
+    private final HashMap<PrefixKey, CacheEntry> mEntries = new HashMap<PrefixKey, CacheEntry>();
+    // The bitmaps of mEntries, checked by BitmapCache from any thread.
+    private final Set<Bitmap> mCachedBitmaps =
+            Collections.synchronizedSet(Collections.newSetFromMap(
+                    new IdentityHashMap<Bitmap, Boolean>()));
+    private final long mBudget;
+    private long mCachedBytes;
+    private double mInflation;
+
+    // The entries are only valid for this source image and scale factor.
+    private Bitmap mOriginalBitmap;
+    private float mScaleFactor;
+
+    // Hits and misses by step name.
+    private final HashMap<String, int[]> mStatistics = new HashMap<String, int[]>();
+
+    // Identifies a prefix of the steps by its last step and the key of the
+    // steps before it.
+    static class PrefixKey {
+        final PrefixKey parent;
+        final CacheStep step;
+        private final int mHashCode;
+
+        PrefixKey(PrefixKey parent, CacheStep step) {
+            this.parent = parent;
+            this.step = step;
+            int hashCode = parent == null ? 0 : parent.mHashCode;
+            for (FilterRepresentation representation : step.representations) {
+                String name = representation.getSerializationName();
+                hashCode = hashCode * 31 + (name == null ? 0 : name.hashCode());
+            }
+            mHashCode = hashCode * 31 + step.representations.size();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PrefixKey)) {
+                return false;
+            }
+            PrefixKey a = this;
+            PrefixKey b = (PrefixKey) o;
+            while (a != null && b != null) {
+                if (a == b) {
+                    return true;
+                }
+                if (a.mHashCode != b.mHashCode || !a.step.equals(b.step)) {
+                    return false;
+                }
+                a = a.parent;
+                b = b.parent;
+            }
+            return a == b;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    static class CacheEntry {
+        Bitmap bitmap;
+        long bytes;
+        // Time it took to render this entry from its parent, in ms.
+        long cost;
+        double priority;
+    }
 
     static class CacheStep {
         ArrayList<FilterRepresentation> representations;
-        Bitmap cache;
 
         public CacheStep() {
             representations = new ArrayList<FilterRepresentation>();
@@ -110,7 +198,21 @@ public class CacheProcessing {
                 }
                 cacheBitmap = GeometryMathUtils.applyGeometryRepresentations(geometry, cacheBitmap);
             } else {
-                for (FilterRepresentation representation : representations) {
+                int size = representations.size();
+                for (int i = 0; i < size; i++) {
+                    FilterRepresentation representation = representations.get(i);
+                    int end = environment.getPointOperationsEnd(representations, i, size);
+                    if (end > i) {
+                        if (DEBUG) {
+                            Log.v(LOGTAG, "Apply " + (end - i) + " fused filters from "
+                                    + representation.getSerializationName()
+                                    + " to bitmap " + cacheBitmap);
+                        }
+                        cacheBitmap = environment.applyPointOperations(
+                                representations.subList(i, end), cacheBitmap);
+                        i = end - 1;
+                        continue;
+                    }
                     if (DEBUG) {
                         Log.v(LOGTAG, "Apply " + representation.getSerializationName()
                                 + " to bitmap " + cacheBitmap);
@@ -128,9 +230,14 @@ public class CacheProcessing {
         }
     }
 
-    public Bitmap process(Bitmap originalBitmap,
-                          Vector<FilterRepresentation> filters,
-                          FilterEnvironment environment) {
+    public CacheProcessing() {
+        mBudget = Math.max(MIN_BUDGET,
+                Math.min(MAX_BUDGET, Runtime.getRuntime().maxMemory() / 16));
+    }
+
+    public synchronized Bitmap process(Bitmap originalBitmap,
+                                       Vector<FilterRepresentation> filters,
+                                       FilterEnvironment environment) {
 
         if (filters.size() == 0) {
             return environment.getBitmapCopy(originalBitmap, BitmapCache.PREVIEW_CACHE_NO_FILTERS);
@@ -142,58 +249,12 @@ public class CacheProcessing {
             displayFilters(filters);
         }
         Vector<CacheStep> steps = CacheStep.buildSteps(filters);
-        // New set of filters, let's clear the cache and rebuild it.
-        if (steps.size() != mSteps.size()) {
-            mSteps = steps;
-        }
-
-        if (DEBUG) {
-            displaySteps(mSteps);
-        }
-
-        // First, let's find how similar we are in our cache
-        // compared to the current list of filters
-        int similarUpToIndex = -1;
-        boolean similar = true;
-        for (int i = 0; i < steps.size(); i++) {
-            CacheStep newStep = steps.elementAt(i);
-            CacheStep cacheStep = mSteps.elementAt(i);
-            if (similar) {
-                similar = newStep.equals(cacheStep);
-            }
-            if (similar) {
-                similarUpToIndex = i;
-            } else {
-                mSteps.remove(i);
-                mSteps.insertElementAt(newStep, i);
-                environment.cache(cacheStep.cache);
-            }
-        }
-        if (DEBUG) {
-            Log.v(LOGTAG, "similar up to index " + similarUpToIndex);
-        }
-
-        // Now, let's get the earliest cached result in our pipeline
-        Bitmap cacheBitmap = null;
-        int findBaseImageIndex = similarUpToIndex;
-        if (findBaseImageIndex > -1) {
-            while (findBaseImageIndex > 0
-                    && mSteps.elementAt(findBaseImageIndex).cache == null) {
-                findBaseImageIndex--;
-            }
-            cacheBitmap = mSteps.elementAt(findBaseImageIndex).cache;
-        }
-
-        if (DEBUG) {
-            Log.v(LOGTAG, "found baseImageIndex: " + findBaseImageIndex + " max is "
-                    + mSteps.size() + " cacheBitmap: " + cacheBitmap);
-        }
 
         if (NO_CACHING) {
-            cacheBitmap = environment.getBitmapCopy(originalBitmap,
+            Bitmap cacheBitmap = environment.getBitmapCopy(originalBitmap,
                     BitmapCache.PREVIEW_CACHE_NO_ROOT);
-            for (int i = 0; i < mSteps.size(); i++) {
-                CacheStep step = mSteps.elementAt(i);
+            for (int i = 0; i < steps.size(); i++) {
+                CacheStep step = steps.elementAt(i);
                 Bitmap prev = cacheBitmap;
                 cacheBitmap = step.apply(environment, cacheBitmap);
                 if (prev != cacheBitmap) {
@@ -203,71 +264,151 @@ public class CacheProcessing {
             return cacheBitmap;
         }
 
-        Bitmap originalCopy = null;
-        int lastPositionCached = -1;
-        for (int i = findBaseImageIndex; i < mSteps.size(); i++) {
-            if (i == -1 || cacheBitmap == null) {
-                cacheBitmap = environment.getBitmapCopy(originalBitmap,
-                        BitmapCache.PREVIEW_CACHE_NO_ROOT);
-                originalCopy = cacheBitmap;
-                if (DEBUG) {
-                    Log.v(LOGTAG, "i: " + i + " cacheBitmap: " + cacheBitmap + " w: "
-                            + cacheBitmap.getWidth() + " h: " + cacheBitmap.getHeight()
-                            + " got from original Bitmap: " + originalBitmap + " w: "
-                            + originalBitmap.getWidth() + " h: " + originalBitmap.getHeight());
-                }
-                if (i == -1) {
-                    continue;
-                }
+        if (originalBitmap != mOriginalBitmap
+                || environment.getScaleFactor() != mScaleFactor) {
+            clear(environment);
+            mOriginalBitmap = originalBitmap;
+            mScaleFactor = environment.getScaleFactor();
+        }
+
+        // Find the longest prefix of the steps we have a result for
+        PrefixKey[] keys = new PrefixKey[steps.size()];
+        PrefixKey key = null;
+        for (int i = 0; i < steps.size(); i++) {
+            key = new PrefixKey(key, steps.elementAt(i));
+            keys[i] = key;
+        }
+        int baseIndex = steps.size() - 1;
+        CacheEntry base = null;
+        while (baseIndex >= 0) {
+            base = mEntries.get(keys[baseIndex]);
+            if (base != null) {
+                break;
             }
-            CacheStep step = mSteps.elementAt(i);
-            if (step.cache == null) {
-                if (DEBUG) {
-                    Log.v(LOGTAG, "i: " + i + " get new copy for cacheBitmap "
-                            + cacheBitmap + " apply...");
-                }
-                cacheBitmap = environment.getBitmapCopy(cacheBitmap, BitmapCache.PREVIEW_CACHE);
-                cacheBitmap = step.apply(environment, cacheBitmap);
-                step.cache = cacheBitmap;
-                lastPositionCached = i;
+            baseIndex--;
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            addStatistics(steps.elementAt(i), i <= baseIndex);
+        }
+        if (DEBUG) {
+            Log.v(LOGTAG, "found cached result for " + (baseIndex + 1) + " / "
+                    + steps.size() + " steps");
+        }
+
+        Bitmap cacheBitmap = originalBitmap;
+        if (base != null) {
+            touch(base);
+            cacheBitmap = base.bitmap;
+        }
+        for (int i = baseIndex + 1; i < steps.size(); i++) {
+            if (environment.needsStop()) {
+                // The result is not wanted anymore, skip the remaining steps.
+                break;
+            }
+            CacheStep step = steps.elementAt(i);
+            long start = SystemClock.uptimeMillis();
+            Bitmap bitmap = environment.getBitmapCopy(cacheBitmap, BitmapCache.PREVIEW_CACHE);
+            bitmap = step.apply(environment, bitmap);
+            if (environment.needsStop()) {
+                // The filters may have bailed out early, never keep an
+                // incomplete step in the cache.
+                return bitmap;
             }
+            if (DEBUG) {
+                Log.v(LOGTAG, "step " + i + " " + step.getName() + " rendered in "
+                        + (SystemClock.uptimeMillis() - start) + "ms");
+            }
+            put(keys[i], bitmap, SystemClock.uptimeMillis() - start, environment);
+            cacheBitmap = bitmap;
         }
-        environment.cache(originalCopy);
 
         if (DEBUG) {
-            Log.v(LOGTAG, "now let's cleanup the cache...");
             displayNbBitmapsInCache();
         }
+        // The caller owns the returned bitmap.
+        return environment.getBitmapCopy(cacheBitmap, BitmapCache.PREVIEW_CACHE_NO_APPLY);
+    }
 
-        // Let's see if we can cleanup the cache for unused bitmaps
-        for (int i = 0; i < similarUpToIndex; i++) {
-            CacheStep currentStep = mSteps.elementAt(i);
-            Bitmap bitmap = currentStep.cache;
-            currentStep.cache = null;
-            environment.cache(bitmap);
+    public boolean contains(Bitmap bitmap) {
+        return mCachedBitmaps.contains(bitmap);
+    }
+
+    // Drops all the cached results.
+    public synchronized void clear(FilterEnvironment environment) {
+        for (CacheEntry entry : mEntries.values()) {
+            mCachedBitmaps.remove(entry.bitmap);
+            environment.cache(entry.bitmap);
         }
+        mEntries.clear();
+        mCachedBytes = 0;
+        mInflation = 0;
+        mOriginalBitmap = null;
+    }
 
-        if (DEBUG) {
-            Log.v(LOGTAG, "cleanup done...");
-            displayNbBitmapsInCache();
+    // Returns the cache hit rate of each kind of step.
+    public synchronized String getStatistics() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%d results cached, %d / %d KB",
+                mEntries.size(), mCachedBytes / 1024, mBudget / 1024));
+        for (String name : mStatistics.keySet()) {
+            int[] counts = mStatistics.get(name);
+            builder.append(String.format("\n%s: %d hits, %d misses (%d%%)", name,
+                    counts[0], counts[1], 100 * counts[0] / (counts[0] + counts[1])));
         }
-        if (lastPositionCached != -1) {
-            // The last element will never be reused, remove it from the cache.
-            mSteps.elementAt(lastPositionCached).cache = null;
+        return builder.toString();
+    }
+
+    private synchronized void addStatistics(CacheStep step, boolean hit) {
+        String name = step.getName();
+        int[] counts = mStatistics.get(name);
+        if (counts == null) {
+            counts = new int[2];
+            mStatistics.put(name, counts);
         }
-        if (contains(cacheBitmap)) {
-            return environment.getBitmapCopy(cacheBitmap, BitmapCache.PREVIEW_CACHE_NO_APPLY);
+        counts[hit ? 0 : 1]++;
+    }
+
+    private void touch(CacheEntry entry) {
+        entry.priority = mInflation + (double) entry.cost * MEGABYTE / entry.bytes;
+    }
+
+    private void put(PrefixKey key, Bitmap bitmap, long cost, FilterEnvironment environment) {
+        CacheEntry entry = new CacheEntry();
+        entry.bitmap = bitmap;
+        entry.bytes = bitmap.getByteCount();
+        entry.cost = Math.max(1, cost);
+        touch(entry);
+        while (mCachedBytes + entry.bytes > mBudget && evictOne(environment)) {
+            // keep evicting
         }
-        return cacheBitmap;
+        mEntries.put(key, entry);
+        mCachedBitmaps.add(bitmap);
+        mCachedBytes += entry.bytes;
     }
 
-    public boolean contains(Bitmap bitmap) {
-        for (int i = 0; i < mSteps.size(); i++) {
-            if (mSteps.elementAt(i).cache == bitmap) {
-                return true;
+    // Evicts the entry with the lowest priority, returns false if the cache
+    // is empty.
+    private boolean evictOne(FilterEnvironment environment) {
+        Iterator<CacheEntry> iterator = mEntries.values().iterator();
+        CacheEntry victim = null;
+        while (iterator.hasNext()) {
+            CacheEntry entry = iterator.next();
+            if (victim == null || entry.priority < victim.priority) {
+                victim = entry;
             }
         }
-        return false;
+        if (victim == null) {
+            return false;
+        }
+        mEntries.values().remove(victim);
+        mInflation = victim.priority;
+        mCachedBytes -= victim.bytes;
+        mCachedBitmaps.remove(victim.bitmap);
+        environment.cache(victim.bitmap);
+        if (DEBUG) {
+            Log.v(LOGTAG, "evicted a result which took " + victim.cost + "ms");
+        }
+        return true;
     }
 
     private void displayFilters(Vector<FilterRepresentation> filters) {
@@ -279,28 +420,9 @@ public class CacheProcessing {
         Log.v(LOGTAG, "<<<------");
     }
 
-    private void displaySteps(Vector<CacheStep> filters) {
-        Log.v(LOGTAG, "------>>>");
-        for (int i = 0; i < filters.size(); i++) {
-            CacheStep newStep = filters.elementAt(i);
-            CacheStep step = mSteps.elementAt(i);
-            boolean similar = step.equals(newStep);
-            Log.v(LOGTAG, "[" + i + "] - " + step.getName()
-                    + " similar rep ? " + (similar ? "YES" : "NO")
-                    + " -- bitmap: " + step.cache);
-        }
-        Log.v(LOGTAG, "<<<------");
-    }
-
     private void displayNbBitmapsInCache() {
-        int nbBitmapsCached = 0;
-        for (int i = 0; i < mSteps.size(); i++) {
-            CacheStep step = mSteps.elementAt(i);
-            if (step.cache != null) {
-                nbBitmapsCached++;
-            }
-        }
-        Log.v(LOGTAG, "nb bitmaps in cache: " + nbBitmapsCached + " / " + mSteps.size());
+        Log.v(LOGTAG, "nb bitmaps in cache: " + mEntries.size() + ", "
+                + mCachedBytes / 1024 + " / " + mBudget / 1024 + " KB");
     }
 
 }
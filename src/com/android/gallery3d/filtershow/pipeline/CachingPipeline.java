@@ -20,6 +20,7 @@ import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
@@ -36,6 +37,9 @@ import com.android.gallery3d.filtershow.filters.FiltersManager;
 import com.android.gallery3d.filtershow.imageshow.GeometryMathUtils;
 import com.android.gallery3d.filtershow.imageshow.MasterImage;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Vector;
 
 public class CachingPipeline implements PipelineInterface {
@@ -52,6 +56,7 @@ public class CachingPipeline implements PipelineInterface {
 
     private FilterEnvironment mEnvironment = new FilterEnvironment();
     private CacheProcessing mCachedProcessing = new CacheProcessing();
+    private IconCache mIconCache = new IconCache();
 
 
     private volatile Allocation mOriginalAllocation = null;
@@ -114,6 +119,8 @@ public class CachingPipeline implements PipelineInterface {
             }
             mPreviewScaleFactor = 1.0f;
             mHighResPreviewScaleFactor = 1.0f;
+            mIconCache.clear();
+            mCachedProcessing.clear(mEnvironment);
 
             destroyPixelAllocations();
         }
@@ -173,6 +180,7 @@ public class CachingPipeline implements PipelineInterface {
         mEnvironment.setQuality(FilterEnvironment.QUALITY_PREVIEW);
         mEnvironment.setImagePreset(preset);
         mEnvironment.setStop(false);
+        mEnvironment.setRenderingRequest(null);
     }
 
     public void setOriginal(Bitmap bitmap) {
@@ -223,6 +231,7 @@ public class CachingPipeline implements PipelineInterface {
             }
             ImagePreset preset = request.getImagePreset();
             setupEnvironment(preset, false);
+            mEnvironment.setRenderingRequest(request);
             Bitmap bitmap = MasterImage.getImage().getOriginalBitmapHighres();
             if (bitmap == null) {
                 return;
@@ -248,6 +257,7 @@ public class CachingPipeline implements PipelineInterface {
             }
             ImagePreset preset = request.getImagePreset();
             setupEnvironment(preset, false);
+            mEnvironment.setRenderingRequest(request);
             Bitmap bitmap = MasterImage.getImage().getOriginalBitmapHighres();
             if (bitmap == null) {
                 return;
@@ -270,6 +280,7 @@ public class CachingPipeline implements PipelineInterface {
             }
             ImagePreset preset = request.getImagePreset();
             setupEnvironment(preset, false);
+            mEnvironment.setRenderingRequest(request);
             Bitmap bitmap = MasterImage.getImage().getOriginalBitmapHighres();
             if (bitmap == null) {
                 return;
@@ -305,18 +316,12 @@ public class CachingPipeline implements PipelineInterface {
             Bitmap bitmap = request.getBitmap();
             ImagePreset preset = request.getImagePreset();
             setupEnvironment(preset, true);
+            mEnvironment.setRenderingRequest(request);
             mFiltersManager.freeFilterResources(preset);
 
             if (request.getType() == RenderingRequest.PARTIAL_RENDERING) {
-                MasterImage master = MasterImage.getImage();
-                bitmap = ImageLoader.getScaleOneImageForPreset(master.getActivity(),
-                        mEnvironment.getBimapCache(),
-                        master.getUri(), request.getBounds(),
-                        request.getDestination());
-                if (bitmap == null) {
-                    Log.w(LOGTAG, "could not get bitmap for: " + getType(request));
-                    return;
-                }
+                renderRegion(request, preset);
+                return;
             }
 
             if (request.getType() == RenderingRequest.FULL_RENDERING
@@ -351,37 +356,182 @@ public class CachingPipeline implements PipelineInterface {
                 }
 
                 if (request.getType() == RenderingRequest.ICON_RENDERING) {
-                    Rect iconBounds = request.getIconBounds();
-                    Bitmap source = MasterImage.getImage().getThumbnailBitmap();
-                    if (iconBounds.width() > source.getWidth() * 2) {
-                        source = MasterImage.getImage().getLargeThumbnailBitmap();
-                    }
-                    if (iconBounds != null) {
-                        bitmap = mEnvironment.getBitmap(iconBounds.width(),
-                                iconBounds.height(), BitmapCache.ICON);
-                        Canvas canvas = new Canvas(bitmap);
-                        Matrix m = new Matrix();
-                        float minSize = Math.min(source.getWidth(), source.getHeight());
-                        float maxSize = Math.max(iconBounds.width(), iconBounds.height());
-                        float scale = maxSize / minSize;
-                        m.setScale(scale, scale);
-                        float dx = (iconBounds.width() - (source.getWidth() * scale))/2.0f;
-                        float dy = (iconBounds.height() - (source.getHeight() * scale))/2.0f;
-                        m.postTranslate(dx, dy);
-                        canvas.drawBitmap(source, m, new Paint(Paint.FILTER_BITMAP_FLAG));
-                    } else {
-                        bitmap = mEnvironment.getBitmapCopy(source, BitmapCache.ICON);
-                    }
+                    bitmap = createIconBase(request.getIconBounds());
                 }
                 Bitmap bmp = preset.apply(bitmap, mEnvironment);
                 if (!mEnvironment.needsStop()) {
                     request.setBitmap(bmp);
+                } else if (bmp != request.getBitmap()) {
+                    // The bitmap of the request is released by its task.
+                    mEnvironment.cache(bmp);
                 }
                 mFiltersManager.freeFilterResources(preset);
             }
         }
     }
 
+    // Renders the bounds of the request at the resolution they are shown at.
+    // Only the bounds, plus the margin needed by the neighborhood filters,
+    // are decoded and filtered. Filters that need statistics of the whole
+    // image take them from the large preview bitmap, so the region matches
+    // the preview.
+    private void renderRegion(RenderingRequest request, ImagePreset preset) {
+        MasterImage master = MasterImage.getImage();
+        Rect imageBounds = master.getOriginalBounds();
+        Rect visible = new Rect(request.getBounds());
+        if (!visible.intersect(imageBounds)) {
+            return;
+        }
+        // The footprints of the filters are in decoded pixels, while the
+        // region is decoded in image pixels.
+        int sampleSize = ImageLoader.getRegionSampleSize(visible, request.getDestination());
+        int halo = preset.getRegionHalo(mEnvironment) * sampleSize;
+        Rect region = new Rect(visible);
+        region.inset(-halo, -halo);
+        region.intersect(imageBounds);
+        // Keeps the visible bounds on a decoded pixel
+        region.left = visible.left - (visible.left - region.left) / sampleSize * sampleSize;
+        region.top = visible.top - (visible.top - region.top) / sampleSize * sampleSize;
+
+        Bitmap bitmap = ImageLoader.loadRegionBitmap(master.getActivity(),
+                mEnvironment.getBimapCache(), master.getUri(), region, sampleSize);
+        if (bitmap == null) {
+            Log.w(LOGTAG, "could not get bitmap for: " + getType(request));
+            return;
+        }
+        Bitmap statistics = null;
+        if (preset.needsRegionStatistics(mEnvironment)) {
+            statistics = mEnvironment.getBitmapCopy(master.getOriginalBitmapLarge(),
+                    BitmapCache.REGION);
+        }
+        mEnvironment.setQuality(FilterEnvironment.QUALITY_PREVIEW);
+        bitmap = preset.applyRegion(bitmap, statistics, mEnvironment);
+
+        int x = (visible.left - region.left) / sampleSize;
+        int y = (visible.top - region.top) / sampleSize;
+        int w = Math.min((visible.width() + sampleSize - 1) / sampleSize,
+                bitmap.getWidth() - x);
+        int h = Math.min((visible.height() + sampleSize - 1) / sampleSize,
+                bitmap.getHeight() - y);
+        if (!mEnvironment.needsStop()
+                && (x != 0 || y != 0 || w != bitmap.getWidth() || h != bitmap.getHeight())) {
+            // Drop the margin
+            Bitmap cropped = mEnvironment.getBitmap(w, h, BitmapCache.REGION);
+            cropped.eraseColor(Color.TRANSPARENT);
+            new Canvas(cropped).drawBitmap(bitmap, -x, -y, null);
+            mEnvironment.cache(bitmap);
+            bitmap = cropped;
+        }
+        if (!mEnvironment.needsStop()) {
+            // The bitmap covers the visible bounds, which are shown scaled to
+            // their size.
+            request.setBounds(visible);
+            request.setBitmap(bitmap);
+        } else {
+            mEnvironment.cache(bitmap);
+        }
+        mFiltersManager.freeFilterResources(preset);
+    }
+
+    private Bitmap createIconBase(Rect iconBounds) {
+        Bitmap source = MasterImage.getImage().getThumbnailBitmap();
+        if (iconBounds == null) {
+            return mEnvironment.getBitmapCopy(source, BitmapCache.ICON);
+        }
+        if (iconBounds.width() > source.getWidth() * 2) {
+            source = MasterImage.getImage().getLargeThumbnailBitmap();
+        }
+        Bitmap bitmap = mEnvironment.getBitmap(iconBounds.width(),
+                iconBounds.height(), BitmapCache.ICON);
+        Canvas canvas = new Canvas(bitmap);
+        Matrix m = new Matrix();
+        float minSize = Math.min(source.getWidth(), source.getHeight());
+        float maxSize = Math.max(iconBounds.width(), iconBounds.height());
+        float scale = maxSize / minSize;
+        m.setScale(scale, scale);
+        float dx = (iconBounds.width() - (source.getWidth() * scale))/2.0f;
+        float dy = (iconBounds.height() - (source.getHeight() * scale))/2.0f;
+        m.postTranslate(dx, dy);
+        canvas.drawBitmap(source, m, new Paint(Paint.FILTER_BITMAP_FLAG));
+        return bitmap;
+    }
+
+    // Renders a batch of icon requests. Icons of the same size share the
+    // scaled thumbnail and the filters common to all their presets, which
+    // are only applied once; each icon then applies its remaining filters
+    // to a copy. Icons rendered before come from mIconCache.
+    public void renderIcons(List<RenderingRequest> requests) {
+        synchronized (CachingPipeline.class) {
+            if (getRenderScriptContext() == null) {
+                return;
+            }
+            mIconCache.setSource(MasterImage.getImage().getThumbnailBitmap());
+
+            LinkedHashMap<Rect, ArrayList<RenderingRequest>> sizes =
+                    new LinkedHashMap<Rect, ArrayList<RenderingRequest>>();
+            for (RenderingRequest request : requests) {
+                if (request.isCancelled() || request.getImagePreset() == null) {
+                    continue;
+                }
+                Rect bounds = request.getIconBounds();
+                Bitmap icon = mIconCache.get(new IconCache.Key(bounds, request.getImagePreset()));
+                if (icon != null) {
+                    request.setBitmap(mEnvironment.getBitmapCopy(icon, BitmapCache.ICON));
+                    continue;
+                }
+                ArrayList<RenderingRequest> list = sizes.get(bounds);
+                if (list == null) {
+                    list = new ArrayList<RenderingRequest>();
+                    sizes.put(bounds, list);
+                }
+                list.add(request);
+            }
+
+            for (Rect bounds : sizes.keySet()) {
+                ArrayList<RenderingRequest> list = sizes.get(bounds);
+                ImagePreset first = list.get(0).getImagePreset();
+                int shared = first.nbFilters();
+                for (int i = 1; i < list.size(); i++) {
+                    shared = Math.min(shared, list.get(i).getImagePreset().similarUpTo(first));
+                }
+                if (list.size() == 1) {
+                    shared = 0;
+                }
+                if (DEBUG) {
+                    Log.v(LOGTAG, "render " + list.size() + " icons of " + bounds
+                            + ", sharing " + shared + " filters");
+                }
+
+                setupEnvironment(first, true);
+                mEnvironment.setQuality(FilterEnvironment.QUALITY_ICON);
+                Bitmap base = createIconBase(bounds);
+                if (shared > 0) {
+                    base = first.applyFilters(base, 0, shared, mEnvironment);
+                }
+                for (RenderingRequest request : list) {
+                    ImagePreset preset = request.getImagePreset();
+                    setupEnvironment(preset, true);
+                    mEnvironment.setRenderingRequest(request);
+                    mEnvironment.setQuality(FilterEnvironment.QUALITY_ICON);
+                    if (mEnvironment.needsStop()) {
+                        continue;
+                    }
+                    Bitmap bitmap = mEnvironment.getBitmapCopy(base, BitmapCache.ICON);
+                    bitmap = preset.applyFilters(bitmap, shared, -1, mEnvironment);
+                    bitmap = preset.applyBorder(bitmap, mEnvironment);
+                    if (!mEnvironment.needsStop()) {
+                        mIconCache.put(new IconCache.Key(bounds, preset), bitmap);
+                        request.setBitmap(bitmap);
+                    } else {
+                        mEnvironment.cache(bitmap);
+                    }
+                    mFiltersManager.freeFilterResources(preset);
+                }
+                mEnvironment.cache(base);
+            }
+        }
+    }
+
     public synchronized void renderImage(ImagePreset preset, Allocation in, Allocation out) {
         synchronized (CachingPipeline.class) {
             if (getRenderScriptContext() == null) {
@@ -428,6 +578,10 @@ public class CachingPipeline implements PipelineInterface {
         mEnvironment.cache(result);
     }
 
+    public String getCacheStatistics() {
+        return mCachedProcessing.getStatistics();
+    }
+
     public boolean needsRepaint() {
         SharedBuffer buffer = MasterImage.getImage().getPreviewBuffer();
         return buffer.checkRepaintNeeded();
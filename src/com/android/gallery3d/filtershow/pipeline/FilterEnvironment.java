@@ -22,13 +22,16 @@ import android.renderscript.Allocation;
 
 import com.android.gallery3d.app.Log;
 import com.android.gallery3d.filtershow.cache.BitmapCache;
+import com.android.gallery3d.filtershow.filters.ColorCube;
 import com.android.gallery3d.filtershow.filters.FilterRepresentation;
 import com.android.gallery3d.filtershow.filters.FilterUserPresetRepresentation;
 import com.android.gallery3d.filtershow.filters.FiltersManagerInterface;
 import com.android.gallery3d.filtershow.filters.ImageFilter;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 public class FilterEnvironment {
     private static final String LOGTAG = "FilterEnvironment";
@@ -38,14 +41,27 @@ public class FilterEnvironment {
     private FiltersManagerInterface mFiltersManager;
     private PipelineInterface mPipeline;
     private volatile boolean mStop = false;
+    // The request being rendered, rendering stops when it gets cancelled.
+    private volatile RenderingRequest mRenderingRequest;
     private BitmapCache mBitmapCache;
 
+    // Fusing a single filter would only add the cost of building the cube.
+    private static final int MIN_FUSED_FILTERS = 2;
+    // The last compiled cube, reused as long as the fused filters don't change
+    private ArrayList<FilterRepresentation> mColorCubeRepresentations;
+    private ColorCube mColorCube;
+
     public static final int QUALITY_ICON = 0;
     public static final int QUALITY_PREVIEW = 1;
     public static final int QUALITY_FINAL = 2;
 
     public synchronized boolean needsStop() {
-        return mStop;
+        RenderingRequest request = mRenderingRequest;
+        return mStop || (request != null && request.isCancelled());
+    }
+
+    public void setRenderingRequest(RenderingRequest request) {
+        mRenderingRequest = request;
     }
 
     public synchronized void setStop(boolean stop) {
@@ -141,6 +157,83 @@ public class FilterEnvironment {
         return ret;
     }
 
+    // Returns the ImageFilter.FOOTPRINT_* of the filter of the representation.
+    public int getFootprint(FilterRepresentation representation) {
+        ImageFilter filter = mFiltersManager.getFilterForRepresentation(representation);
+        return filter == null ? ImageFilter.FOOTPRINT_POINT : filter.getFootprint();
+    }
+
+    public int getFootprintRadius(FilterRepresentation representation) {
+        ImageFilter filter = mFiltersManager.getFilterForRepresentation(representation);
+        if (filter == null || filter.getFootprint() != ImageFilter.FOOTPRINT_NEIGHBORHOOD) {
+            return 0;
+        }
+        filter.useRepresentation(representation);
+        return filter.getFootprintRadius();
+    }
+
+    // Applies a FOOTPRINT_GLOBAL filter to a region of the image, see
+    // ImageFilter.applyRegion().
+    public Bitmap applyRepresentationToRegion(FilterRepresentation representation,
+            Bitmap bitmap, Bitmap statistics) {
+        ImageFilter filter = mFiltersManager.getFilterForRepresentation(representation);
+        filter.useRepresentation(representation);
+        filter.setEnvironment(this);
+        Bitmap ret = filter.applyRegion(bitmap, statistics, mScaleFactor, mQuality);
+        if (bitmap != ret) {
+            cache(bitmap);
+        }
+        filter.setGeneralParameters();
+        filter.setEnvironment(null);
+        return ret;
+    }
+
+    // Returns the end of the run of point operations in representations
+    // starting at start (and ending before end), or start if the run is too
+    // short to be fused.
+    public int getPointOperationsEnd(List<FilterRepresentation> representations,
+                                     int start, int end) {
+        int i = start;
+        while (i < end && representations.get(i).isPointOperation()) {
+            i++;
+        }
+        return i - start >= MIN_FUSED_FILTERS ? i : start;
+    }
+
+    // Applies a run of point operations to the bitmap in a single pass.
+    public Bitmap applyPointOperations(List<FilterRepresentation> representations,
+                                       Bitmap bitmap) {
+        getColorCube(representations).apply(bitmap);
+        return bitmap;
+    }
+
+    private ColorCube getColorCube(List<FilterRepresentation> representations) {
+        if (mColorCube != null
+                && mColorCubeRepresentations.size() == representations.size()) {
+            boolean same = true;
+            for (int i = 0; i < representations.size(); i++) {
+                if (!mColorCubeRepresentations.get(i).equals(representations.get(i))) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) {
+                return mColorCube;
+            }
+        }
+        int size = ColorCube.DEFAULT_SIZE;
+        Bitmap grid = ColorCube.createGridBitmap(size);
+        ArrayList<FilterRepresentation> copies = new ArrayList<FilterRepresentation>();
+        for (FilterRepresentation representation : representations) {
+            grid = applyRepresentation(representation, grid);
+            copies.add(representation.copy());
+        }
+        mColorCube = new ColorCube(grid, size);
+        mColorCubeRepresentations = copies;
+        grid.recycle();
+        return mColorCube;
+    }
+
     public PipelineInterface getPipeline() {
         return mPipeline;
     }
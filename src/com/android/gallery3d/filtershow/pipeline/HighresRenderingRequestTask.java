@@ -17,6 +17,7 @@
 package com.android.gallery3d.filtershow.pipeline;
 
 import android.graphics.Bitmap;
+import android.util.Pair;
 import com.android.gallery3d.filtershow.filters.FiltersManager;
 
 public class HighresRenderingRequestTask extends ProcessingTask {
@@ -71,11 +72,38 @@ public class HighresRenderingRequestTask extends ProcessingTask {
         RenderingRequest request = ((Render) message).request;
         RenderResult result = null;
         mHighresPreviewPipeline.renderHighres(request);
+        if (request.isCancelled()) {
+            // Superseded while rendering, the bitmap is incomplete.
+            request.releaseBitmap();
+            return null;
+        }
         result = new RenderResult();
         result.request = request;
         return result;
     }
 
+    // A newer request from the same caller for the same kind of rendering
+    // replaces the pending one.
+    @Override
+    protected Object getSupersedeKey(Request message) {
+        RenderingRequest request = ((Render) message).request;
+        if (request.getCaller() == null) {
+            return null;
+        }
+        return new Pair<RenderingRequestCaller, Integer>(request.getCaller(),
+                request.getType());
+    }
+
+    @Override
+    protected void cancelRequest(Request message) {
+        ((Render) message).request.cancel();
+    }
+
+    @Override
+    protected void discardRequest(Request message) {
+        ((Render) message).request.releaseBitmap();
+    }
+
     @Override
     public void onResult(Result message) {
         if (message == null) {
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.filtershow.pipeline;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.util.LruCache;
+
+import com.android.gallery3d.filtershow.filters.FilterRepresentation;
+
+import java.util.ArrayList;
+
+// Keeps the rendered category icons, so switching between panels doesn't
+// render them again. Icons are keyed by their size and the filters of their
+// preset, and are only valid for the thumbnail they were rendered from.
+//
+// The cache owns its bitmaps: callers get a copy, as the icons are drawn
+// over and handed back to the BitmapCache by their users.
+class IconCache {
+    // A panel holds a few dozens of icons of ~100KB each.
+    private static final int MAX_SIZE = 8 * 1024 * 1024;
+
+    private final LruCache<Key, Bitmap> mIcons = new LruCache<Key, Bitmap>(MAX_SIZE) {
+        @Override
+        protected int sizeOf(Key key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+    private Bitmap mSource;
+
+    static class Key {
+        private final int mWidth;
+        private final int mHeight;
+        private final ArrayList<FilterRepresentation> mRepresentations =
+                new ArrayList<FilterRepresentation>();
+        private final int mHashCode;
+
+        Key(Rect bounds, ImagePreset preset) {
+            mWidth = bounds.width();
+            mHeight = bounds.height();
+            int hashCode = mWidth * 31 + mHeight;
+            for (int i = 0; i < preset.nbFilters(); i++) {
+                FilterRepresentation representation = preset.getFilterRepresentation(i);
+                mRepresentations.add(representation.copy());
+                String name = representation.getSerializationName();
+                hashCode = hashCode * 31 + (name == null ? 0 : name.hashCode());
+            }
+            mHashCode = hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            if (key.mWidth != mWidth || key.mHeight != mHeight
+                    || key.mRepresentations.size() != mRepresentations.size()) {
+                return false;
+            }
+            for (int i = 0; i < mRepresentations.size(); i++) {
+                if (!mRepresentations.get(i).equals(key.mRepresentations.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    // Drops all the icons if they were rendered from another thumbnail.
+    synchronized void setSource(Bitmap source) {
+        if (source != mSource) {
+            mIcons.evictAll();
+            mSource = source;
+        }
+    }
+
+    synchronized Bitmap get(Key key) {
+        return mIcons.get(key);
+    }
+
+    synchronized void put(Key key, Bitmap icon) {
+        mIcons.put(key, icon.copy(Bitmap.Config.ARGB_8888, false));
+    }
+
+    synchronized void clear() {
+        mIcons.evictAll();
+        mSource = null;
+    }
+}
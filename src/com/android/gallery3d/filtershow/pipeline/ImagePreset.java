@@ -518,7 +518,13 @@ public class ImagePreset {
                     continue;
                 }
                 Bitmap tmp = bitmap;
-                bitmap = environment.applyRepresentation(representation, bitmap);
+                int end = environment.getPointOperationsEnd(mFilters, i, to);
+                if (end > i) {
+                    bitmap = environment.applyPointOperations(mFilters.subList(i, end), bitmap);
+                    i = end - 1;
+                } else {
+                    bitmap = environment.applyRepresentation(representation, bitmap);
+                }
                 if (tmp != bitmap) {
                     environment.cache(tmp);
                 }
@@ -531,6 +537,74 @@ public class ImagePreset {
         return bitmap;
     }
 
+    // Geometry and borders are not applied by applyFilters().
+    private static boolean isAppliedSeparately(FilterRepresentation representation) {
+        return representation.getFilterType() == FilterRepresentation.TYPE_GEOMETRY
+                || representation.getFilterType() == FilterRepresentation.TYPE_BORDER;
+    }
+
+    // Returns the margin, in pixels, needed around a region of the image to
+    // render it: the sum of the radii of the neighborhood filters.
+    public int getRegionHalo(FilterEnvironment environment) {
+        int halo = 0;
+        for (FilterRepresentation representation : mFilters) {
+            if (!isAppliedSeparately(representation)) {
+                halo += environment.getFootprintRadius(representation);
+            }
+        }
+        return halo;
+    }
+
+    public boolean needsRegionStatistics(FilterEnvironment environment) {
+        return getLastGlobalFilter(environment) != -1;
+    }
+
+    private int getLastGlobalFilter(FilterEnvironment environment) {
+        if (!mDoApplyFilters) {
+            return -1;
+        }
+        for (int i = mFilters.size() - 1; i >= 0; i--) {
+            FilterRepresentation representation = mFilters.elementAt(i);
+            if (!isAppliedSeparately(representation) && environment.getFootprint(representation)
+                    == ImageFilter.FOOTPRINT_GLOBAL) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Applies the preset to a region of the image. Filters with a global
+    // footprint take their statistics from statistics, a downsampled copy of
+    // the whole image that goes through the filters before them. The
+    // statistics bitmap is handed back to the environment.
+    public Bitmap applyRegion(Bitmap bitmap, Bitmap statistics, FilterEnvironment environment) {
+        int lastGlobal = statistics == null ? -1 : getLastGlobalFilter(environment);
+        for (int i = 0; i <= lastGlobal; i++) {
+            FilterRepresentation representation = mFilters.elementAt(i);
+            if (isAppliedSeparately(representation)) {
+                continue;
+            }
+            if (environment.getFootprint(representation) == ImageFilter.FOOTPRINT_GLOBAL) {
+                bitmap = environment.applyRepresentationToRegion(representation,
+                        bitmap, statistics);
+            } else {
+                bitmap = environment.applyRepresentation(representation, bitmap);
+            }
+            if (i < lastGlobal) {
+                statistics = environment.applyRepresentation(representation, statistics);
+            }
+            if (environment.needsStop()) {
+                break;
+            }
+        }
+        environment.cache(statistics);
+        if (environment.needsStop()) {
+            return bitmap;
+        }
+        bitmap = applyFilters(bitmap, lastGlobal + 1, -1, environment);
+        return applyBorder(bitmap, environment);
+    }
+
     public void applyBorder(Allocation in, Allocation out,
             boolean copyOut, FilterEnvironment environment) {
         FilterRepresentation border = getFilterRepresentationForType(
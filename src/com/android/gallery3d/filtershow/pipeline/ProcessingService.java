@@ -39,6 +39,7 @@ import java.io.File;
 
 public class ProcessingService extends Service {
     private static final String LOGTAG = "ProcessingService";
+    private static final boolean DEBUG = false;
     private static final boolean SHOW_IMAGE = false;
     private int mNotificationId;
     private NotificationManager mNotifyMgr = null;
@@ -182,6 +183,12 @@ public class ProcessingService extends Service {
 
     @Override
     public void onDestroy() {
+        if (DEBUG) {
+            // Reading the cache statistics waits for the preview pipeline.
+            Log.v(LOGTAG, "rendering latency:\n"
+                    + mProcessingTaskController.getLatencyStatistics());
+            Log.v(LOGTAG, "preview cache:\n" + mUpdatePreviewTask.getCacheStatistics());
+        }
         tearDownPipeline();
         mProcessingTaskController.quit();
     }
@@ -19,25 +19,73 @@ package com.android.gallery3d.filtershow.pipeline;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
 
 public abstract class ProcessingTask {
+    private static final String LOGTAG = "ProcessingTask";
+    private static final boolean DEBUG = false;
     private ProcessingTaskController mTaskController;
     private Handler mProcessingHandler;
     private Handler mResultHandler;
     private int mType;
     private static final int DELAY = 300;
 
+    // The latest request posted for each supersede key.
+    private final HashMap<Object, Request> mLatestRequests = new HashMap<Object, Request>();
+    private int mSupersededCount;
+
+    // Latency from posting a request to delivering its result, only
+    // accessed on the UI thread.
+    private int mResultCount;
+    private long mLastLatency;
+    private long mTotalLatency;
+    private long mMaxLatency;
+
     static interface Request {}
     static interface Update {}
     static interface Result {}
 
+    // Carries a request through the processing queue, and its result back.
+    static class PendingRequest {
+        final Request request;
+        final Object key;
+        final long postTime;
+        Result result;
+
+        PendingRequest(Request request, Object key) {
+            this.request = request;
+            this.key = key;
+            postTime = SystemClock.uptimeMillis();
+        }
+    }
+
     public boolean postRequest(Request message) {
+        if (isPriorityTask() && mProcessingHandler.hasMessages(getType())) {
+            return false;
+        }
+        Object key = message == null ? null : getSupersedeKey(message);
+        if (key != null) {
+            // Done before the request is queued, so the processing thread
+            // never sees the previous request as the latest one.
+            Request superseded;
+            synchronized (mLatestRequests) {
+                superseded = mLatestRequests.put(key, message);
+                if (superseded != null) {
+                    mSupersededCount++;
+                }
+            }
+            if (superseded != null) {
+                // Stops the request if it is being processed right now,
+                // otherwise it is dropped before it starts.
+                cancelRequest(superseded);
+            }
+        }
         Message msg = mProcessingHandler.obtainMessage(mType);
-        msg.obj = message;
+        msg.obj = new PendingRequest(message, key);
         if (isPriorityTask()) {
-            if (mProcessingHandler.hasMessages(getType())) {
-                return false;
-            }
             mProcessingHandler.sendMessageAtFrontOfQueue(msg);
         } else if (isDelayedTask()) {
             if (mProcessingHandler.hasMessages(getType())) {
@@ -57,14 +105,58 @@ public abstract class ProcessingTask {
         mResultHandler.sendMessage(msg);
     }
 
-    public void processRequest(Request message) {
-        Object result = doInBackground(message);
+    void processRequest(PendingRequest pending) {
+        if (pending.key != null) {
+            synchronized (mLatestRequests) {
+                if (mLatestRequests.get(pending.key) != pending.request) {
+                    // A newer request for the same thing is queued.
+                    if (DEBUG) {
+                        Log.v(LOGTAG, "drop superseded request " + pending.request);
+                    }
+                    discardRequest(pending.request);
+                    return;
+                }
+            }
+        }
+        pending.result = doInBackground(pending.request);
+        if (pending.key != null) {
+            synchronized (mLatestRequests) {
+                if (mLatestRequests.get(pending.key) == pending.request) {
+                    mLatestRequests.remove(pending.key);
+                }
+            }
+        }
         Message msg = mResultHandler.obtainMessage(mType);
-        msg.obj = result;
+        msg.obj = pending;
         msg.arg1 = ProcessingTaskController.RESULT;
         mResultHandler.sendMessage(msg);
     }
 
+    void deliverResult(PendingRequest pending) {
+        long latency = SystemClock.uptimeMillis() - pending.postTime;
+        mResultCount++;
+        mLastLatency = latency;
+        mTotalLatency += latency;
+        mMaxLatency = Math.max(mMaxLatency, latency);
+        if (DEBUG) {
+            Log.v(LOGTAG, getClass().getSimpleName() + " result after " + latency + "ms");
+        }
+        onResult(pending.result);
+    }
+
+    // Returns the latency statistics of this task, must be called on the UI
+    // thread.
+    public String getLatencyStatistics() {
+        int superseded;
+        synchronized (mLatestRequests) {
+            superseded = mSupersededCount;
+        }
+        long average = mResultCount == 0 ? 0 : mTotalLatency / mResultCount;
+        return String.format("%s: %d results, latency last %dms, avg %dms, max %dms,"
+                + " %d superseded", getClass().getSimpleName(), mResultCount,
+                mLastLatency, average, mMaxLatency, superseded);
+    }
+
     public void added(ProcessingTaskController taskController) {
         mTaskController = taskController;
         mResultHandler = taskController.getResultHandler();
@@ -85,4 +177,17 @@ public abstract class ProcessingTask {
     public void onUpdate(Update message) {}
     public boolean isPriorityTask() { return false; }
     public boolean isDelayedTask() { return false; }
+
+    // Requests with the same key render the same thing, so only the latest
+    // one needs to be processed. Returns null if the request is never
+    // superseded.
+    protected Object getSupersedeKey(Request message) { return null; }
+
+    // Called on the posting thread when the request is superseded. It may be
+    // processed at the same time, and should stop as soon as possible.
+    protected void cancelRequest(Request message) {}
+
+    // Called on the processing thread when a superseded request is dropped
+    // before it is processed, to release what it holds.
+    protected void discardRequest(Request message) {}
 }
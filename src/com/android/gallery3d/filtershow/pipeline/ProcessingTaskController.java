@@ -42,7 +42,7 @@ public class ProcessingTaskController implements Handler.Callback {
             ProcessingTask task = mTasks.get(msg.what);
             if (task != null) {
                 if (msg.arg1 == RESULT) {
-                    task.onResult((ProcessingTask.Result) msg.obj);
+                    task.deliverResult((ProcessingTask.PendingRequest) msg.obj);
                 } else if (msg.arg1 == UPDATE) {
                     task.onUpdate((ProcessingTask.Update) msg.obj);
                 } else {
@@ -56,7 +56,7 @@ public class ProcessingTaskController implements Handler.Callback {
     public boolean handleMessage(Message msg) {
         ProcessingTask task = mTasks.get(msg.what);
         if (task != null) {
-            task.processRequest((ProcessingTask.Request) msg.obj);
+            task.processRequest((ProcessingTask.PendingRequest) msg.obj);
             return true;
         }
         return false;
@@ -91,6 +91,16 @@ public class ProcessingTaskController implements Handler.Callback {
         mTasks.put(task.getType(), task);
     }
 
+    // Returns the latency statistics of all the tasks, one per line. Must be
+    // called on the UI thread.
+    public String getLatencyStatistics() {
+        StringBuilder builder = new StringBuilder();
+        for (ProcessingTask task : mTasks.values()) {
+            builder.append(task.getLatencyStatistics()).append('\n');
+        }
+        return builder.toString();
+    }
+
     public void quit() {
         mHandlerThread.quit();
     }
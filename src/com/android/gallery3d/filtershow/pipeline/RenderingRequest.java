@@ -37,6 +37,8 @@ public class RenderingRequest {
     private Rect mDestination = null;
     private Rect mIconBounds = null;
     private int mType = FULL_RENDERING;
+    // Set when a newer request from the same caller makes this one useless.
+    private volatile boolean mCancelled = false;
     public static final int FULL_RENDERING = 0;
     public static final int FILTERS_RENDERING = 1;
     public static final int GEOMETRY_RENDERING = 2;
@@ -163,6 +165,24 @@ public class RenderingRequest {
         mCaller = caller;
     }
 
+    public RenderingRequestCaller getCaller() {
+        return mCaller;
+    }
+
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    // Returns the bitmap of a request whose result is dropped to the cache.
+    public void releaseBitmap() {
+        MasterImage.getImage().getBitmapCache().cache(mBitmap);
+        mBitmap = null;
+    }
+
     public Rect getBounds() {
         return mBounds;
     }
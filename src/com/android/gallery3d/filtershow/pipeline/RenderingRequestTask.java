@@ -17,13 +17,23 @@
 package com.android.gallery3d.filtershow.pipeline;
 
 import android.graphics.Bitmap;
+import android.util.Pair;
 import com.android.gallery3d.filtershow.filters.FiltersManager;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
 public class RenderingRequestTask extends ProcessingTask {
 
     private CachingPipeline mPreviewPipeline = null;
     private boolean mPipelineIsOn = false;
 
+    // Icon requests waiting for the next batch, by caller. At most one
+    // IconBatch is queued at a time.
+    private final LinkedHashMap<RenderingRequestCaller, RenderingRequest> mPendingIcons =
+            new LinkedHashMap<RenderingRequestCaller, RenderingRequest>();
+    private boolean mIconBatchPosted = false;
+
     public void setPreviewScaleFactor(float previewScale) {
         mPreviewPipeline.setPreviewScaleFactor(previewScale);
     }
@@ -36,6 +46,13 @@ public class RenderingRequestTask extends ProcessingTask {
         RenderingRequest request;
     }
 
+    static class IconBatch implements Request {
+    }
+
+    static class IconBatchResult implements Result {
+        ArrayList<RenderingRequest> requests;
+    }
+
     public RenderingRequestTask() {
         mPreviewPipeline = new CachingPipeline(
                 FiltersManager.getManager(), "Normal");
@@ -54,6 +71,21 @@ public class RenderingRequestTask extends ProcessingTask {
         if (!mPipelineIsOn) {
             return;
         }
+        if (request.getType() == RenderingRequest.ICON_RENDERING) {
+            synchronized (mPendingIcons) {
+                RenderingRequest previous = mPendingIcons.put(request.getCaller(), request);
+                if (previous != null) {
+                    previous.cancel();
+                    previous.releaseBitmap();
+                }
+                if (mIconBatchPosted) {
+                    return;
+                }
+                mIconBatchPosted = true;
+            }
+            postRequest(new IconBatch());
+            return;
+        }
         Render render = new Render();
         render.request = request;
         postRequest(render);
@@ -61,6 +93,18 @@ public class RenderingRequestTask extends ProcessingTask {
 
     @Override
     public Result doInBackground(Request message) {
+        if (message instanceof IconBatch) {
+            ArrayList<RenderingRequest> requests;
+            synchronized (mPendingIcons) {
+                requests = new ArrayList<RenderingRequest>(mPendingIcons.values());
+                mPendingIcons.clear();
+                mIconBatchPosted = false;
+            }
+            mPreviewPipeline.renderIcons(requests);
+            IconBatchResult result = new IconBatchResult();
+            result.requests = requests;
+            return result;
+        }
         RenderingRequest request = ((Render) message).request;
         RenderResult result = null;
         if (request.getType() == RenderingRequest.GEOMETRY_RENDERING) {
@@ -70,16 +114,54 @@ public class RenderingRequestTask extends ProcessingTask {
         } else {
             mPreviewPipeline.render(request);
         }
+        if (request.isCancelled()) {
+            // Superseded while rendering, the bitmap is incomplete.
+            request.releaseBitmap();
+            return null;
+        }
         result = new RenderResult();
         result.request = request;
         return result;
     }
 
+    // A newer request from the same caller for the same kind of rendering
+    // replaces the pending one.
+    @Override
+    protected Object getSupersedeKey(Request message) {
+        if (!(message instanceof Render)) {
+            return null;
+        }
+        RenderingRequest request = ((Render) message).request;
+        if (request.getCaller() == null) {
+            return null;
+        }
+        return new Pair<RenderingRequestCaller, Integer>(request.getCaller(),
+                request.getType());
+    }
+
+    @Override
+    protected void cancelRequest(Request message) {
+        ((Render) message).request.cancel();
+    }
+
+    @Override
+    protected void discardRequest(Request message) {
+        ((Render) message).request.releaseBitmap();
+    }
+
     @Override
     public void onResult(Result message) {
         if (message == null) {
             return;
         }
+        if (message instanceof IconBatchResult) {
+            for (RenderingRequest request : ((IconBatchResult) message).requests) {
+                if (!request.isCancelled()) {
+                    request.markAvailable();
+                }
+            }
+            return;
+        }
         RenderingRequest request = ((RenderResult) message).request;
         request.markAvailable();
     }
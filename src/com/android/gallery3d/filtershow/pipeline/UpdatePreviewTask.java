@@ -78,6 +78,10 @@ public class UpdatePreviewTask extends ProcessingTask {
         }
     }
 
+    public String getCacheStatistics() {
+        return mPreviewPipeline.getCacheStatistics();
+    }
+
     public void setPipelineIsOn(boolean pipelineIsOn) {
         mPipelineIsOn = pipelineIsOn;
     }
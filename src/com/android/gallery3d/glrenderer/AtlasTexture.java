@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.glrenderer;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+
+import junit.framework.Assert;
+
+// AtlasTexture is similar to BitmapTexture, except its content lives in a
+// region of a shared TextureAtlas instead of a GL texture of its own.
+//
+// The texture does not own the Bitmap. The user should make sure the Bitmap
+// is valid during the texture's lifetime, since the region may be evicted
+// and uploaded again. Bitmaps too large for the atlas fall back to a
+// BitmapTexture.
+public class AtlasTexture implements Texture {
+    private final TextureAtlas mAtlas;
+    private final Bitmap mBitmap;
+    private final BitmapTexture mFallback;
+    private final RectF mSrcRect = new RectF();
+    private final RectF mDestRect = new RectF();
+
+    // indicate this texture is being uploaded in background
+    private boolean mIsUploading = false;
+
+    public AtlasTexture(TextureAtlas atlas, Bitmap bitmap) {
+        Assert.assertTrue(bitmap != null && !bitmap.isRecycled());
+        mAtlas = atlas;
+        mBitmap = bitmap;
+        if (atlas.fits(bitmap.getWidth(), bitmap.getHeight())) {
+            mFallback = null;
+        } else {
+            mFallback = new BitmapTexture(bitmap);
+            mFallback.setOpaque(false);
+        }
+    }
+
+    void setIsUploading(boolean uploading) {
+        mIsUploading = uploading;
+    }
+
+    public boolean isUploading() {
+        return mIsUploading;
+    }
+
+    public boolean isReady() {
+        return mFallback != null
+                ? mFallback.isContentValid()
+                : mAtlas.acquire(this) != null;
+    }
+
+    // Uploads the content to GL memory if needed. Must be called on the GL
+    // thread.
+    public void updateContent(GLCanvas canvas) {
+        if (mFallback != null) {
+            mFallback.updateContent(canvas);
+        } else if (mAtlas.acquire(this) == null) {
+            mAtlas.upload(canvas, this, mBitmap);
+        }
+    }
+
+    // Can be called in UI thread.
+    public void recycle() {
+        if (mFallback != null) {
+            mFallback.recycle();
+        } else {
+            mAtlas.free(this);
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return mBitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return mBitmap.getHeight();
+    }
+
+    @Override
+    public void draw(GLCanvas canvas, int x, int y) {
+        draw(canvas, x, y, getWidth(), getHeight());
+    }
+
+    @Override
+    public void draw(GLCanvas canvas, int x, int y, int w, int h) {
+        if (mFallback != null) {
+            mFallback.draw(canvas, x, y, w, h);
+            return;
+        }
+        TextureAtlas.Region region = mAtlas.acquire(this);
+        if (region == null) {
+            if (!mAtlas.upload(canvas, this, mBitmap)) return;
+            region = mAtlas.acquire(this);
+        }
+        mSrcRect.set(region.x, region.y, region.x + region.width, region.y + region.height);
+        mDestRect.set(x, y, x + w, y + h);
+        canvas.drawTexture(region.page, mSrcRect, mDestRect);
+    }
+
+    @Override
+    public boolean isOpaque() {
+        return false;
+    }
+}
@@ -131,6 +131,11 @@ public interface GLCanvas {
     // called in the GL thread.
     public abstract void deleteRecycledResources();
 
+    // Submits any drawing that has been queued up but not yet sent to GL.
+    // GLRoot calls this at the end of every frame; clients only need it if
+    // they issue their own GL calls between draws.
+    public abstract void flush();
+
     // Dump statistics information and clear the counters. For debug only.
     public abstract void dumpStatisticsAndClear();
 
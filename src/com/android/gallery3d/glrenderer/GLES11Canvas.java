@@ -817,6 +817,11 @@ public class GLES11Canvas implements GLCanvas {
         }
     }
 
+    @Override
+    public void flush() {
+        // Nothing is batched in GLES11
+    }
+
     @Override
     public void dumpStatisticsAndClear() {
         String line = String.format(
@@ -29,6 +29,7 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -61,6 +62,27 @@ public class GLES20Canvas implements GLCanvas {
             1, 0,
     };
 
+    // Batched quads are pre-transformed to clip space on the CPU, so each
+    // vertex carries a full position, a texture coordinate and a color.
+    private static final int BATCH_POSITION_SIZE = 4;
+    private static final int BATCH_TEXTURE_COORD_SIZE = 2;
+    private static final int BATCH_COLOR_SIZE = 4;
+    private static final int BATCH_FLOATS_PER_VERTEX = BATCH_POSITION_SIZE
+            + BATCH_TEXTURE_COORD_SIZE + BATCH_COLOR_SIZE;
+    private static final int BATCH_VERTEX_STRIDE = BATCH_FLOATS_PER_VERTEX * FLOAT_SIZE;
+    private static final int BATCH_TEXTURE_COORD_OFFSET = BATCH_POSITION_SIZE * FLOAT_SIZE;
+    private static final int BATCH_COLOR_OFFSET = BATCH_TEXTURE_COORD_OFFSET
+            + BATCH_TEXTURE_COORD_SIZE * FLOAT_SIZE;
+    private static final int VERTICES_PER_QUAD = 4;
+    private static final int INDICES_PER_QUAD = 6;
+    // Must keep the vertex count addressable with unsigned short indices.
+    private static final int MAX_BATCH_QUADS = 512;
+
+    // The kinds of batches we can accumulate.
+    private static final int BATCH_NONE = 0;
+    private static final int BATCH_COLOR = 1;
+    private static final int BATCH_TEXTURE = 2;
+
     private static final float[] BOUNDS_COORDINATES = {
         0, 0, 0, 1,
         1, 1, 0, 1,
@@ -73,6 +95,7 @@ public class GLES20Canvas implements GLCanvas {
     private static final String TEXTURE_SAMPLER_UNIFORM = "uTextureSampler";
     private static final String ALPHA_UNIFORM = "uAlpha";
     private static final String TEXTURE_COORD_ATTRIBUTE = "aTextureCoordinate";
+    private static final String COLOR_ATTRIBUTE = "aColor";
 
     private static final String DRAW_VERTEX_SHADER = ""
             + "uniform mat4 " + MATRIX_UNIFORM + ";\n"
@@ -132,6 +155,35 @@ public class GLES20Canvas implements GLCanvas {
             + "  gl_FragColor *= " + ALPHA_UNIFORM + ";\n"
             + "}\n";
 
+    private static final String BATCH_VERTEX_SHADER = ""
+            + "attribute vec4 " + POSITION_ATTRIBUTE + ";\n"
+            + "attribute vec2 " + TEXTURE_COORD_ATTRIBUTE + ";\n"
+            + "attribute vec4 " + COLOR_ATTRIBUTE + ";\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "varying vec4 vColor;\n"
+            + "void main() {\n"
+            + "  gl_Position = " + POSITION_ATTRIBUTE + ";\n"
+            + "  vTextureCoord = " + TEXTURE_COORD_ATTRIBUTE + ";\n"
+            + "  vColor = " + COLOR_ATTRIBUTE + ";\n"
+            + "}\n";
+
+    private static final String BATCH_COLOR_FRAGMENT_SHADER = ""
+            + "precision mediump float;\n"
+            + "varying vec4 vColor;\n"
+            + "void main() {\n"
+            + "  gl_FragColor = vColor;\n"
+            + "}\n";
+
+    private static final String BATCH_TEXTURE_FRAGMENT_SHADER = ""
+            + "precision mediump float;\n"
+            + "varying vec2 vTextureCoord;\n"
+            + "varying vec4 vColor;\n"
+            + "uniform sampler2D " + TEXTURE_SAMPLER_UNIFORM + ";\n"
+            + "void main() {\n"
+            + "  gl_FragColor = texture2D(" + TEXTURE_SAMPLER_UNIFORM + ", vTextureCoord);\n"
+            + "  gl_FragColor *= vColor;\n"
+            + "}\n";
+
     private static final int INITIAL_RESTORE_STATE_SIZE = 8;
     private static final int MATRIX_SIZE = 16;
 
@@ -159,6 +211,8 @@ public class GLES20Canvas implements GLCanvas {
     private int mTextureProgram;
     private int mOesTextureProgram;
     private int mMeshProgram;
+    private int mBatchColorProgram;
+    private int mBatchTextureProgram;
 
     // GL buffer containing BOX_COORDINATES
     private int mBoxCoordinates;
@@ -178,6 +232,11 @@ public class GLES20Canvas implements GLCanvas {
     // Handle indices -- mesh
     private static final int INDEX_TEXTURE_COORD = 2;
 
+    // Handle indices -- batch
+    private static final int INDEX_BATCH_TEXTURE_COORD = 1;
+    private static final int INDEX_BATCH_COLOR = 2;
+    private static final int INDEX_BATCH_SAMPLER = 3;
+
     private abstract static class ShaderParameter {
         public int handle;
         protected final String mName;
@@ -239,6 +298,18 @@ public class GLES20Canvas implements GLCanvas {
             new UniformShaderParameter(TEXTURE_SAMPLER_UNIFORM), // INDEX_TEXTURE_SAMPLER
             new UniformShaderParameter(ALPHA_UNIFORM), // INDEX_ALPHA
     };
+    ShaderParameter[] mBatchColorParameters = {
+            new AttributeShaderParameter(POSITION_ATTRIBUTE), // INDEX_POSITION
+            new AttributeShaderParameter(TEXTURE_COORD_ATTRIBUTE), // INDEX_BATCH_TEXTURE_COORD
+            new AttributeShaderParameter(COLOR_ATTRIBUTE), // INDEX_BATCH_COLOR
+            new UniformShaderParameter(TEXTURE_SAMPLER_UNIFORM), // INDEX_BATCH_SAMPLER
+    };
+    ShaderParameter[] mBatchTextureParameters = {
+            new AttributeShaderParameter(POSITION_ATTRIBUTE), // INDEX_POSITION
+            new AttributeShaderParameter(TEXTURE_COORD_ATTRIBUTE), // INDEX_BATCH_TEXTURE_COORD
+            new AttributeShaderParameter(COLOR_ATTRIBUTE), // INDEX_BATCH_COLOR
+            new UniformShaderParameter(TEXTURE_SAMPLER_UNIFORM), // INDEX_BATCH_SAMPLER
+    };
 
     private final IntArray mUnboundTextures = new IntArray();
     private final IntArray mDeleteBuffers = new IntArray();
@@ -248,6 +319,27 @@ public class GLES20Canvas implements GLCanvas {
     private int mCountTextureRect = 0;
     private int mCountFillRect = 0;
     private int mCountDrawLine = 0;
+    private int mCountDrawCalls = 0;
+    private int mCountStateChanges = 0;
+    private int mCountBatchedQuads = 0;
+
+    // Cached GL state, so that we only issue calls when it actually changes.
+    // The blend state is -1 when unknown, otherwise 0 or 1.
+    private int mCurrentProgram = 0;
+    private int mBlendState = -1;
+
+    // Quads waiting to be drawn. All quads in a batch share the same program,
+    // texture and blending mode; any change of those flushes the batch.
+    private int mBatchBuffer;
+    private int mBatchIndexBuffer;
+    private final float[] mBatchVertices =
+            new float[MAX_BATCH_QUADS * VERTICES_PER_QUAD * BATCH_FLOATS_PER_VERTEX];
+    private final FloatBuffer mBatchVertexBuffer = createBuffer(mBatchVertices);
+    private int mBatchType = BATCH_NONE;
+    private int mBatchTextureId;
+    private boolean mBatchBlending;
+    private int mBatchQuadCount;
+    private final float[] mBatchMatrix = new float[MATRIX_SIZE];
 
     // Buffer for framebuffer IDs -- we keep track so we can switch the attached
     // texture.
@@ -289,10 +381,52 @@ public class GLES20Canvas implements GLCanvas {
         mOesTextureProgram = assembleProgram(textureVertexShader, oesTextureFragmentShader,
                 mOesTextureParameters);
         mMeshProgram = assembleProgram(meshVertexShader, textureFragmentShader, mMeshParameters);
+
+        int batchVertexShader = loadShader(GLES20.GL_VERTEX_SHADER, BATCH_VERTEX_SHADER);
+        int batchColorFragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER,
+                BATCH_COLOR_FRAGMENT_SHADER);
+        int batchTextureFragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER,
+                BATCH_TEXTURE_FRAGMENT_SHADER);
+        mBatchColorProgram = assembleProgram(batchVertexShader, batchColorFragmentShader,
+                mBatchColorParameters);
+        mBatchTextureProgram = assembleProgram(batchVertexShader, batchTextureFragmentShader,
+                mBatchTextureParameters);
+        mBatchBuffer = uploadBuffer(mBatchVertexBuffer);
+        mBatchIndexBuffer = uploadBatchIndices();
+
         GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
         checkError();
     }
 
+    // Every quad is drawn as two triangles: (0, 1, 2) and (2, 1, 3), using
+    // the same corner order as the triangle strip in BOX_COORDINATES.
+    private int uploadBatchIndices() {
+        int size = MAX_BATCH_QUADS * INDICES_PER_QUAD;
+        ShortBuffer indices = ByteBuffer.allocateDirect(size * Short.SIZE / Byte.SIZE)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        for (int i = 0; i < MAX_BATCH_QUADS; i++) {
+            int base = i * VERTICES_PER_QUAD;
+            indices.put((short) base);
+            indices.put((short) (base + 1));
+            indices.put((short) (base + 2));
+            indices.put((short) (base + 2));
+            indices.put((short) (base + 1));
+            indices.put((short) (base + 3));
+        }
+        indices.position(0);
+        mGLId.glGenBuffers(1, mTempIntArray, 0);
+        checkError();
+        int bufferId = mTempIntArray[0];
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, bufferId);
+        checkError();
+        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, size * Short.SIZE / Byte.SIZE,
+                indices, GLES20.GL_STATIC_DRAW);
+        checkError();
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        checkError();
+        return bufferId;
+    }
+
     private static FloatBuffer createBuffer(float[] values) {
         // First create an nio buffer, then create a VBO from it.
         int size = values.length * FLOAT_SIZE;
@@ -344,6 +478,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void setSize(int width, int height) {
+        flush();
         mWidth = width;
         mHeight = height;
         GLES20.glViewport(0, 0, mWidth, mHeight);
@@ -360,6 +495,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void clearBuffer() {
+        flush();
         GLES20.glClearColor(0f, 0f, 0f, 1f);
         checkError();
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
@@ -368,6 +504,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void clearBuffer(float[] argb) {
+        flush();
         GLES20.glClearColor(argb[1], argb[2], argb[3], argb[0]);
         checkError();
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
@@ -495,13 +632,13 @@ public class GLES20Canvas implements GLCanvas {
 
     private void draw(int type, int offset, int count, float x, float y, float width, float height,
             int color, float lineWidth) {
+        flush();
         prepareDraw(offset, color, lineWidth);
         draw(mDrawParameters, type, count, x, y, width, height);
     }
 
     private void prepareDraw(int offset, int color, float lineWidth) {
-        GLES20.glUseProgram(mDrawProgram);
-        checkError();
+        useProgram(mDrawProgram);
         if (lineWidth > 0) {
             GLES20.glLineWidth(lineWidth);
             checkError();
@@ -532,6 +669,12 @@ public class GLES20Canvas implements GLCanvas {
     }
 
     private void enableBlending(boolean enableBlending) {
+        int state = enableBlending ? 1 : 0;
+        if (mBlendState == state) {
+            return;
+        }
+        mBlendState = state;
+        mCountStateChanges++;
         if (enableBlending) {
             GLES20.glEnable(GLES20.GL_BLEND);
             checkError();
@@ -541,6 +684,16 @@ public class GLES20Canvas implements GLCanvas {
         }
     }
 
+    private void useProgram(int program) {
+        if (mCurrentProgram == program) {
+            return;
+        }
+        mCurrentProgram = program;
+        mCountStateChanges++;
+        GLES20.glUseProgram(program);
+        checkError();
+    }
+
     private void setPosition(ShaderParameter[] params, int offset) {
         GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBoxCoordinates);
         checkError();
@@ -559,6 +712,7 @@ public class GLES20Canvas implements GLCanvas {
         checkError();
         GLES20.glDrawArrays(type, 0, count);
         checkError();
+        mCountDrawCalls++;
         GLES20.glDisableVertexAttribArray(positionHandle);
         checkError();
     }
@@ -573,8 +727,10 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void fillRect(float x, float y, float width, float height, int color) {
-        draw(GLES20.GL_TRIANGLE_STRIP, OFFSET_FILL_RECT, COUNT_FILL_VERTEX, x, y, width, height,
-                color, 0f);
+        float[] colorArray = getColor(color);
+        setBatchState(BATCH_COLOR, 0, colorArray[3] < 1f);
+        addBatchQuad(x, y, width, height, false, null, colorArray[0], colorArray[1],
+                colorArray[2], colorArray[3]);
         mCountFillRect++;
     }
 
@@ -665,6 +821,18 @@ public class GLES20Canvas implements GLCanvas {
     }
 
     private void drawTextureRect(BasicTexture texture, float[] textureMatrix, RectF target) {
+        if (texture.getTarget() == GLES20.GL_TEXTURE_2D) {
+            // onBind() may upload the texture, which flushes on its own.
+            texture.onBind(this);
+            float alpha = getAlpha();
+            setBatchState(BATCH_TEXTURE, texture.getId(),
+                    !texture.isOpaque() || alpha < OPAQUE_ALPHA);
+            addBatchQuad(target.left, target.top, target.width(), target.height(),
+                    texture.isFlippedVertically(), textureMatrix, alpha, alpha, alpha, alpha);
+            mCountTextureRect++;
+            return;
+        }
+        flush();
         ShaderParameter[] params = prepareTexture(texture);
         setPosition(params, OFFSET_FILL_RECT);
         GLES20.glUniformMatrix4fv(params[INDEX_TEXTURE_MATRIX].handle, 1, false, textureMatrix, 0);
@@ -698,8 +866,7 @@ public class GLES20Canvas implements GLCanvas {
     }
 
     private void prepareTexture(BasicTexture texture, int program, ShaderParameter[] params) {
-        GLES20.glUseProgram(program);
-        checkError();
+        useProgram(program);
         enableBlending(!texture.isOpaque() || getAlpha() < OPAQUE_ALPHA);
         GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
         checkError();
@@ -715,6 +882,7 @@ public class GLES20Canvas implements GLCanvas {
     @Override
     public void drawMesh(BasicTexture texture, int x, int y, int xyBuffer, int uvBuffer,
             int indexBuffer, int indexCount) {
+        flush();
         prepareTexture(texture, mMeshProgram, mMeshParameters);
 
         GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
@@ -744,6 +912,7 @@ public class GLES20Canvas implements GLCanvas {
         setMatrix(mMeshParameters, x, y, 1, 1);
         GLES20.glDrawElements(GLES20.GL_TRIANGLE_STRIP, indexCount, GLES20.GL_UNSIGNED_BYTE, 0);
         checkError();
+        mCountDrawCalls++;
 
         GLES20.glDisableVertexAttribArray(positionHandle);
         checkError();
@@ -754,6 +923,129 @@ public class GLES20Canvas implements GLCanvas {
         mCountDrawMesh++;
     }
 
+    // Starts a new batch if the requested state differs from the pending one.
+    private void setBatchState(int type, int textureId, boolean blending) {
+        if (mBatchType == type && mBatchTextureId == textureId && mBatchBlending == blending
+                && mBatchQuadCount < MAX_BATCH_QUADS) {
+            return;
+        }
+        flush();
+        mBatchType = type;
+        mBatchTextureId = textureId;
+        mBatchBlending = blending;
+    }
+
+    // Appends the unit square scaled to (x, y, width, height) to the pending
+    // batch. The vertices are transformed by the current matrix and the
+    // projection here, so the batch doesn't depend on later matrix changes.
+    private void addBatchQuad(float x, float y, float width, float height, boolean flipped,
+            float[] textureMatrix, float red, float green, float blue, float alpha) {
+        float[] mvp = mBatchMatrix;
+        Matrix.multiplyMM(mvp, 0, mProjectionMatrix, 0, mMatrices, mCurrentMatrixIndex);
+        float[] v = mBatchVertices;
+        int index = mBatchQuadCount * VERTICES_PER_QUAD * BATCH_FLOATS_PER_VERTEX;
+        for (int corner = 0; corner < VERTICES_PER_QUAD; corner++) {
+            float u = corner & 1;
+            float t = corner >> 1;
+            float px = x + u * width;
+            float py = y + (flipped ? 1f - t : t) * height;
+            v[index++] = mvp[0] * px + mvp[4] * py + mvp[12];
+            v[index++] = mvp[1] * px + mvp[5] * py + mvp[13];
+            v[index++] = mvp[2] * px + mvp[6] * py + mvp[14];
+            v[index++] = mvp[3] * px + mvp[7] * py + mvp[15];
+            if (textureMatrix != null) {
+                v[index++] = textureMatrix[0] * u + textureMatrix[4] * t + textureMatrix[12];
+                v[index++] = textureMatrix[1] * u + textureMatrix[5] * t + textureMatrix[13];
+            } else {
+                v[index++] = u;
+                v[index++] = t;
+            }
+            v[index++] = red;
+            v[index++] = green;
+            v[index++] = blue;
+            v[index++] = alpha;
+        }
+        mBatchQuadCount++;
+        mCountBatchedQuads++;
+    }
+
+    @Override
+    public void flush() {
+        int quadCount = mBatchQuadCount;
+        if (quadCount == 0) {
+            return;
+        }
+        mBatchQuadCount = 0;
+
+        ShaderParameter[] params;
+        if (mBatchType == BATCH_TEXTURE) {
+            params = mBatchTextureParameters;
+            useProgram(mBatchTextureProgram);
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            checkError();
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mBatchTextureId);
+            checkError();
+            GLES20.glUniform1i(params[INDEX_BATCH_SAMPLER].handle, 0);
+            checkError();
+            mCountStateChanges++;
+        } else {
+            params = mBatchColorParameters;
+            useProgram(mBatchColorProgram);
+        }
+        enableBlending(mBatchBlending);
+
+        int floatCount = quadCount * VERTICES_PER_QUAD * BATCH_FLOATS_PER_VERTEX;
+        mBatchVertexBuffer.put(mBatchVertices, 0, floatCount).position(0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBatchBuffer);
+        checkError();
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, floatCount * FLOAT_SIZE,
+                mBatchVertexBuffer);
+        checkError();
+        int positionHandle = params[INDEX_POSITION].handle;
+        int texCoordHandle = params[INDEX_BATCH_TEXTURE_COORD].handle;
+        int colorHandle = params[INDEX_BATCH_COLOR].handle;
+        enableBatchAttribute(positionHandle, BATCH_POSITION_SIZE, 0);
+        enableBatchAttribute(texCoordHandle, BATCH_TEXTURE_COORD_SIZE,
+                BATCH_TEXTURE_COORD_OFFSET);
+        enableBatchAttribute(colorHandle, BATCH_COLOR_SIZE, BATCH_COLOR_OFFSET);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        checkError();
+
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBatchIndexBuffer);
+        checkError();
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, quadCount * INDICES_PER_QUAD,
+                GLES20.GL_UNSIGNED_SHORT, 0);
+        checkError();
+        mCountDrawCalls++;
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        checkError();
+
+        disableBatchAttribute(positionHandle);
+        disableBatchAttribute(texCoordHandle);
+        disableBatchAttribute(colorHandle);
+    }
+
+    // The compiler may drop attributes a program doesn't use, in which case
+    // the handle is -1.
+    private static void enableBatchAttribute(int handle, int size, int offset) {
+        if (handle < 0) {
+            return;
+        }
+        GLES20.glVertexAttribPointer(handle, size, GLES20.GL_FLOAT, false, BATCH_VERTEX_STRIDE,
+                offset);
+        checkError();
+        GLES20.glEnableVertexAttribArray(handle);
+        checkError();
+    }
+
+    private static void disableBatchAttribute(int handle) {
+        if (handle < 0) {
+            return;
+        }
+        GLES20.glDisableVertexAttribArray(handle);
+        checkError();
+    }
+
     @Override
     public void drawMixed(BasicTexture texture, int toColor, float ratio, int x, int y, int w, int h) {
         copyTextureCoordinates(texture, mTempSourceRect);
@@ -802,6 +1094,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void deleteRecycledResources() {
+        flush();
         synchronized (mUnboundTextures) {
             IntArray ids = mUnboundTextures;
             if (mUnboundTextures.size() > 0) {
@@ -819,17 +1112,24 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void dumpStatisticsAndClear() {
-        String line = String.format("MESH:%d, TEX_RECT:%d, FILL_RECT:%d, LINE:%d", mCountDrawMesh,
-                mCountTextureRect, mCountFillRect, mCountDrawLine);
+        flush();
+        String line = String.format(
+                "MESH:%d, TEX_RECT:%d, FILL_RECT:%d, LINE:%d, BATCHED:%d, DRAW_CALLS:%d,"
+                + " STATE_CHANGES:%d", mCountDrawMesh, mCountTextureRect, mCountFillRect,
+                mCountDrawLine, mCountBatchedQuads, mCountDrawCalls, mCountStateChanges);
         mCountDrawMesh = 0;
         mCountTextureRect = 0;
         mCountFillRect = 0;
         mCountDrawLine = 0;
+        mCountBatchedQuads = 0;
+        mCountDrawCalls = 0;
+        mCountStateChanges = 0;
         Log.d(TAG, line);
     }
 
     @Override
     public void endRenderTarget() {
+        flush();
         RawTexture oldTexture = mTargetTextures.remove(mTargetTextures.size() - 1);
         RawTexture texture = getTargetTexture();
         setRenderTarget(oldTexture, texture);
@@ -838,6 +1138,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void beginRenderTarget(RawTexture texture) {
+        flush();
         save(); // save matrix and alpha and blending
         RawTexture oldTexture = getTargetTexture();
         mTargetTextures.add(texture);
@@ -913,6 +1214,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void initializeTextureSize(BasicTexture texture, int format, int type) {
+        flush();
         int target = texture.getTarget();
         GLES20.glBindTexture(target, texture.getId());
         checkError();
@@ -923,6 +1225,7 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void initializeTexture(BasicTexture texture, Bitmap bitmap) {
+        flush();
         int target = texture.getTarget();
         GLES20.glBindTexture(target, texture.getId());
         checkError();
@@ -932,6 +1235,7 @@ public class GLES20Canvas implements GLCanvas {
     @Override
     public void texSubImage2D(BasicTexture texture, int xOffset, int yOffset, Bitmap bitmap,
             int format, int type) {
+        flush();
         int target = texture.getTarget();
         GLES20.glBindTexture(target, texture.getId());
         checkError();
@@ -983,6 +1287,9 @@ public class GLES20Canvas implements GLCanvas {
 
     @Override
     public void recoverFromLightCycle() {
+        // LightCycle made its own GL calls, so our cached state is stale.
+        mCurrentProgram = 0;
+        mBlendState = -1;
         GLES20.glViewport(0, 0, mWidth, mHeight);
         GLES20.glDisable(GLES20.GL_DEPTH_TEST);
         GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
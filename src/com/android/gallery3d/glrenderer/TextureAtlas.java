@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.glrenderer;
+
+import android.graphics.Bitmap;
+import android.opengl.GLUtils;
+import android.os.SystemClock;
+
+import com.android.gallery3d.ui.GLRoot;
+import com.android.gallery3d.ui.GLRoot.OnGLIdleListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// TextureAtlas packs many small bitmaps (album labels, icons) into a few
+// large GL textures, so they are uploaded with glTexSubImage2D and can be
+// drawn in a single batch by GLCanvas.
+//
+// Each page is divided into horizontal shelves. A shelf is as high as the
+// first region put into it, and regions are appended from left to right.
+// When all pages are full, the least recently drawn regions are evicted;
+// their AtlasTextures are uploaded again the next time they are drawn.
+//
+// All methods are synchronized since textures can be recycled from the
+// UI thread while the GL thread is drawing.
+public class TextureAtlas {
+    @SuppressWarnings("unused")
+    private static final String TAG = "TextureAtlas";
+
+    private static final int DEFAULT_PAGE_SIZE = 1024;
+    private static final int DEFAULT_MAX_PAGES = 4;
+    private static final int INIT_CAPACITY = 64;
+
+    // Transparent pixels around each region, cleared on every upload, so
+    // linear filtering does not pick up the texels of a neighbor or the
+    // stale content of a reused region.
+    private static final int GUTTER = 1;
+
+    // A region does not go into a shelf that is much higher than itself.
+    private static final float MAX_SHELF_WASTE = 1.5f;
+
+    // We are targeting at 60fps, so we have 16ms for each frame.
+    // Regions are small, so we don't need more than a few ms for uploads.
+    private static final long UPLOAD_LIMIT = 2; // ms
+
+    private final int mPageWidth;
+    private final int mPageHeight;
+    private final int mMaxPages;
+    private final ArrayList<Page> mPages = new ArrayList<Page>();
+
+    // All allocated regions in least recently used order.
+    private final LinkedHashMap<AtlasTexture, Region> mRegions =
+            new LinkedHashMap<AtlasTexture, Region>(INIT_CAPACITY, 0.75f, true);
+
+    private int mUploadCount;
+    private int mEvictionCount;
+
+    public static class Uploader implements OnGLIdleListener {
+        private final ArrayDeque<AtlasTexture> mFgTextures =
+                new ArrayDeque<AtlasTexture>(INIT_CAPACITY);
+        private final ArrayDeque<AtlasTexture> mBgTextures =
+                new ArrayDeque<AtlasTexture>(INIT_CAPACITY);
+        private final GLRoot mGlRoot;
+        private boolean mIsQueued = false;
+
+        public Uploader(GLRoot glRoot) {
+            mGlRoot = glRoot;
+        }
+
+        public synchronized void clear() {
+            while (!mFgTextures.isEmpty()) {
+                mFgTextures.pop().setIsUploading(false);
+            }
+            while (!mBgTextures.isEmpty()) {
+                mBgTextures.pop().setIsUploading(false);
+            }
+        }
+
+        // Takes the texture out of the queues, so it is not uploaded after
+        // it is recycled.
+        public synchronized void remove(AtlasTexture t) {
+            boolean queued = mFgTextures.remove(t);
+            queued |= mBgTextures.remove(t);
+            if (queued) t.setIsUploading(false);
+        }
+
+        public synchronized void addFgTexture(AtlasTexture t) {
+            add(mFgTextures, t);
+        }
+
+        public synchronized void addBgTexture(AtlasTexture t) {
+            add(mBgTextures, t);
+        }
+
+        // caller should hold synchronized on "this"
+        private void add(ArrayDeque<AtlasTexture> deque, AtlasTexture t) {
+            if (t.isReady()) return;
+            deque.addLast(t);
+            t.setIsUploading(true);
+
+            if (mIsQueued) return;
+            mIsQueued = true;
+            mGlRoot.addOnGLIdleListener(this);
+        }
+
+        // caller should hold synchronized on "this"
+        private boolean upload(GLCanvas canvas, ArrayDeque<AtlasTexture> deque,
+                long dueTime) {
+            boolean uploaded = false;
+            while (!deque.isEmpty() && SystemClock.uptimeMillis() < dueTime) {
+                AtlasTexture t = deque.removeFirst();
+                t.setIsUploading(false);
+                if (t.isReady()) continue;
+                t.updateContent(canvas);
+                uploaded = true;
+            }
+            return uploaded;
+        }
+
+        @Override
+        public boolean onGLIdle(GLCanvas canvas, boolean renderRequested) {
+            synchronized (this) {
+                long dueTime = SystemClock.uptimeMillis() + UPLOAD_LIMIT;
+                if (upload(canvas, mFgTextures, dueTime)) mGlRoot.requestRender();
+                upload(canvas, mBgTextures, dueTime);
+                mIsQueued = !mFgTextures.isEmpty() || !mBgTextures.isEmpty();
+
+                // return true to keep this listener in the queue
+                return mIsQueued;
+            }
+        }
+    }
+
+    static class Region {
+        final Page page;
+        final Shelf shelf;
+        final int x;
+        final int y;
+        final int slotWidth;
+        int width;
+        int height;
+
+        Region(Page page, Shelf shelf, int x, int y, int slotWidth) {
+            this.page = page;
+            this.shelf = shelf;
+            this.x = x;
+            this.y = y;
+            this.slotWidth = slotWidth;
+        }
+    }
+
+    private static class Shelf {
+        final int y;
+        final int height;
+        int usedWidth;
+        int liveCount;
+        final ArrayList<Region> freeRegions = new ArrayList<Region>();
+
+        Shelf(int y, int height) {
+            this.y = y;
+            this.height = height;
+        }
+    }
+
+    static class Page extends RawTexture {
+        final ArrayList<Shelf> shelves = new ArrayList<Shelf>();
+        int usedHeight;
+
+        Page(int width, int height) {
+            super(width, height, false);
+        }
+
+        void reset() {
+            shelves.clear();
+            usedHeight = 0;
+        }
+    }
+
+    public TextureAtlas() {
+        this(DEFAULT_PAGE_SIZE, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES);
+    }
+
+    public TextureAtlas(int pageWidth, int pageHeight, int maxPages) {
+        mPageWidth = pageWidth;
+        mPageHeight = pageHeight;
+        mMaxPages = maxPages;
+    }
+
+    // Returns true if a bitmap of the given size can ever be placed in this
+    // atlas. Larger bitmaps should use a texture of their own.
+    public boolean fits(int width, int height) {
+        return width + 2 * GUTTER <= mPageWidth && height + 2 * GUTTER <= mPageHeight;
+    }
+
+    // Uploads the content of the texture into a region of the atlas, evicting
+    // other regions if needed. Must be called on the GL thread.
+    synchronized boolean upload(GLCanvas canvas, AtlasTexture texture, Bitmap bitmap) {
+        Region region = mRegions.get(texture);
+        if (region != null && !region.page.isLoaded()) {
+            // The GL context was lost; the content of the whole page is gone.
+            clearPage(region.page);
+            region = null;
+        }
+        if (region == null) {
+            region = allocate(bitmap.getWidth(), bitmap.getHeight());
+            if (region == null) return false;
+            mRegions.put(texture, region);
+        }
+        Page page = region.page;
+        if (!page.isLoaded()) page.prepare(canvas);
+        int format = GLUtils.getInternalFormat(bitmap);
+        int type = GLUtils.getType(bitmap);
+        canvas.texSubImage2D(page, region.x, region.y, bitmap, format, type);
+        clearGutter(canvas, region, bitmap.getConfig(), format, type);
+        ++mUploadCount;
+        return true;
+    }
+
+    // Page textures start with undefined content, and freed regions keep the
+    // texels of their previous owner, so the gutter is cleared every time.
+    private static void clearGutter(GLCanvas canvas, Region region,
+            Bitmap.Config config, int format, int type) {
+        Page page = region.page;
+        int left = region.x - GUTTER;
+        int top = region.y - GUTTER;
+        int slotWidth = region.width + 2 * GUTTER;
+        int slotHeight = region.height + 2 * GUTTER;
+        for (int i = 0; i < GUTTER; ++i) {
+            Bitmap line = UploadedTexture.getBorderLine(false, config, slotWidth);
+            canvas.texSubImage2D(page, left, top + i, line, format, type);
+            canvas.texSubImage2D(page, left, region.y + region.height + i, line, format, type);
+            line = UploadedTexture.getBorderLine(true, config, slotHeight);
+            canvas.texSubImage2D(page, left + i, top, line, format, type);
+            canvas.texSubImage2D(page, region.x + region.width + i, top, line, format, type);
+        }
+    }
+
+    // Returns the region of the texture and marks it as recently used, or
+    // null if the texture has no valid content in the atlas.
+    synchronized Region acquire(AtlasTexture texture) {
+        Region region = mRegions.get(texture);
+        if (region == null || !region.page.isLoaded()) return null;
+        return region;
+    }
+
+    synchronized void free(AtlasTexture texture) {
+        Region region = mRegions.remove(texture);
+        if (region != null) releaseRegion(region);
+    }
+
+    // Frees all GL resources. The textures are uploaded again when needed.
+    public synchronized void recycle() {
+        mRegions.clear();
+        for (Page page : mPages) {
+            page.recycle();
+        }
+        mPages.clear();
+    }
+
+    public synchronized String getStatistics() {
+        return String.format("pages:%d, regions:%d, uploads:%d, evictions:%d",
+                mPages.size(), mRegions.size(), mUploadCount, mEvictionCount);
+    }
+
+    // caller should hold synchronized on "this"
+    private Region allocate(int width, int height) {
+        int slotWidth = width + 2 * GUTTER;
+        int slotHeight = height + 2 * GUTTER;
+        if (slotWidth > mPageWidth || slotHeight > mPageHeight) return null;
+
+        while (true) {
+            for (int i = 0, n = mPages.size(); i < n; ++i) {
+                Region region = allocate(mPages.get(i), slotWidth, slotHeight);
+                if (region != null) return setSize(region, width, height);
+            }
+            if (mPages.size() < mMaxPages) {
+                Page page = new Page(mPageWidth, mPageHeight);
+                mPages.add(page);
+                return setSize(allocate(page, slotWidth, slotHeight), width, height);
+            }
+            if (!evictOldest()) return null;
+        }
+    }
+
+    private static Region setSize(Region region, int width, int height) {
+        region.width = width;
+        region.height = height;
+        return region;
+    }
+
+    private static Region allocate(Page page, int slotWidth, int slotHeight) {
+        for (int i = 0, n = page.shelves.size(); i < n; ++i) {
+            Shelf shelf = page.shelves.get(i);
+            if (shelf.height < slotHeight || shelf.height > slotHeight * MAX_SHELF_WASTE) {
+                continue;
+            }
+            // Only reuse a freed region of exactly the same width, so the
+            // gutters around it stay intact.
+            for (int j = 0, m = shelf.freeRegions.size(); j < m; ++j) {
+                Region region = shelf.freeRegions.get(j);
+                if (region.slotWidth == slotWidth) {
+                    shelf.freeRegions.remove(j);
+                    ++shelf.liveCount;
+                    return region;
+                }
+            }
+            if (shelf.usedWidth + slotWidth <= page.getWidth()) {
+                return newRegion(page, shelf, slotWidth);
+            }
+        }
+        if (page.usedHeight + slotHeight <= page.getHeight()) {
+            Shelf shelf = new Shelf(page.usedHeight, slotHeight);
+            page.usedHeight += slotHeight;
+            page.shelves.add(shelf);
+            return newRegion(page, shelf, slotWidth);
+        }
+        return null;
+    }
+
+    private static Region newRegion(Page page, Shelf shelf, int slotWidth) {
+        Region region = new Region(page, shelf,
+                shelf.usedWidth + GUTTER, shelf.y + GUTTER, slotWidth);
+        shelf.usedWidth += slotWidth;
+        ++shelf.liveCount;
+        return region;
+    }
+
+    // caller should hold synchronized on "this"
+    private boolean evictOldest() {
+        Iterator<Region> iter = mRegions.values().iterator();
+        if (!iter.hasNext()) return false;
+        Region region = iter.next();
+        iter.remove();
+        releaseRegion(region);
+        ++mEvictionCount;
+        return true;
+    }
+
+    private static void releaseRegion(Region region) {
+        Shelf shelf = region.shelf;
+        if (--shelf.liveCount == 0) {
+            // The shelf is empty, so it can take regions of any width again.
+            shelf.freeRegions.clear();
+            shelf.usedWidth = 0;
+            Page page = region.page;
+            ArrayList<Shelf> shelves = page.shelves;
+            // Give the space of empty shelves at the bottom back to the page.
+            while (!shelves.isEmpty() && shelves.get(shelves.size() - 1).liveCount == 0) {
+                Shelf last = shelves.remove(shelves.size() - 1);
+                page.usedHeight = last.y;
+            }
+        } else {
+            shelf.freeRegions.add(region);
+        }
+    }
+
+    // caller should hold synchronized on "this"
+    private void clearPage(Page page) {
+        Iterator<Region> iter = mRegions.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().page == page) iter.remove();
+        }
+        page.reset();
+    }
+}
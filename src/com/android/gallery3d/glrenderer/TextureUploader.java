@@ -45,6 +45,14 @@ public class TextureUploader implements OnGLIdleListener {
         }
     }
 
+    // Drops the texture from the queues, so it can be recycled. It is never
+    // being uploaded once this returns.
+    public synchronized void remove(UploadedTexture t) {
+        boolean queued = mFgTextures.remove(t);
+        queued |= mBgTextures.remove(t);
+        if (queued) t.setIsUploading(false);
+    }
+
     // caller should hold synchronized on "this"
     private void queueSelfIfNeed() {
         if (mIsQueued) return;
@@ -58,6 +58,8 @@ public abstract class UploadedTexture extends BasicTexture {
     private boolean mThrottled = false;
     private static int sUploadedCount;
     private static final int UPLOAD_LIMIT = 100;
+    // Time spent in updateContent() since the last getAndResetUploadTime().
+    private static long sUploadTime;
 
     protected Bitmap mBitmap;
     private int mBorder;
@@ -115,7 +117,9 @@ public abstract class UploadedTexture extends BasicTexture {
         mThrottled = throttled;
     }
 
-    private static Bitmap getBorderLine(
+    // Returns a transparent line, used to clear the borders of textures.
+    // Must be called on the GL thread.
+    static Bitmap getBorderLine(
             boolean vertical, Config config, int length) {
         BorderKey key = sBorderKey;
         key.vertical = vertical;
@@ -188,17 +192,29 @@ public abstract class UploadedTexture extends BasicTexture {
             if (mThrottled && ++sUploadedCount > UPLOAD_LIMIT) {
                 return;
             }
+            long start = System.nanoTime();
             uploadToCanvas(canvas);
+            sUploadTime += System.nanoTime() - start;
         } else if (!mContentValid) {
+            long start = System.nanoTime();
             Bitmap bitmap = getBitmap();
             int format = GLUtils.getInternalFormat(bitmap);
             int type = GLUtils.getType(bitmap);
             canvas.texSubImage2D(this, mBorder, mBorder, bitmap, format, type);
             freeBitmap();
             mContentValid = true;
+            sUploadTime += System.nanoTime() - start;
         }
     }
 
+    // Returns the time in nanoseconds spent uploading textures since the last
+    // call. Should only be called in the GL thread.
+    public static long getAndResetUploadTime() {
+        long time = sUploadTime;
+        sUploadTime = 0;
+        return time;
+    }
+
     public static void resetUploadLimit() {
         sUploadedCount = 0;
     }
@@ -28,9 +28,9 @@ import com.android.gallery3d.data.MediaItem;
 import com.android.gallery3d.data.MediaObject;
 import com.android.gallery3d.data.MediaSet;
 import com.android.gallery3d.data.Path;
-import com.android.gallery3d.glrenderer.BitmapTexture;
+import com.android.gallery3d.glrenderer.AtlasTexture;
 import com.android.gallery3d.glrenderer.Texture;
-import com.android.gallery3d.glrenderer.TextureUploader;
+import com.android.gallery3d.glrenderer.TextureAtlas;
 import com.android.gallery3d.glrenderer.TiledTexture;
 import com.android.gallery3d.util.Future;
 import com.android.gallery3d.util.FutureListener;
@@ -63,11 +63,12 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
     private final String mLoadingText;
 
     private final TiledTexture.Uploader mContentUploader;
-    private final TextureUploader mLabelUploader;
+    private final TextureAtlas mLabelAtlas;
+    private final TextureAtlas.Uploader mLabelUploader;
 
     private int mActiveRequestCount = 0;
     private boolean mIsActive = false;
-    private BitmapTexture mLoadingLabel;
+    private AtlasTexture mLoadingLabel;
 
     private int mSlotWidth;
 
@@ -75,7 +76,7 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
         public MediaSet album;
         public MediaItem coverItem;
         public Texture content;
-        public BitmapTexture labelTexture;
+        public AtlasTexture labelTexture;
         public TiledTexture bitmapTexture;
         public Path setPath;
         public String title;
@@ -102,7 +103,9 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
         mLabelMaker = new AlbumLabelMaker(activity.getAndroidContext(), labelSpec);
         mLoadingText = activity.getAndroidContext().getString(R.string.loading);
         mContentUploader = new TiledTexture.Uploader(activity.getGLRoot());
-        mLabelUploader = new TextureUploader(activity.getGLRoot());
+        // All labels share a few GL textures instead of one each.
+        mLabelAtlas = new TextureAtlas();
+        mLabelUploader = new TextureAtlas.Uploader(activity.getGLRoot());
 
         mHandler = new SynchronizedHandler(activity.getGLRoot()) {
             @Override
@@ -230,12 +233,25 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
     private void freeSlotContent(int slotIndex) {
         AlbumSetEntry entry = mData[slotIndex % mData.length];
         if (entry.coverLoader != null) entry.coverLoader.recycle();
-        if (entry.labelLoader != null) entry.labelLoader.recycle();
-        if (entry.labelTexture != null) entry.labelTexture.recycle();
+        recycleLabel(entry);
         if (entry.bitmapTexture != null) entry.bitmapTexture.recycle();
         mData[slotIndex % mData.length] = null;
     }
 
+    // The label is taken out of the upload queues first, since the uploader
+    // runs on the GL thread and would upload a recycled bitmap.
+    private void recycleLabel(AlbumSetEntry entry) {
+        if (entry.labelTexture != null) {
+            mLabelUploader.remove(entry.labelTexture);
+            entry.labelTexture.recycle();
+            entry.labelTexture = null;
+        }
+        if (entry.labelLoader != null) {
+            entry.labelLoader.recycle();
+            entry.labelLoader = null;
+        }
+    }
+
     private boolean isLabelChanged(
             AlbumSetEntry entry, String title, int totalCount, int sourceType) {
         return !Utils.equals(entry.title, title)
@@ -260,11 +276,7 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
             entry.title = title;
             entry.totalCount = totalCount;
             entry.sourceType = sourceType;
-            if (entry.labelLoader != null) {
-                entry.labelLoader.recycle();
-                entry.labelLoader = null;
-                entry.labelTexture = null;
-            }
+            recycleLabel(entry);
             if (album != null) {
                 entry.labelLoader = new AlbumLabelLoader(
                         slotIndex, title, totalCount, sourceType);
@@ -383,13 +395,12 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
         }
     }
 
-    public BitmapTexture getLoadingTexture() {
+    public AtlasTexture getLoadingTexture() {
         if (mLoadingLabel == null) {
             Bitmap bitmap = mLabelMaker.requestLabel(
                     mLoadingText, "", DataSourceType.TYPE_NOT_CATEGORIZED)
                     .run(ThreadPool.JOB_CONTEXT_STUB);
-            mLoadingLabel = new BitmapTexture(bitmap);
-            mLoadingLabel.setOpaque(false);
+            mLoadingLabel = new AtlasTexture(mLabelAtlas, bitmap);
         }
         return mLoadingLabel;
     }
@@ -402,6 +413,8 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
         for (int i = mContentStart, n = mContentEnd; i < n; ++i) {
             freeSlotContent(i);
         }
+        mLoadingLabel = null;
+        mLabelAtlas.recycle();
     }
 
     public void resume() {
@@ -507,8 +520,7 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
             if (bitmap == null) return; // Error or recycled
 
             AlbumSetEntry entry = mData[mSlotIndex % mData.length];
-            BitmapTexture texture = new BitmapTexture(bitmap);
-            texture.setOpaque(false);
+            AtlasTexture texture = new AtlasTexture(mLabelAtlas, bitmap);
             entry.labelTexture = texture;
 
             if (isActiveSlot(mSlotIndex)) {
@@ -526,18 +538,17 @@ public class AlbumSetSlidingWindow implements AlbumSetDataLoader.DataListener {
         if (mSlotWidth == width) return;
 
         mSlotWidth = width;
-        mLoadingLabel = null;
+        if (mLoadingLabel != null) {
+            mLoadingLabel.recycle();
+            mLoadingLabel = null;
+        }
         mLabelMaker.setLabelWidth(mSlotWidth);
 
         if (!mIsActive) return;
 
         for (int i = mContentStart, n = mContentEnd; i < n; ++i) {
             AlbumSetEntry entry = mData[i % mData.length];
-            if (entry.labelLoader != null) {
-                entry.labelLoader.recycle();
-                entry.labelLoader = null;
-                entry.labelTexture = null;
-            }
+            recycleLabel(entry);
             if (entry.album != null) {
                 entry.labelLoader = new AlbumLabelLoader(i,
                         entry.title, entry.totalCount, entry.sourceType);
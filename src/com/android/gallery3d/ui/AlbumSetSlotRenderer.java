@@ -21,6 +21,7 @@ import com.android.gallery3d.app.AbstractGalleryActivity;
 import com.android.gallery3d.app.AlbumSetDataLoader;
 import com.android.gallery3d.data.MediaObject;
 import com.android.gallery3d.data.Path;
+import com.android.gallery3d.glrenderer.AtlasTexture;
 import com.android.gallery3d.glrenderer.ColorTexture;
 import com.android.gallery3d.glrenderer.FadeInTexture;
 import com.android.gallery3d.glrenderer.GLCanvas;
@@ -114,6 +115,9 @@ public class AlbumSetSlotRenderer extends AbstractSlotRenderer {
     }
 
     private static Texture checkLabelTexture(Texture texture) {
+        if (texture instanceof AtlasTexture) {
+            return ((AtlasTexture) texture).isUploading() ? null : texture;
+        }
         return ((texture instanceof UploadedTexture)
                 && ((UploadedTexture) texture).isUploading())
                 ? null
@@ -228,9 +228,12 @@ public class AlbumSlidingWindow implements AlbumDataLoader.DataListener {
         AlbumEntry entry = mData[slotIndex % mData.length];
         if (entry.content != null || entry.item == null) return false;
 
-        // Set up the panorama callback
-        entry.mPanoSupportListener = new PanoSupportListener(entry);
-        entry.item.getPanoramaSupport(entry.mPanoSupportListener);
+        // Set up the panorama callback, once per entry: this runs for every
+        // pending slot each time the visible range changes
+        if (entry.mPanoSupportListener == null) {
+            entry.mPanoSupportListener = new PanoSupportListener(entry);
+            entry.item.getPanoramaSupport(entry.mPanoSupportListener);
+        }
 
         entry.contentLoader.startLoad();
         return entry.contentLoader.isRequestInProgress();
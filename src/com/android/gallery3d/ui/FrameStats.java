@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.gallery3d.ui;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// FrameStats records the cost of every frame rendered by GLRootView into a
+// fixed size ring buffer, so dropped frames can be tracked down after the
+// fact (for example with "adb shell dumpsys activity top").
+//
+// For each frame we keep the interval since the previous frame, the total
+// render time, the time spent uploading textures, the time spent in
+// OnGLIdleListeners since the previous frame, the idle listener backlog,
+// and the render time of the views in the top levels of the GLView tree.
+//
+// There is a single writer (the GL thread) and no locking: the writer fills
+// a slot and then publishes it by advancing mWriteCount. A reader may see a
+// slot which is being overwritten, which only affects one sample of the
+// histogram.
+public class FrameStats {
+    @SuppressWarnings("unused")
+    private static final String TAG = "FrameStats";
+
+    private static final int CAPACITY = 256; // frames, must be a power of 2
+    private static final int MAX_TRACKED_VIEWS = 16;
+    // Views deeper than this in the GLView tree are included in the time of
+    // their ancestors.
+    private static final int MAX_VIEW_DEPTH = 2;
+    private static final long NS_PER_MS = 1000000;
+    // A frame interval longer than this means we missed at least one vsync.
+    private static final long JANK_INTERVAL = 20 * NS_PER_MS;
+    private static final long[] HISTOGRAM_BUCKETS_MS = {8, 16, 20, 33, 50, 100, 250};
+
+    public static final int FLAG_ANIMATING = 1;
+    public static final int FLAG_UPLOAD_LIMIT_REACHED = 2;
+
+    // Every GLRootView renders on a GL thread of its own, so each thread
+    // reports the view timings to the stats of its view.
+    private static final ThreadLocal<FrameStats> sActive = new ThreadLocal<FrameStats>();
+
+    private final long[] mIntervals = new long[CAPACITY];
+    private final long[] mRenderTimes = new long[CAPACITY];
+    private final long[] mUploadTimes = new long[CAPACITY];
+    private final long[] mIdleTimes = new long[CAPACITY];
+    private final int[] mIdleBacklogs = new int[CAPACITY];
+    private final int[] mFlags = new int[CAPACITY];
+    private final long[] mViewTimes = new long[CAPACITY * MAX_TRACKED_VIEWS];
+    private final AtomicLong mWriteCount = new AtomicLong();
+
+    // The names of the tracked views, indexed like mViewTimes. Only written
+    // by the GL thread, under the lock of mViewIndices.
+    private final String[] mViewNames = new String[MAX_TRACKED_VIEWS];
+    private final HashMap<Class<?>, Integer> mViewIndices =
+            new HashMap<Class<?>, Integer>();
+
+    // State of the frame being rendered, only touched by the GL thread.
+    private final long[] mCurrentViewTimes = new long[MAX_TRACKED_VIEWS];
+    private long mFrameStart;
+    private long mLastFrameStart;
+    private long mIdleTime;
+    private int mDepth;
+
+    // Makes the given instance receive the view timings from GLView on the
+    // calling GL thread.
+    public static void setActive(FrameStats stats) {
+        sActive.set(stats);
+    }
+
+    // Called by GLView before rendering a child. Returns the start time to be
+    // passed to onViewRenderEnd(), or 0 if the view is not tracked.
+    public static long onViewRenderStart() {
+        FrameStats stats = sActive.get();
+        if (stats == null) return 0;
+        return stats.mDepth++ < MAX_VIEW_DEPTH ? System.nanoTime() : 0;
+    }
+
+    public static void onViewRenderEnd(GLView view, long startTime) {
+        FrameStats stats = sActive.get();
+        if (stats == null) return;
+        --stats.mDepth;
+        if (startTime != 0) stats.addViewTime(view, System.nanoTime() - startTime);
+    }
+
+    public void beginFrame() {
+        mFrameStart = System.nanoTime();
+        mDepth = 0;
+        for (int i = 0; i < MAX_TRACKED_VIEWS; ++i) {
+            mCurrentViewTimes[i] = 0;
+        }
+    }
+
+    public void endFrame(long uploadTime, int idleBacklog, int flags) {
+        long now = System.nanoTime();
+        int slot = (int) (mWriteCount.get() & (CAPACITY - 1));
+        mIntervals[slot] = mLastFrameStart == 0 ? 0 : mFrameStart - mLastFrameStart;
+        mRenderTimes[slot] = now - mFrameStart;
+        mUploadTimes[slot] = uploadTime;
+        mIdleTimes[slot] = mIdleTime;
+        mIdleBacklogs[slot] = idleBacklog;
+        mFlags[slot] = flags;
+        System.arraycopy(mCurrentViewTimes, 0,
+                mViewTimes, slot * MAX_TRACKED_VIEWS, MAX_TRACKED_VIEWS);
+        mLastFrameStart = mFrameStart;
+        mIdleTime = 0;
+        mWriteCount.lazySet(mWriteCount.get() + 1);
+    }
+
+    // Accounts the time spent in an OnGLIdleListener to the next frame.
+    public void addIdleTime(long time) {
+        mIdleTime += time;
+    }
+
+    private void addViewTime(GLView view, long time) {
+        int index = getViewIndex(view.getClass());
+        if (index >= 0) mCurrentViewTimes[index] += time;
+    }
+
+    private int getViewIndex(Class<?> viewClass) {
+        synchronized (mViewIndices) {
+            Integer index = mViewIndices.get(viewClass);
+            if (index != null) return index;
+            int size = mViewIndices.size();
+            if (size == MAX_TRACKED_VIEWS) return -1;
+            mViewIndices.put(viewClass, size);
+            mViewNames[size] = viewClass.getName();
+            return size;
+        }
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        long end = mWriteCount.get();
+        long start = Math.max(0, end - CAPACITY);
+        int count = (int) (end - start);
+        writer.print(prefix);
+        writer.println("Frame stats (last " + count + " of " + end + " frames):");
+        if (count == 0) return;
+
+        int[] histogram = new int[HISTOGRAM_BUCKETS_MS.length + 1];
+        long[] viewTotals = new long[MAX_TRACKED_VIEWS];
+        long[] viewMax = new long[MAX_TRACKED_VIEWS];
+        long renderTotal = 0, renderMax = 0;
+        long uploadTotal = 0, uploadMax = 0;
+        long idleTotal = 0, idleMax = 0;
+        int backlogMax = 0, janks = 0, animating = 0, uploadLimited = 0;
+
+        for (long i = start; i < end; ++i) {
+            int slot = (int) (i & (CAPACITY - 1));
+            long render = mRenderTimes[slot];
+            int bucket = 0;
+            while (bucket < HISTOGRAM_BUCKETS_MS.length
+                    && render >= HISTOGRAM_BUCKETS_MS[bucket] * NS_PER_MS) {
+                ++bucket;
+            }
+            ++histogram[bucket];
+            renderTotal += render;
+            renderMax = Math.max(renderMax, render);
+            uploadTotal += mUploadTimes[slot];
+            uploadMax = Math.max(uploadMax, mUploadTimes[slot]);
+            idleTotal += mIdleTimes[slot];
+            idleMax = Math.max(idleMax, mIdleTimes[slot]);
+            backlogMax = Math.max(backlogMax, mIdleBacklogs[slot]);
+            if (mIntervals[slot] > JANK_INTERVAL) ++janks;
+            if ((mFlags[slot] & FLAG_ANIMATING) != 0) ++animating;
+            if ((mFlags[slot] & FLAG_UPLOAD_LIMIT_REACHED) != 0) ++uploadLimited;
+            for (int v = 0; v < MAX_TRACKED_VIEWS; ++v) {
+                long t = mViewTimes[slot * MAX_TRACKED_VIEWS + v];
+                viewTotals[v] += t;
+                viewMax[v] = Math.max(viewMax[v], t);
+            }
+        }
+
+        String p = prefix + "  ";
+        writer.println(p + "render time histogram:");
+        for (int i = 0; i < histogram.length; ++i) {
+            String label = i < HISTOGRAM_BUCKETS_MS.length
+                    ? "< " + HISTOGRAM_BUCKETS_MS[i] + "ms"
+                    : ">= " + HISTOGRAM_BUCKETS_MS[i - 1] + "ms";
+            writer.println(p + "  " + label + ": " + histogram[i]);
+        }
+        writer.println(p + "render: " + formatTimes(renderTotal / count, renderMax));
+        writer.println(p + "texture upload: " + formatTimes(uploadTotal / count, uploadMax));
+        writer.println(p + "idle listeners: " + formatTimes(idleTotal / count, idleMax)
+                + ", max backlog " + backlogMax);
+        writer.println(p + "janky intervals: " + janks + ", animating: " + animating
+                + ", upload limit reached: " + uploadLimited);
+        writer.println(p + "views:");
+        synchronized (mViewIndices) {
+            for (int v = 0, n = mViewIndices.size(); v < n; ++v) {
+                writer.println(p + "  " + mViewNames[v] + ": "
+                        + formatTimes(viewTotals[v] / count, viewMax[v]));
+            }
+        }
+    }
+
+    private static String formatTimes(long average, long max) {
+        return String.format("avg %.2fms, max %.2fms",
+                (double) average / NS_PER_MS, (double) max / NS_PER_MS);
+    }
+}
@@ -42,6 +42,7 @@ import com.android.gallery3d.util.GalleryUtils;
 import com.android.gallery3d.util.MotionEventHelper;
 import com.android.gallery3d.util.Profile;
 
+import java.io.PrintWriter;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.concurrent.locks.Condition;
@@ -107,6 +108,8 @@ public class GLRootView extends GLSurfaceView
             mRenderLock.newCondition();
     private boolean mFreeze;
 
+    private final FrameStats mFrameStats = new FrameStats();
+
     private long mLastDrawFinishTime;
     private boolean mInDownState = false;
     private boolean mFirstDraw = true;
@@ -292,6 +295,7 @@ public class GLRootView extends GLSurfaceView
             mGL = gl;
             mCanvas = ApiHelper.HAS_GLES20_REQUIRED ? new GLES20Canvas() : new GLES11Canvas(gl);
             BasicTexture.invalidateAllTextures();
+            FrameStats.setActive(mFrameStats);
         } finally {
             mRenderLock.unlock();
         }
@@ -390,6 +394,7 @@ public class GLRootView extends GLSurfaceView
 
     private void onDrawFrameLocked(GL10 gl) {
         if (DEBUG_FPS) outputFps();
+        mFrameStats.beginFrame();
 
         // release the unbound textures and deleted buffers.
         mCanvas.deleteRecycledResources();
@@ -408,13 +413,17 @@ public class GLRootView extends GLSurfaceView
         mCanvas.save(GLCanvas.SAVE_FLAG_ALL);
         rotateCanvas(-mCompensation);
         if (mContentView != null) {
-           mContentView.render(mCanvas);
+            long startTime = FrameStats.onViewRenderStart();
+            mContentView.render(mCanvas);
+            FrameStats.onViewRenderEnd(mContentView, startTime);
         } else {
             // Make sure we always draw something to prevent displaying garbage
             mCanvas.clearBuffer();
         }
         mCanvas.restore();
 
+        int frameFlags = 0;
+        if (mRenderRequested) frameFlags |= FrameStats.FLAG_ANIMATING;
         if (!mAnimations.isEmpty()) {
             long now = AnimationTime.get();
             for (int i = 0, n = mAnimations.size(); i < n; i++) {
@@ -424,10 +433,13 @@ public class GLRootView extends GLSurfaceView
         }
 
         if (UploadedTexture.uploadLimitReached()) {
+            frameFlags |= FrameStats.FLAG_UPLOAD_LIMIT_REACHED;
             requestRender();
         }
 
+        int idleBacklog;
         synchronized (mIdleListeners) {
+            idleBacklog = mIdleListeners.size();
             if (!mIdleListeners.isEmpty()) mIdleRunner.enable();
         }
 
@@ -436,6 +448,9 @@ public class GLRootView extends GLSurfaceView
             mInvalidateColor = ~mInvalidateColor;
         }
 
+        mCanvas.flush();
+        mFrameStats.endFrame(UploadedTexture.getAndResetUploadTime(), idleBacklog, frameFlags);
+
         if (DEBUG_DRAWING_STAT) {
             mCanvas.dumpStatisticsAndClear();
         }
@@ -501,7 +516,10 @@ public class GLRootView extends GLSurfaceView
             mRenderLock.lock();
             boolean keepInQueue;
             try {
+                long startTime = System.nanoTime();
                 keepInQueue = listener.onGLIdle(mCanvas, mRenderRequested);
+                mCanvas.flush();
+                mFrameStats.addIdleTime(System.nanoTime() - startTime);
             } finally {
                 mRenderLock.unlock();
             }
@@ -541,6 +559,11 @@ public class GLRootView extends GLSurfaceView
         }
     }
 
+    // Prints the frame timing histogram, for dumpsys.
+    public void dumpFrameStats(String prefix, PrintWriter writer) {
+        mFrameStats.dump(prefix, writer);
+    }
+
     @Override
     public void setOrientationSource(OrientationSource source) {
         mOrientationSource = source;
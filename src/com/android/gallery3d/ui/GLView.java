@@ -283,7 +283,9 @@ public class GLView {
             }
             anim.apply(canvas);
         }
+        long startTime = FrameStats.onViewRenderStart();
         component.render(canvas);
+        FrameStats.onViewRenderEnd(component, startTime);
         if (anim != null) canvas.restore();
         canvas.translate(-xoffset, -yoffset);
     }
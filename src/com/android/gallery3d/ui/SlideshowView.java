@@ -23,6 +23,7 @@ import com.android.gallery3d.anim.CanvasAnimation;
 import com.android.gallery3d.anim.FloatAnimation;
 import com.android.gallery3d.glrenderer.BitmapTexture;
 import com.android.gallery3d.glrenderer.GLCanvas;
+import com.android.gallery3d.glrenderer.TextureUploader;
 
 import java.util.Random;
 
@@ -44,11 +45,31 @@ public class SlideshowView extends GLView {
     private BitmapTexture mPrevTexture;
     private SlideshowAnimation mPrevAnimation;
 
+    // The texture of the next slide, uploaded before its transition starts
+    private BitmapTexture mNextTexture;
+    private TextureUploader mTextureUploader;
+
     private final FloatAnimation mTransitionAnimation =
             new FloatAnimation(0, 1, TRANSITION_DURATION);
 
     private Random mRandom = new Random();
 
+    // Uploads the bitmap of the next slide while the current one is shown,
+    // so the first frame of the transition doesn't wait for the upload.
+    public void prepareNext(Bitmap bitmap) {
+        if (mNextTexture != null) {
+            if (mNextTexture.getBitmap() == bitmap) return;
+            recycleNextTexture();
+        }
+        mNextTexture = new BitmapTexture(bitmap);
+        GLRoot root = getGLRoot();
+        if (root == null) return;
+        if (mTextureUploader == null) {
+            mTextureUploader = new TextureUploader(root);
+        }
+        mTextureUploader.addBgTexture(mNextTexture);
+    }
+
     public void next(Bitmap bitmap, int rotation) {
 
         mTransitionAnimation.start();
@@ -63,7 +84,13 @@ public class SlideshowView extends GLView {
         mPrevRotation = mCurrentRotation;
 
         mCurrentRotation = rotation;
-        mCurrentTexture = new BitmapTexture(bitmap);
+        if (mNextTexture != null && mNextTexture.getBitmap() == bitmap) {
+            mCurrentTexture = mNextTexture;
+        } else {
+            if (mNextTexture != null) recycleNextTexture();
+            mCurrentTexture = new BitmapTexture(bitmap);
+        }
+        mNextTexture = null;
         if (((rotation / 90) & 0x01) == 0) {
             mCurrentAnimation = new SlideshowAnimation(
                     mCurrentTexture.getWidth(), mCurrentTexture.getHeight(),
@@ -78,7 +105,22 @@ public class SlideshowView extends GLView {
         invalidate();
     }
 
+    // The texture may still be waiting in the uploader, take it out first.
+    private void recycleNextTexture() {
+        if (mTextureUploader != null) {
+            mTextureUploader.remove(mNextTexture);
+        }
+        mNextTexture.recycle();
+    }
+
     public void release() {
+        if (mTextureUploader != null) {
+            mTextureUploader.clear();
+        }
+        if (mNextTexture != null) {
+            mNextTexture.recycle();
+            mNextTexture = null;
+        }
         if (mPrevTexture != null) {
             mPrevTexture.recycle();
             mPrevTexture = null;
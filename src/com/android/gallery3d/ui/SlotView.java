@@ -84,6 +84,13 @@ public class SlotView extends GLView {
     private SlotRenderer mRenderer;
 
     private int[] mRequestRenderSlots = new int[16];
+    private final Runnable mUserInteractionEnd = new Runnable() {
+        @Override
+        public void run() {
+            UserInteractionListener listener = mUIListener;
+            if (listener != null) listener.onUserInteractionEnd();
+        }
+    };
 
     public static final int OVERSCROLL_3D = 0;
     public static final int OVERSCROLL_SYSTEM = 1;
@@ -154,9 +161,7 @@ public class SlotView extends GLView {
     }
 
     public void setScrollPosition(int position) {
-        if (View.LAYOUT_DIRECTION_RTL == TextUtils
-                .getLayoutDirectionFromLocale(Locale.getDefault())
-                && position == 0 && !isFromPhotoPage) {
+        if (isRtl() && position == 0 && !isFromPhotoPage) {
             // If RTL and not from Photo Page, set position to max.
             position = mLayout.getScrollLimit();
         }
@@ -252,6 +257,11 @@ public class SlotView extends GLView {
         mScroller.setOverfling(kind == OVERSCROLL_SYSTEM);
     }
 
+    private static boolean isRtl() {
+        return View.LAYOUT_DIRECTION_RTL == TextUtils
+                .getLayoutDirectionFromLocale(Locale.getDefault());
+    }
+
     private static int[] expandIntArray(int array[], int capacity) {
         while (array.length < capacity) {
             array = new int[array.length * 2];
@@ -298,8 +308,9 @@ public class SlotView extends GLView {
         canvas.translate(-mScrollX, -mScrollY);
 
         int requestCount = 0;
-        int requestedSlot[] = expandIntArray(mRequestRenderSlots,
-                mLayout.mVisibleEnd - mLayout.mVisibleStart);
+        // Keep the grown array, so it is not allocated again every frame
+        int requestedSlot[] = mRequestRenderSlots = expandIntArray(
+                mRequestRenderSlots, mLayout.mVisibleEnd - mLayout.mVisibleStart);
 
         for (int i = mLayout.mVisibleEnd - 1; i >= mLayout.mVisibleStart; --i) {
             int r = renderItem(canvas, i, 0, paperActive);
@@ -313,7 +324,9 @@ public class SlotView extends GLView {
                 int r = renderItem(canvas,
                         requestedSlot[i], pass, paperActive);
                 if ((r & RENDER_MORE_FRAME) != 0) more = true;
-                if ((r & RENDER_MORE_PASS) != 0) requestedSlot[newCount++] = i;
+                if ((r & RENDER_MORE_PASS) != 0) {
+                    requestedSlot[newCount++] = requestedSlot[i];
+                }
             }
             requestCount = newCount;
         }
@@ -322,14 +335,8 @@ public class SlotView extends GLView {
 
         if (more) invalidate();
 
-        final UserInteractionListener listener = mUIListener;
-        if (mMoreAnimation && !more && listener != null) {
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    listener.onUserInteractionEnd();
-                }
-            });
+        if (mMoreAnimation && !more && mUIListener != null) {
+            mHandler.post(mUserInteractionEnd);
         }
         mMoreAnimation = more;
     }
@@ -439,6 +446,11 @@ public class SlotView extends GLView {
 
         private IntegerAnimation mVerticalPadding = new IntegerAnimation();
         private IntegerAnimation mHorizontalPadding = new IntegerAnimation();
+        private final int[] mPadding = new int[2];
+
+        // The layout direction of the locale, looked up once per layout
+        // instead of for every slot in every frame.
+        private boolean mIsRtl;
 
         public void setSlotSpec(Spec spec) {
             mSpec = spec;
@@ -461,8 +473,7 @@ public class SlotView extends GLView {
         public Rect getSlotRect(int index, Rect rect) {
             int col, row;
             if (mIsWide) {
-                if (View.LAYOUT_DIRECTION_RTL == TextUtils
-                        .getLayoutDirectionFromLocale(Locale.getDefault())) {
+                if (mIsRtl) {
                     // If RTL, recalculate the columns and rows.
                     int count = ((mSlotCount + mUnitCount - 1) / mUnitCount);
                     col = count - index / mUnitCount - 1;
@@ -549,7 +560,8 @@ public class SlotView extends GLView {
                 mRenderer.onSlotSizeChanged(mSlotWidth, mSlotHeight);
             }
 
-            int[] padding = new int[2];
+            mIsRtl = isRtl();
+            int[] padding = mPadding;
             if (mIsWide) {
                 initLayoutParameters(mWidth, mHeight, mSlotWidth, mSlotHeight, padding);
                 mVerticalPadding.startAnimateTo(padding[0]);
@@ -572,8 +584,7 @@ public class SlotView extends GLView {
             int position = mScrollPosition;
 
             if (mIsWide) {
-                if (View.LAYOUT_DIRECTION_RTL == TextUtils
-                        .getLayoutDirectionFromLocale(Locale.getDefault())) {
+                if (mIsRtl) {
                     // If RTL, recalculate the position.
                     position = mContentLength > mWidth ? (mContentLength - position - mWidth)
                             : position;
@@ -625,8 +636,7 @@ public class SlotView extends GLView {
         public int getSlotIndexByPosition(float x, float y) {
             int absoluteX = Math.round(x) + (mIsWide ? mScrollPosition : 0);
             int absoluteY = Math.round(y) + (mIsWide ? 0 : mScrollPosition);
-            if (View.LAYOUT_DIRECTION_RTL == TextUtils
-                    .getLayoutDirectionFromLocale(Locale.getDefault())) {
+            if (mIsRtl) {
                 // If RTL, recalculate the absoluteX.
                 absoluteX = mContentLength > mWidth ? (mContentLength - absoluteX) : mWidth
                         - absoluteX;
@@ -23,6 +23,7 @@ import android.graphics.Bitmap.Config;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Rect;
 import android.os.Build;
 import android.os.Build.VERSION_CODES;
@@ -34,10 +35,13 @@ import com.android.gallery3d.glrenderer.BitmapTexture;
 import com.android.photos.views.TiledImageRenderer;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * A {@link com.android.photos.views.TiledImageRenderer.TileSource} using
- * {@link BitmapRegionDecoder} to wrap a local file
+ * {@link BitmapRegionDecoder} to wrap a local file. Each decoder thread of
+ * the renderer gets a region decoder of its own from a pool, so tiles are
+ * decoded concurrently.
  */
 @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
 public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
@@ -51,33 +55,39 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
     // due to decodePreview being allowed to be up to 2x the size of the target
     private static final int MAX_PREVIEW_SIZE = 1024;
 
-    BitmapRegionDecoder mDecoder;
     int mWidth;
     int mHeight;
     int mTileSize;
     private BasicTexture mPreview;
     private final int mRotation;
+    private final String mPath;
 
-    // For use only by getTile
-    private Rect mWantRegion = new Rect();
-    private Rect mOverlapRegion = new Rect();
-    private BitmapFactory.Options mOptions;
-    private Canvas mCanvas;
+    // Region decoders not used by a decoder thread, guarded by itself
+    private final ArrayList<RegionDecoder> mFreeDecoders = new ArrayList<RegionDecoder>();
+
+    // A BitmapRegionDecoder and the state used by getTile with it
+    private static class RegionDecoder {
+        final BitmapRegionDecoder mDecoder;
+        final Rect mWantRegion = new Rect();
+        final Rect mOverlapRegion = new Rect();
+        final BitmapFactory.Options mOptions = createOptions();
+        final Canvas mCanvas = new Canvas();
+
+        RegionDecoder(BitmapRegionDecoder decoder) {
+            mDecoder = decoder;
+        }
+    }
 
     public BitmapRegionTileSource(Context context, String path, int previewSize, int rotation) {
         mTileSize = TiledImageRenderer.suggestedTileSize(context);
         mRotation = rotation;
-        try {
-            mDecoder = BitmapRegionDecoder.newInstance(path, true);
-            mWidth = mDecoder.getWidth();
-            mHeight = mDecoder.getHeight();
-        } catch (IOException e) {
-            Log.w("BitmapRegionTileSource", "ctor failed", e);
+        mPath = path;
+        RegionDecoder decoder = newDecoder();
+        if (decoder != null) {
+            mWidth = decoder.mDecoder.getWidth();
+            mHeight = decoder.mDecoder.getHeight();
+            mFreeDecoders.add(decoder);
         }
-        mOptions = new BitmapFactory.Options();
-        mOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
-        mOptions.inPreferQualityOverSpeed = true;
-        mOptions.inTempStorage = new byte[16 * 1024];
         if (previewSize != 0) {
             previewSize = Math.min(previewSize, MAX_PREVIEW_SIZE);
             // Although this is the same size as the Bitmap that is likely already
@@ -121,29 +131,76 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
         return mRotation;
     }
 
+    private static BitmapFactory.Options createOptions() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inPreferQualityOverSpeed = true;
+        options.inTempStorage = new byte[16 * 1024];
+        return options;
+    }
+
+    private RegionDecoder newDecoder() {
+        try {
+            return new RegionDecoder(BitmapRegionDecoder.newInstance(mPath, true));
+        } catch (IOException e) {
+            Log.w(TAG, "cannot open region decoder for " + mPath, e);
+            return null;
+        }
+    }
+
+    // Returns a free region decoder, opening a new one if all of them are in
+    // use. There are at most as many decoders as decoder threads.
+    private RegionDecoder obtainDecoder() {
+        synchronized (mFreeDecoders) {
+            int n = mFreeDecoders.size();
+            if (n > 0) {
+                return mFreeDecoders.remove(n - 1);
+            }
+        }
+        return newDecoder();
+    }
+
+    private void releaseDecoder(RegionDecoder decoder) {
+        synchronized (mFreeDecoders) {
+            mFreeDecoders.add(decoder);
+        }
+    }
+
     @Override
     public Bitmap getTile(int level, int x, int y, Bitmap bitmap) {
+        RegionDecoder decoder = obtainDecoder();
+        if (decoder == null) {
+            return null;
+        }
+        try {
+            return getTile(decoder, level, x, y, bitmap);
+        } finally {
+            releaseDecoder(decoder);
+        }
+    }
+
+    private Bitmap getTile(RegionDecoder decoder, int level, int x, int y, Bitmap bitmap) {
         int tileSize = getTileSize();
         if (!REUSE_BITMAP) {
-            return getTileWithoutReusingBitmap(level, x, y, tileSize);
+            return getTileWithoutReusingBitmap(decoder, level, x, y, tileSize, bitmap);
         }
 
         int t = tileSize << level;
-        mWantRegion.set(x, y, x + t, y + t);
+        decoder.mWantRegion.set(x, y, x + t, y + t);
 
         if (bitmap == null) {
             bitmap = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
         }
 
-        mOptions.inSampleSize = (1 << level);
-        mOptions.inBitmap = bitmap;
+        BitmapFactory.Options options = decoder.mOptions;
+        options.inSampleSize = (1 << level);
+        options.inBitmap = bitmap;
 
         try {
-            bitmap = mDecoder.decodeRegion(mWantRegion, mOptions);
+            bitmap = decoder.mDecoder.decodeRegion(decoder.mWantRegion, options);
         } finally {
-            if (mOptions.inBitmap != bitmap && mOptions.inBitmap != null) {
-                mOptions.inBitmap = null;
-            }
+            // The bitmap now belongs to the tile
+            options.inBitmap = null;
         }
 
         if (bitmap == null) {
@@ -152,34 +209,46 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
         return bitmap;
     }
 
-    private Bitmap getTileWithoutReusingBitmap(
-            int level, int x, int y, int tileSize) {
+    // Decodes the part of the tile inside the image and draws it into the
+    // reused bitmap if there is one, leaving the rest of the tile transparent.
+    private Bitmap getTileWithoutReusingBitmap(RegionDecoder decoder,
+            int level, int x, int y, int tileSize, Bitmap reuse) {
 
         int t = tileSize << level;
-        mWantRegion.set(x, y, x + t, y + t);
+        Rect wantRegion = decoder.mWantRegion;
+        Rect overlapRegion = decoder.mOverlapRegion;
+        wantRegion.set(x, y, x + t, y + t);
 
-        mOverlapRegion.set(0, 0, mWidth, mHeight);
+        overlapRegion.set(0, 0, mWidth, mHeight);
+        if (!overlapRegion.intersect(wantRegion)) {
+            return null;
+        }
 
-        mOptions.inSampleSize = (1 << level);
-        Bitmap bitmap = mDecoder.decodeRegion(mOverlapRegion, mOptions);
+        decoder.mOptions.inSampleSize = (1 << level);
+        Bitmap bitmap = decoder.mDecoder.decodeRegion(overlapRegion, decoder.mOptions);
 
         if (bitmap == null) {
             Log.w(TAG, "fail in decoding region");
+            return null;
         }
 
-        if (mWantRegion.equals(mOverlapRegion)) {
+        if (reuse == null && wantRegion.equals(overlapRegion)) {
             return bitmap;
         }
 
-        Bitmap result = Bitmap.createBitmap(tileSize, tileSize, Config.ARGB_8888);
-        if (mCanvas == null) {
-            mCanvas = new Canvas();
+        Bitmap result = reuse;
+        if (result == null) {
+            result = Bitmap.createBitmap(tileSize, tileSize, Config.ARGB_8888);
+        } else {
+            result.eraseColor(Color.TRANSPARENT);
         }
-        mCanvas.setBitmap(result);
-        mCanvas.drawBitmap(bitmap,
-                (mOverlapRegion.left - mWantRegion.left) >> level,
-                (mOverlapRegion.top - mWantRegion.top) >> level, null);
-        mCanvas.setBitmap(null);
+        Canvas canvas = decoder.mCanvas;
+        canvas.setBitmap(result);
+        canvas.drawBitmap(bitmap,
+                (overlapRegion.left - wantRegion.left) >> level,
+                (overlapRegion.top - wantRegion.top) >> level, null);
+        canvas.setBitmap(null);
+        bitmap.recycle();
         return result;
     }
 
@@ -189,10 +258,10 @@ public class BitmapRegionTileSource implements TiledImageRenderer.TileSource {
      */
     private Bitmap decodePreview(String file, int targetSize) {
         float scale = (float) targetSize / Math.max(mWidth, mHeight);
-        mOptions.inSampleSize = BitmapUtils.computeSampleSizeLarger(scale);
-        mOptions.inJustDecodeBounds = false;
+        BitmapFactory.Options options = createOptions();
+        options.inSampleSize = BitmapUtils.computeSampleSizeLarger(scale);
 
-        Bitmap result = BitmapFactory.decodeFile(file, mOptions);
+        Bitmap result = BitmapFactory.decodeFile(file, options);
         if (result == null) {
             return null;
         }
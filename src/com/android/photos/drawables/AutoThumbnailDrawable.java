@@ -25,34 +25,46 @@ import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.os.Process;
 import android.util.Log;
 
+import com.android.gallery3d.util.PriorityThreadFactory;
 import com.android.photos.data.GalleryBitmapPool;
 
 import java.io.InputStream;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public abstract class AutoThumbnailDrawable<T> extends Drawable {
 
     private static final String TAG = "AutoThumbnailDrawable";
 
-    private static ExecutorService sThreadPool = Executors.newSingleThreadExecutor();
+    private static final int DECODE_THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int KEEP_ALIVE_SECONDS = 10;
+
+    private static ExecutorService sThreadPool = createThreadPool();
     private static GalleryBitmapPool sBitmapPool = GalleryBitmapPool.getInstance();
-    private static byte[] sTempStorage = new byte[64 * 1024];
+    private static ThumbnailCache sThumbnailCache = new ThumbnailCache();
+    private static ThreadLocal<byte[]> sTempStorage = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[64 * 1024];
+        }
+    };
 
     // UI thread only
     private Paint mPaint = new Paint();
     private Matrix mDrawMatrix = new Matrix();
 
-    // Decoder thread only
-    private BitmapFactory.Options mOptions = new BitmapFactory.Options();
-
     // Shared, guarded by mLock
     private Object mLock = new Object();
     private Bitmap mBitmap;
     protected T mData;
-    private boolean mIsQueued;
+    private Future<?> mLoadTask;
     private int mImageWidth, mImageHeight;
     private Rect mBounds = new Rect();
     private int mSampleSize = 1;
@@ -61,7 +73,15 @@ public abstract class AutoThumbnailDrawable<T> extends Drawable {
         mPaint.setAntiAlias(true);
         mPaint.setFilterBitmap(true);
         mDrawMatrix.reset();
-        mOptions.inTempStorage = sTempStorage;
+    }
+
+    private static ExecutorService createThreadPool() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new PriorityThreadFactory("thumbnail-decoder",
+                        Process.THREAD_PRIORITY_BACKGROUND));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     protected abstract byte[] getPreferredImageBytes(T data);
@@ -74,6 +94,8 @@ public abstract class AutoThumbnailDrawable<T> extends Drawable {
             mImageWidth = width;
             mImageHeight = height;
             mData = data;
+            // The cell was recycled, drop the decode of its previous item
+            cancelLoadLocked();
             setBitmapLocked(null);
             refreshSampleSizeLocked();
         }
@@ -85,7 +107,7 @@ public abstract class AutoThumbnailDrawable<T> extends Drawable {
             return;
         }
         if (mBitmap != null) {
-            sBitmapPool.put(mBitmap);
+            sThumbnailCache.release(mBitmap);
         }
         mBitmap = b;
     }
@@ -96,7 +118,8 @@ public abstract class AutoThumbnailDrawable<T> extends Drawable {
         synchronized (mLock) {
             mBounds.set(bounds);
             if (mBounds.isEmpty()) {
-                mBitmap = null;
+                cancelLoadLocked();
+                setBitmapLocked(null);
             } else {
                 refreshSampleSizeLocked();
                 updateDrawMatrixLocked();
@@ -174,15 +197,30 @@ public abstract class AutoThumbnailDrawable<T> extends Drawable {
         int sampleSize = calculateSampleSizeLocked(mImageWidth, mImageHeight);
         if (sampleSize != mSampleSize || mBitmap == null) {
             mSampleSize = sampleSize;
-            loadBitmapLocked();
+            Bitmap cached = mData != null ? sThumbnailCache.acquire(mData, sampleSize) : null;
+            if (cached == mBitmap && cached != null) {
+                sThumbnailCache.release(cached);
+            } else if (cached != null) {
+                cancelLoadLocked();
+                setBitmapLocked(cached);
+                updateDrawMatrixLocked();
+            } else {
+                loadBitmapLocked();
+            }
         }
     }
 
     private void loadBitmapLocked() {
-        if (!mIsQueued && !mBounds.isEmpty()) {
+        if (mLoadTask == null && !mBounds.isEmpty()) {
             unscheduleSelf(mUpdateBitmap);
-            sThreadPool.execute(mLoadBitmap);
-            mIsQueued = true;
+            mLoadTask = sThreadPool.submit(mLoadBitmap);
+        }
+    }
+
+    private void cancelLoadLocked() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+            mLoadTask = null;
         }
     }
 
@@ -229,13 +267,15 @@ public abstract class AutoThumbnailDrawable<T> extends Drawable {
             synchronized (mLock) {
                 data = mData;
             }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inTempStorage = sTempStorage.get();
             int preferredSampleSize = 1;
             byte[] preferred = getPreferredImageBytes(data);
             boolean hasPreferred = (preferred != null && preferred.length > 0);
             if (hasPreferred) {
-                mOptions.inJustDecodeBounds = true;
-                BitmapFactory.decodeByteArray(preferred, 0, preferred.length, mOptions);
-                mOptions.inJustDecodeBounds = false;
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(preferred, 0, preferred.length, options);
+                options.inJustDecodeBounds = false;
             }
             int sampleSize, width, height;
             synchronized (mLock) {
@@ -246,33 +286,33 @@ public abstract class AutoThumbnailDrawable<T> extends Drawable {
                 height = mImageHeight;
                 if (hasPreferred) {
                     preferredSampleSize = calculateSampleSizeLocked(
-                            mOptions.outWidth, mOptions.outHeight);
+                            options.outWidth, options.outHeight);
                 }
                 sampleSize = calculateSampleSizeLocked(width, height);
-                mIsQueued = false;
+                mLoadTask = null;
             }
             Bitmap b = null;
             InputStream is = null;
             try {
                 if (hasPreferred) {
-                    mOptions.inSampleSize = preferredSampleSize;
-                    mOptions.inBitmap = sBitmapPool.get(
-                            mOptions.outWidth / preferredSampleSize,
-                            mOptions.outHeight / preferredSampleSize);
-                    b = BitmapFactory.decodeByteArray(preferred, 0, preferred.length, mOptions);
-                    if (mOptions.inBitmap != null && b != mOptions.inBitmap) {
-                        sBitmapPool.put(mOptions.inBitmap);
-                        mOptions.inBitmap = null;
+                    options.inSampleSize = preferredSampleSize;
+                    options.inBitmap = sBitmapPool.get(
+                            options.outWidth / preferredSampleSize,
+                            options.outHeight / preferredSampleSize);
+                    b = BitmapFactory.decodeByteArray(preferred, 0, preferred.length, options);
+                    if (options.inBitmap != null && b != options.inBitmap) {
+                        sBitmapPool.put(options.inBitmap);
+                        options.inBitmap = null;
                     }
                 }
                 if (b == null) {
                     is = getFallbackImageStream(data);
-                    mOptions.inSampleSize = sampleSize;
-                    mOptions.inBitmap = sBitmapPool.get(width / sampleSize, height / sampleSize);
-                    b = BitmapFactory.decodeStream(is, null, mOptions);
-                    if (mOptions.inBitmap != null && b != mOptions.inBitmap) {
-                        sBitmapPool.put(mOptions.inBitmap);
-                        mOptions.inBitmap = null;
+                    options.inSampleSize = sampleSize;
+                    options.inBitmap = sBitmapPool.get(width / sampleSize, height / sampleSize);
+                    b = BitmapFactory.decodeStream(is, null, options);
+                    if (options.inBitmap != null && b != options.inBitmap) {
+                        sBitmapPool.put(options.inBitmap);
+                        options.inBitmap = null;
                     }
                 }
             } catch (Exception e) {
@@ -287,8 +327,11 @@ public abstract class AutoThumbnailDrawable<T> extends Drawable {
                 if (b != null) {
                     synchronized (mLock) {
                         if (!dataChangedLocked(data)) {
+                            sThumbnailCache.put(data, sampleSize, b);
                             setBitmapLocked(b);
                             scheduleSelf(mUpdateBitmap, 0);
+                        } else {
+                            sBitmapPool.put(b);
                         }
                     }
                 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.photos.drawables;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import com.android.photos.data.GalleryBitmapPool;
+
+import java.util.IdentityHashMap;
+
+// Keeps the decoded thumbnails of the AutoThumbnailDrawables, so rebinding a
+// cell to an item that was shown recently doesn't decode it again.
+// Thumbnails are keyed by the drawable data and the sample size they were
+// decoded with, and the cache is bounded by the byte size of the bitmaps.
+//
+// Drawables share the cached bitmaps, and a bitmap can be evicted while it
+// is still drawn, so the cache counts the drawables using each bitmap and
+// only hands it back to the GalleryBitmapPool once it is evicted and unused.
+class ThumbnailCache {
+    // A grid cell holds a thumbnail of ~250KB, this keeps a few screens.
+    private static final int MAX_SIZE = 16 * 1024 * 1024;
+
+    private static class Key {
+        private final Object mData;
+        private final int mSampleSize;
+
+        Key(Object data, int sampleSize) {
+            mData = data;
+            mSampleSize = sampleSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return key.mSampleSize == mSampleSize && key.mData.equals(mData);
+        }
+
+        @Override
+        public int hashCode() {
+            return mData.hashCode() * 31 + mSampleSize;
+        }
+    }
+
+    private static class Entry {
+        final Bitmap mBitmap;
+        int mUsers;
+        boolean mCached;
+
+        Entry(Bitmap bitmap) {
+            mBitmap = bitmap;
+        }
+    }
+
+    private final GalleryBitmapPool mBitmapPool = GalleryBitmapPool.getInstance();
+    private final IdentityHashMap<Bitmap, Entry> mEntries =
+            new IdentityHashMap<Bitmap, Entry>();
+    private final LruCache<Key, Entry> mCache = new LruCache<Key, Entry>(MAX_SIZE) {
+        @Override
+        protected int sizeOf(Key key, Entry value) {
+            return value.mBitmap.getByteCount();
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Key key, Entry oldValue, Entry newValue) {
+            oldValue.mCached = false;
+            recycleIfUnused(oldValue);
+        }
+    };
+
+    // Returns the thumbnail of data decoded with sampleSize, or null if it
+    // isn't cached. The caller must release() the returned bitmap.
+    synchronized Bitmap acquire(Object data, int sampleSize) {
+        Entry entry = mCache.get(new Key(data, sampleSize));
+        if (entry == null) {
+            return null;
+        }
+        entry.mUsers++;
+        return entry.mBitmap;
+    }
+
+    // Adds a decoded thumbnail, which the caller must release() when done.
+    synchronized void put(Object data, int sampleSize, Bitmap bitmap) {
+        Entry entry = new Entry(bitmap);
+        entry.mUsers = 1;
+        entry.mCached = true;
+        mEntries.put(bitmap, entry);
+        mCache.put(new Key(data, sampleSize), entry);
+    }
+
+    synchronized void release(Bitmap bitmap) {
+        Entry entry = mEntries.get(bitmap);
+        if (entry == null) {
+            mBitmapPool.put(bitmap);
+            return;
+        }
+        entry.mUsers--;
+        recycleIfUnused(entry);
+    }
+
+    private void recycleIfUnused(Entry entry) {
+        if (entry.mUsers == 0 && !entry.mCached) {
+            mEntries.remove(entry.mBitmap);
+            mBitmapPool.put(entry.mBitmap);
+        }
+    }
+}
@@ -20,6 +20,7 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.os.SystemClock;
 import android.support.v4.util.LongSparseArray;
 import android.util.DisplayMetrics;
 import android.util.Log;
@@ -41,6 +42,13 @@ public class TiledImageRenderer {
 
     private static final String TAG = "TiledImageRenderer";
     private static final int UPLOAD_LIMIT = 1;
+    // Tiles are decoded by this many threads, the TileSource must allow
+    // concurrent calls to getTile()
+    private static final int DECODER_COUNT = 2;
+    // Width and height in tiles of the area around the center prefetched
+    // at the next finer level
+    private static final int PREFETCH_SPAN = 3;
+    private static final long METRICS_INTERVAL_MS = 1000;
 
     /*
      *  This is the tile state in the CPU side.
@@ -115,9 +123,12 @@ public class TiledImageRenderer {
     // Temp variables to avoid memory allocation
     private final Rect mTileRange = new Rect();
     private final Rect mActiveRange[] = {new Rect(), new Rect()};
+    private final Rect mPrefetchRange = new Rect();
 
-    private TileDecoder mTileDecoder;
+    private TileDecoder[] mTileDecoders = new TileDecoder[DECODER_COUNT];
     private boolean mBackgroundTileUploaded;
+    private final TileMetrics mMetrics =
+            Log.isLoggable(TAG, Log.DEBUG) ? new TileMetrics() : null;
 
     private int mViewWidth, mViewHeight;
     private View mParent;
@@ -153,7 +164,8 @@ public class TiledImageRenderer {
          * the original image (down-scaled by a factor of 2^level), but (x, y)
          * still refers to the coordinate on the original image.
          *
-         * The method would be called by the decoder thread.
+         * The method would be called by the decoder threads, possibly
+         * concurrently.
          */
         public Bitmap getTile(int level, int x, int y, Bitmap reuse);
     }
@@ -172,8 +184,10 @@ public class TiledImageRenderer {
 
     public TiledImageRenderer(View parent) {
         mParent = parent;
-        mTileDecoder = new TileDecoder();
-        mTileDecoder.start();
+        for (int i = 0; i < DECODER_COUNT; i++) {
+            mTileDecoders[i] = new TileDecoder();
+            mTileDecoders[i].start();
+        }
     }
 
     public int getViewWidth() {
@@ -253,8 +267,9 @@ public class TiledImageRenderer {
     // 1. Decide the tile level we want to use for display.
     // 2. Decide the tile levels we want to keep as texture (in addition to
     //    the one we use for display).
-    // 3. Recycle unused tiles.
-    // 4. Activate the tiles we want.
+    // 3. Decide the tiles of the next finer level we want to prefetch.
+    // 4. Recycle unused tiles.
+    // 5. Activate the tiles we want.
     private void layoutTiles() {
         if (mViewWidth == 0 || mViewHeight == 0 || !mLayoutTiles) {
             return;
@@ -293,6 +308,15 @@ public class TiledImageRenderer {
             getRange(range[i - fromLevel], mCenterX, mCenterY, i, mRotation);
         }
 
+        // Prefetch the center of the level zooming in would display, so it
+        // shows sharp tiles before its visible tiles are decoded. Those tiles
+        // are only decoded in the background, as the levels kept above.
+        int prefetchLevel = -1;
+        if (mLevel != mLevelCount && fromLevel == mLevel && fromLevel > 0) {
+            prefetchLevel = fromLevel - 1;
+            getPrefetchRange(mPrefetchRange, mCenterX, mCenterY, prefetchLevel);
+        }
+
         // If rotation is transient, don't update the tile.
         if (mRotation % 90 != 0) {
             return;
@@ -309,6 +333,10 @@ public class TiledImageRenderer {
             for (int i = 0; i < n; i++) {
                 Tile tile = mActiveTiles.valueAt(i);
                 int level = tile.mTileLevel;
+                if (level == prefetchLevel
+                        && mPrefetchRange.contains(tile.mX, tile.mY)) {
+                    continue;
+                }
                 if (level < fromLevel || level >= endLevel
                         || !range[level - fromLevel].contains(tile.mX, tile.mY)) {
                     mActiveTiles.removeAt(i);
@@ -328,9 +356,29 @@ public class TiledImageRenderer {
                 }
             }
         }
+        if (prefetchLevel != -1) {
+            int size = mTileSize << prefetchLevel;
+            Rect r = mPrefetchRange;
+            for (int y = r.top, bottom = r.bottom; y < bottom; y += size) {
+                for (int x = r.left, right = r.right; x < right; x += size) {
+                    activateTile(x, y, prefetchLevel);
+                }
+            }
+        }
         invalidate();
     }
 
+    // Returns the PREFETCH_SPAN x PREFETCH_SPAN tiles of the given level
+    // around (cX, cY), aligned to the tile boundary.
+    private void getPrefetchRange(Rect out, int cX, int cY, int level) {
+        int size = mTileSize << level;
+        int span = size * PREFETCH_SPAN;
+        int left = Math.max(0, size * (cX / size) - size * (PREFETCH_SPAN / 2));
+        int top = Math.max(0, size * (cY / size) - size * (PREFETCH_SPAN / 2));
+        out.set(left, top, Math.min(mImageWidth, left + span),
+                Math.min(mImageHeight, top + span));
+    }
+
     private void invalidateTiles() {
         synchronized (mQueueLock) {
             mDecodeQueue.clean();
@@ -388,7 +436,9 @@ public class TiledImageRenderer {
     public void freeTextures() {
         mLayoutTiles = true;
 
-        mTileDecoder.finishAndWait();
+        for (TileDecoder decoder : mTileDecoders) {
+            decoder.finishAndWait();
+        }
         synchronized (mQueueLock) {
             mUploadQueue.clean();
             mDecodeQueue.clean();
@@ -482,6 +532,7 @@ public class TiledImageRenderer {
        synchronized (mQueueLock) {
            if (tile.mTileState == STATE_ACTIVATED) {
                tile.mTileState = STATE_IN_QUEUE;
+               tile.mQueueTime = SystemClock.uptimeMillis();
                if (mDecodeQueue.push(tile)) {
                    mQueueLock.notifyAll();
                }
@@ -497,6 +548,10 @@ public class TiledImageRenderer {
             tile.mTileState = STATE_DECODING;
         }
         boolean decodeComplete = tile.decode();
+        if (mMetrics != null && decodeComplete) {
+            mMetrics.onTileDecoded(SystemClock.uptimeMillis() - tile.mQueueTime,
+                    tile.mAllocated);
+        }
         synchronized (mQueueLock) {
             if (tile.mTileState == STATE_RECYCLING) {
                 tile.mTileState = STATE_RECYCLED;
@@ -667,6 +722,10 @@ public class TiledImageRenderer {
         public Tile mNext;
         public Bitmap mDecodedTile;
         public volatile int mTileState = STATE_ACTIVATED;
+        // When the tile was queued for decode, and whether decoding it had
+        // to allocate a bitmap, for TileMetrics
+        public long mQueueTime;
+        public boolean mAllocated;
 
         public Tile(int x, int y, int level) {
             mX = x;
@@ -688,6 +747,7 @@ public class TiledImageRenderer {
                     reuse = null;
                 }
                 mDecodedTile = mModel.getTile(mTileLevel, mX, mY, reuse);
+                mAllocated = mDecodedTile != reuse;
             } catch (Throwable t) {
                 Log.w(TAG, "fail to decode tile", t);
             }
@@ -786,6 +846,51 @@ public class TiledImageRenderer {
         }
     }
 
+    // Logs the decode latency of tiles, from being queued to being decoded,
+    // and the tile bitmaps allocated while panning and zooming. Enabled with
+    // "setprop log.tag.TiledImageRenderer DEBUG".
+    private static class TileMetrics {
+        private long mStartTime;
+        private long mLastTime;
+        private int mTileCount;
+        private long mTotalLatency;
+        private long mMaxLatency;
+        private int mAllocationCount;
+
+        synchronized void onTileDecoded(long latency, boolean allocated) {
+            long now = SystemClock.uptimeMillis();
+            if (mTileCount > 0 && now - mLastTime > METRICS_INTERVAL_MS) {
+                // Nothing was decoded for a while, start measuring again
+                reset();
+            }
+            if (mTileCount == 0) {
+                mStartTime = now - latency;
+            }
+            mLastTime = now;
+            mTileCount++;
+            mTotalLatency += latency;
+            mMaxLatency = Math.max(mMaxLatency, latency);
+            if (allocated) {
+                mAllocationCount++;
+            }
+            long elapsed = now - mStartTime;
+            if (elapsed >= METRICS_INTERVAL_MS) {
+                Log.d(TAG, String.format("%.1f tiles/s, latency avg %d ms max %d ms,"
+                        + " %.1f allocations/s",
+                        mTileCount * 1000f / elapsed, mTotalLatency / mTileCount,
+                        mMaxLatency, mAllocationCount * 1000f / elapsed));
+                reset();
+            }
+        }
+
+        private void reset() {
+            mTileCount = 0;
+            mTotalLatency = 0;
+            mMaxLatency = 0;
+            mAllocationCount = 0;
+        }
+    }
+
     private class TileDecoder extends Thread {
 
         public void finishAndWait() {
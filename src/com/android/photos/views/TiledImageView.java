@@ -306,6 +306,7 @@ public class TiledImageView extends FrameLayout {
                         mRenderer.scale);
             }
             boolean complete = mRenderer.image.draw(mCanvas);
+            mCanvas.flush();
             if (complete && readyCallback != null) {
                 synchronized (mLock) {
                     // Make sure we don't trample on a newly set callback/source
@@ -358,7 +359,7 @@ public class TiledImageView extends FrameLayout {
         }
 
         @Override
-        public Bitmap getTile(int level, int x, int y, Bitmap bitmap) {
+        public synchronized Bitmap getTile(int level, int x, int y, Bitmap bitmap) {
             int tileSize = getTileSize();
             if (bitmap == null) {
                 bitmap = Bitmap.createBitmap(tileSize, tileSize,